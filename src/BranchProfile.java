@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// How often a conditional went each way, counted by the engines that walk the tree.
+// Only for the profiling output: no engine reads the counts to decide anything.
+// Run with -Dquick.logBranches=true to print the conditionals that ran when the program exits;
+// nothing is counted otherwise.
+public class BranchProfile {
+  private static final boolean LOG_BRANCHES = Boolean.getBoolean("quick.logBranches");
+  private static final List<BranchProfile> profiles = new ArrayList<>();
+
+  static {
+    if (LOG_BRANCHES)
+      Runtime.getRuntime().addShutdownHook(new Thread(BranchProfile::print));
+  }
+
+  private final String kind;
+  private final Position pos;
+
+  public long taken = 0;
+  public long notTaken = 0;
+
+  public BranchProfile(String kind, Position pos) {
+    this.kind = kind;
+    this.pos = pos;
+
+    if (LOG_BRANCHES)
+      profiles.add(this);
+  }
+
+  // a constant, so without the flag the JIT folds the counting away
+  public boolean record(boolean isTaken) {
+    if (!LOG_BRANCHES)
+      return isTaken;
+
+    if (isTaken)
+      this.taken++;
+    else
+      this.notTaken++;
+
+    return isTaken;
+  }
+
+  private static void print() {
+    profiles.sort(Comparator.comparingInt((BranchProfile profile) -> profile.pos.line).thenComparingInt(profile -> profile.pos.col));
+
+    for (BranchProfile profile : profiles) {
+      long total = profile.taken + profile.notTaken;
+
+      // the optimizer rebuilds the nodes, and only the ones that ran are shown
+      if (total == 0)
+        continue;
+
+      System.err.printf("%s at %d:%d | taken: %d, not taken: %d (%.1f%% taken)%n",
+        profile.kind, profile.pos.line + 1, profile.pos.col + 1, profile.taken, profile.notTaken, 100.0 * profile.taken / total);
+    }
+  }
+}
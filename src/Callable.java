@@ -1,6 +1,34 @@
+import java.util.Arrays;
 import java.util.List;
 
+// Implementations override either call, or the fixed-arity method matching their arity.
+// Callers with up to three arguments use the fixed-arity methods, so they don't have to build a list.
 public interface Callable {
   int arity();
-  Object call(Interpreter interpreter, List<Object> args) throws Exception;
+
+  default Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    switch (args.size()) {
+      case 0: return this.call0(interpreter);
+      case 1: return this.call1(interpreter, args.get(0));
+      case 2: return this.call2(interpreter, args.get(0), args.get(1));
+      case 3: return this.call3(interpreter, args.get(0), args.get(1), args.get(2));
+      default: throw new IllegalStateException("No call implementation for " + args.size() + " arguments");
+    }
+  }
+
+  default Object call0(Interpreter interpreter) throws Exception {
+    return this.call(interpreter, Arrays.asList());
+  }
+
+  default Object call1(Interpreter interpreter, Object arg0) throws Exception {
+    return this.call(interpreter, Arrays.asList(arg0));
+  }
+
+  default Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+    return this.call(interpreter, Arrays.asList(arg0, arg1));
+  }
+
+  default Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) throws Exception {
+    return this.call(interpreter, Arrays.asList(arg0, arg1, arg2));
+  }
 }
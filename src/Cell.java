@@ -0,0 +1,19 @@
+public class Cell {
+  public static final Object UNDEFINED = new Object();
+
+  public Object value;
+
+  // the reference '&' gives to the variable, made once
+  private Ref ref = null;
+
+  public Cell(Object value) {
+    this.value = value;
+  }
+
+  public Ref ref(Token name) {
+    if (this.ref == null)
+      this.ref = new Ref(name, this);
+
+    return this.ref;
+  }
+}
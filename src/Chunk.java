@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Chunk {
+  public final String name;
+
+  public int arity;
+  public int slotCount;
+  public int maxStack;
+
+  // each capture is either a local slot of the enclosing frame (>= 0) or
+  // an index into the enclosing closure's own captures (encoded as -(index + 1))
+  public int[] captures = new int[0];
+
+  // for each capture, the one to use while its variable isn't declared yet: another capture (>= 0),
+  // a global (encoded as -(slot + 2)), or none (-1)
+  public int[] captureFallbacks = new int[0];
+  public int[] cellParams = new int[0];
+
+  // for each loop, the code of its body and where a 'break' or 'continue' leaving a function called there
+  // resumes: from, to, break target, continue target
+  public int[] loops = new int[0];
+
+  // for the script, where each top-level statement starts, and its position
+  public int[] statements = new int[0];
+  public Position[] statementPositions = new Position[0];
+
+  public int[] code = new int[64];
+  public Position[] positions = new Position[64];
+  public int count = 0;
+
+  public Object[] constants = new Object[0];
+  private final List<Object> constantList = new ArrayList<>();
+
+  public Chunk(String name) {
+    this.name = name;
+  }
+
+  public int write(int value, Position pos) {
+    if (this.count == this.code.length) {
+      this.code = Arrays.copyOf(this.code, this.count * 2);
+      this.positions = Arrays.copyOf(this.positions, this.count * 2);
+    }
+
+    this.code[this.count] = value;
+    this.positions[this.count] = pos;
+
+    return this.count++;
+  }
+
+  public Position statementPosition(int ip) {
+    int i = this.statements.length - 1;
+
+    while (i > 0 && this.statements[i] > ip)
+      i--;
+
+    return this.statementPositions[i];
+  }
+
+  public int addConstant(Object value) {
+    for (int i = 0; i < this.constantList.size(); i++) {
+      Object c = this.constantList.get(i);
+
+      if (c == value || (c != null && c.getClass() == value.getClass() && !(c instanceof Chunk) && c.equals(value)))
+        return i;
+    }
+
+    this.constantList.add(value);
+    this.constants = this.constantList.toArray();
+
+    return this.constantList.size() - 1;
+  }
+}
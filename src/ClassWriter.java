@@ -0,0 +1,429 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Minimal class file writer, just enough for the classes generated by the JIT
+public class ClassWriter {
+  // class files older than version 50 are checked by the type-inferencing verifier, so no stack map frames are needed
+  private static final int VERSION = 49;
+
+  public static final int ACC_PUBLIC = 0x0001;
+  public static final int ACC_PRIVATE = 0x0002;
+  public static final int ACC_FINAL = 0x0010;
+  public static final int ACC_SUPER = 0x0020;
+
+  public static final int MAX_CODE_LENGTH = 0x7FFF;
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final DataOutputStream poolOut = new DataOutputStream(this.pool);
+  private final Map<String, Integer> poolIndex = new HashMap<>();
+  private int poolCount = 1;
+
+  private final List<byte[]> fields = new ArrayList<>();
+  private final List<byte[]> methods = new ArrayList<>();
+
+  // --- Constant pool
+
+  public int utf8(String value) {
+    return this.entry("U" + value, out -> {
+      out.writeByte(1);
+      out.writeUTF(value);
+    });
+  }
+
+  public int classRef(String name) {
+    int index = this.utf8(name);
+    return this.entry("C" + name, out -> {
+      out.writeByte(7);
+      out.writeShort(index);
+    });
+  }
+
+  public int integer(int value) {
+    return this.entry("I" + value, out -> {
+      out.writeByte(3);
+      out.writeInt(value);
+    });
+  }
+
+  public int nameAndType(String name, String descriptor) {
+    int nameIndex = this.utf8(name);
+    int descIndex = this.utf8(descriptor);
+
+    return this.entry("N" + name + ":" + descriptor, out -> {
+      out.writeByte(12);
+      out.writeShort(nameIndex);
+      out.writeShort(descIndex);
+    });
+  }
+
+  public int fieldRef(String owner, String name, String descriptor) {
+    return this.memberRef(9, owner, name, descriptor);
+  }
+
+  public int methodRef(String owner, String name, String descriptor) {
+    return this.memberRef(10, owner, name, descriptor);
+  }
+
+  public int interfaceMethodRef(String owner, String name, String descriptor) {
+    return this.memberRef(11, owner, name, descriptor);
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int classIndex = this.classRef(owner);
+    int natIndex = this.nameAndType(name, descriptor);
+
+    return this.entry(tag + owner + "." + name + ":" + descriptor, out -> {
+      out.writeByte(tag);
+      out.writeShort(classIndex);
+      out.writeShort(natIndex);
+    });
+  }
+
+  private interface EntryWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private int entry(String key, EntryWriter writer) {
+    Integer index = this.poolIndex.get(key);
+
+    if (index != null)
+      return index;
+
+    try {
+      writer.write(this.poolOut);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    this.poolIndex.put(key, this.poolCount);
+    return this.poolCount++;
+  }
+
+  // --- Members
+
+  public void field(int access, String name, String descriptor) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    try {
+      out.writeShort(access);
+      out.writeShort(this.utf8(name));
+      out.writeShort(this.utf8(descriptor));
+      out.writeShort(0);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    this.fields.add(bytes.toByteArray());
+  }
+
+  public void method(int access, String name, String descriptor, Code code) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    byte[] body = code.bytes();
+
+    try {
+      out.writeShort(access);
+      out.writeShort(this.utf8(name));
+      out.writeShort(this.utf8(descriptor));
+      out.writeShort(1);
+
+      out.writeShort(this.utf8("Code"));
+      out.writeInt(12 + body.length + 8 * code.handlers.size());
+      out.writeShort(code.maxStack);
+      out.writeShort(code.maxLocals);
+      out.writeInt(body.length);
+      out.write(body);
+
+      out.writeShort(code.handlers.size());
+      for (int[] handler : code.handlers) {
+        for (int value : handler)
+          out.writeShort(value);
+      }
+
+      out.writeShort(0);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    this.methods.add(bytes.toByteArray());
+  }
+
+  public byte[] toByteArray(int access, String name, String superName, String... interfaces) {
+    int thisIndex = this.classRef(name);
+    int superIndex = this.classRef(superName);
+    int[] interfaceIndexes = new int[interfaces.length];
+
+    for (int i = 0; i < interfaces.length; i++)
+      interfaceIndexes[i] = this.classRef(interfaces[i]);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+
+      out.writeShort(this.poolCount);
+      out.write(this.pool.toByteArray());
+
+      out.writeShort(access);
+      out.writeShort(thisIndex);
+      out.writeShort(superIndex);
+
+      out.writeShort(interfaceIndexes.length);
+      for (int index : interfaceIndexes)
+        out.writeShort(index);
+
+      out.writeShort(this.fields.size());
+      for (byte[] field : this.fields)
+        out.write(field);
+
+      out.writeShort(this.methods.size());
+      for (byte[] method : this.methods)
+        out.write(method);
+
+      out.writeShort(0);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  // ---
+
+  public interface Opcodes {
+    int ACONST_NULL = 0x01;
+    int ICONST_0 = 0x03;
+    int BIPUSH = 0x10;
+    int SIPUSH = 0x11;
+    int LDC_W = 0x13;
+    int ILOAD = 0x15;
+    int ALOAD = 0x19;
+    int AALOAD = 0x32;
+    int ISTORE = 0x36;
+    int ASTORE = 0x3A;
+    int AASTORE = 0x53;
+    int POP = 0x57;
+    int DUP = 0x59;
+    int SWAP = 0x5F;
+    int IXOR = 0x82;
+    int IFEQ = 0x99;
+    int IFNE = 0x9A;
+    int GOTO = 0xA7;
+    int ARETURN = 0xB0;
+    int RETURN = 0xB1;
+    int GETFIELD = 0xB4;
+    int PUTFIELD = 0xB5;
+    int INVOKEVIRTUAL = 0xB6;
+    int INVOKESPECIAL = 0xB7;
+    int INVOKESTATIC = 0xB8;
+    int INVOKEINTERFACE = 0xB9;
+    int ANEWARRAY = 0xBD;
+    int ATHROW = 0xBF;
+    int CHECKCAST = 0xC0;
+  }
+
+  public static class Label {
+    private int offset = -1;
+    private int depth = -1;
+    private final List<Integer> fixups = new ArrayList<>();
+  }
+
+  // Bytecode of one method; tracks the operand stack depth to compute max_stack
+  public static class Code implements Opcodes {
+    private final ClassWriter cw;
+    private byte[] code = new byte[256];
+    private int length = 0;
+
+    private int depth = 0;
+    public int maxStack = 0;
+    public int maxLocals;
+
+    // the exception table: start, end, handler and the class caught
+    private final List<int[]> handlers = new ArrayList<>();
+
+    public Code(ClassWriter cw, int maxLocals) {
+      this.cw = cw;
+      this.maxLocals = maxLocals;
+    }
+
+    public int length() {
+      return this.length;
+    }
+
+    public byte[] bytes() {
+      byte[] result = new byte[this.length];
+      System.arraycopy(this.code, 0, result, 0, this.length);
+
+      return result;
+    }
+
+    public int newLocal() {
+      return this.maxLocals++;
+    }
+
+    // ---
+
+    public void op(int opcode, int stackEffect) {
+      this.u1(opcode);
+      this.stack(stackEffect);
+    }
+
+    public void iconst(int value) {
+      if (value >= -1 && value <= 5)
+        this.u1(ICONST_0 + value);
+      else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        this.u1(BIPUSH);
+        this.u1(value);
+      }
+      else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        this.u1(SIPUSH);
+        this.u2(value);
+      }
+      else {
+        this.u1(LDC_W);
+        this.u2(this.cw.integer(value));
+      }
+
+      this.stack(1);
+    }
+
+    public void load(int opcode, int local) {
+      this.u1(opcode);
+      this.u1(local);
+      this.stack(1);
+    }
+
+    public void store(int opcode, int local) {
+      this.u1(opcode);
+      this.u1(local);
+      this.stack(-1);
+    }
+
+    public void type(int opcode, String className) {
+      this.u1(opcode);
+      this.u2(this.cw.classRef(className));
+    }
+
+    public void field(int opcode, String owner, String name, String descriptor) {
+      this.u1(opcode);
+      this.u2(this.cw.fieldRef(owner, name, descriptor));
+      this.stack(opcode == GETFIELD ? 0 : -2);
+    }
+
+    public void invoke(int opcode, String owner, String name, String descriptor) {
+      int args = argumentSlots(descriptor);
+      int effect = -args + (descriptor.endsWith(")V") ? 0 : 1) - (opcode == INVOKESTATIC ? 0 : 1);
+
+      this.u1(opcode);
+
+      if (opcode == INVOKEINTERFACE) {
+        this.u2(this.cw.interfaceMethodRef(owner, name, descriptor));
+        this.u1(args + 1);
+        this.u1(0);
+      }
+      else
+        this.u2(this.cw.methodRef(owner, name, descriptor));
+
+      this.stack(effect);
+    }
+
+    public void jump(int opcode, Label label) {
+      int start = this.length;
+
+      this.u1(opcode);
+      this.stack(opcode == GOTO ? 0 : -1);
+
+      label.depth = this.depth;
+
+      if (label.offset >= 0)
+        this.u2(label.offset - start);
+      else {
+        label.fixups.add(start);
+        this.u2(0);
+      }
+    }
+
+    public void mark(Label label) {
+      label.offset = this.length;
+
+      if (label.depth >= 0)
+        this.depth = label.depth;
+
+      for (int start : label.fixups) {
+        int offset = label.offset - start;
+
+        this.code[start + 1] = (byte) (offset >> 8);
+        this.code[start + 2] = (byte) offset;
+      }
+    }
+
+    // the labels must be marked already, inner handlers first
+    public void tryCatch(Label start, Label end, Label handler, String className) {
+      if (end.offset > start.offset)
+        this.handlers.add(new int[] { start.offset, end.offset, handler.offset, this.cw.classRef(className) });
+    }
+
+    // an exception handler starts with only the exception on the stack
+    public void markHandler(Label label) {
+      this.mark(label);
+      this.depth = 0;
+      this.stack(1);
+    }
+
+    // ---
+
+    private void stack(int effect) {
+      this.depth += effect;
+      this.maxStack = Math.max(this.maxStack, this.depth);
+    }
+
+    private void u1(int value) {
+      if (this.length + 1 > this.code.length)
+        this.code = Arrays.copyOf(this.code, this.code.length * 2);
+
+      this.code[this.length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+      this.u1(value >> 8);
+      this.u1(value);
+    }
+
+    private static int argumentSlots(String descriptor) {
+      int slots = 0;
+      int i = 1;
+
+      while (descriptor.charAt(i) != ')') {
+        char c = descriptor.charAt(i);
+        boolean array = false;
+
+        while (c == '[') {
+          array = true;
+          c = descriptor.charAt(++i);
+        }
+
+        if (c == 'L')
+          i = descriptor.indexOf(';', i);
+
+        slots += !array && (c == 'J' || c == 'D') ? 2 : 1;
+        i++;
+      }
+
+      return slots;
+    }
+  }
+}
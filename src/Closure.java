@@ -0,0 +1,27 @@
+import java.util.List;
+
+public class Closure implements Callable {
+  public final Chunk chunk;
+  public final Cell[] cells;
+  private final VM vm;
+
+  public Closure(Chunk chunk, Cell[] cells, VM vm) {
+    this.chunk = chunk;
+    this.cells = cells;
+    this.vm = vm;
+  }
+
+  @Override
+  public int arity() {
+    return this.chunk.arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    return this.vm.call(this, args);
+  }
+
+  public String toString() {
+    return "<fn>";
+  }
+}
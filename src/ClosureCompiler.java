@@ -0,0 +1,819 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Converts the syntax tree once into a tree of pre-linked closures, so operators and node kinds are resolved at compile time
+public class ClosureCompiler implements Engine, Stmt.StmtVisitor<ClosureCompiler.Exec>, Expr.ExprVisitor<ClosureCompiler.Eval> {
+  public interface Exec {
+    Util.Completion exec(Environment env) throws Exception;
+  }
+
+  public interface Eval {
+    Object eval(Environment env) throws Exception;
+  }
+
+  // natives receive an interpreter, so the engine keeps one around for them and for the value of 'return'
+  private final Interpreter interpreter = new Interpreter();
+  private final Resolver resolver = new Resolver(this.interpreter.globals);
+  private final Environment environment = new Environment(this.resolver.topLevel(), this.interpreter.globals);
+
+  private boolean isRepl = false;
+
+  @Override
+  public void interpret(List<Stmt> statements, boolean isRepl) throws Exception {
+    this.isRepl = isRepl;
+    this.resolver.resolve(statements);
+
+    for (Stmt stmt : statements) {
+      Exec exec = this.compile(stmt);
+      Util.Completion completion;
+
+      try {
+        completion = exec.exec(this.environment);
+      }
+      catch (Util.Break b) {
+        completion = Util.Completion.Break;
+      }
+      catch (Util.Continue c) {
+        completion = Util.Completion.Continue;
+      }
+
+      if (completion != null)
+        Interpreter.outsideError(completion, stmt.pos);
+    }
+  }
+
+  // ---
+
+  private Exec compile(Stmt stmt) throws Exception {
+    // left by a parse error, already reported; running it stops the program there
+    if (stmt == null)
+      return env -> { throw new Exception(); };
+
+    return stmt.accept(this);
+  }
+
+  private Eval compile(Expr expr) throws Exception {
+    return expr.accept(this);
+  }
+
+  private Exec[] compileAll(List<Stmt> statements) throws Exception {
+    Exec[] execs = new Exec[statements.size()];
+
+    for (int i = 0; i < execs.length; i++)
+      execs[i] = this.compile(statements.get(i));
+
+    return execs;
+  }
+
+  public static Util.Completion executeBlock(Exec[] body, Environment env) throws Exception {
+    for (Exec exec : body) {
+      Util.Completion completion = exec.exec(env);
+
+      if (completion != null)
+        return completion;
+    }
+
+    return null;
+  }
+
+  // the body of a loop; one that declares variables no closure or reference can capture runs every iteration
+  // in the same frame, made once per run of the loop and cleared
+  private static class LoopBody {
+    final Exec[] statements;
+    final Resolver.Scope scope;
+    final boolean hasFrame;
+    final boolean reusesFrame;
+
+    LoopBody(Exec[] statements, Stmt.BlockStmt block) {
+      this.statements = statements;
+      this.scope = block.scope;
+      this.hasFrame = block.hasFrame;
+      this.reusesFrame = block.hasFrame && !block.scope.captured;
+    }
+
+    Environment frame(Environment env) {
+      return this.reusesFrame ? new Environment(this.scope, env) : null;
+    }
+
+    // a 'break' or 'continue' inside a called function still reaches the loop, as an exception
+    Util.Completion run(Environment env, Environment frame) throws Exception {
+      try {
+        if (!this.hasFrame)
+          return executeBlock(this.statements, env);
+
+        if (frame == null)
+          return executeBlock(this.statements, new Environment(this.scope, env));
+
+        frame.clear();
+        return executeBlock(this.statements, frame);
+      }
+      catch (Util.Break b) {
+        return Util.Completion.Break;
+      }
+      catch (Util.Continue c) {
+        return Util.Completion.Continue;
+      }
+    }
+  }
+
+  // ---
+
+  @Override
+  public Exec visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
+    Exec[] body = this.compileAll(stmt.statements);
+    Resolver.Scope scope = stmt.scope;
+
+    if (!stmt.hasFrame)
+      return env -> executeBlock(body, env);
+
+    return env -> executeBlock(body, new Environment(scope, env));
+  }
+
+  @Override
+  public Exec visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
+    return env -> Util.Completion.Break;
+  }
+
+  @Override
+  public Exec visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
+    return env -> Util.Completion.Continue;
+  }
+
+  @Override
+  public Exec visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
+    Eval expr = this.compile(stmt.expr);
+
+    if (this.isRepl) {
+      return env -> {
+        System.out.println("< " + Util.stringify(expr.eval(env)));
+        return null;
+      };
+    }
+
+    return env -> {
+      expr.eval(env);
+      return null;
+    };
+  }
+
+  @Override
+  public Exec visitFnStmt(Stmt.FnStmt stmt) throws Exception {
+    int slot = stmt.slot;
+    Exec[] body = this.compileAll(stmt.body);
+
+    return env -> {
+      env.define(slot, new CompiledFunction(stmt, body, env));
+      return null;
+    };
+  }
+
+  @Override
+  public Exec visitIfStmt(Stmt.IfStmt stmt) throws Exception {
+    Eval condition = this.compile(stmt.condition);
+    Exec thenBranch = this.compile(stmt.thenBranch);
+    BranchProfile profile = stmt.profile;
+
+    if (stmt.elseBranch == null) {
+      return env -> {
+        if (profile.record(Operators.isTruthy(condition.eval(env))))
+          return thenBranch.exec(env);
+
+        return null;
+      };
+    }
+
+    Exec elseBranch = this.compile(stmt.elseBranch);
+
+    return env -> {
+      if (profile.record(Operators.isTruthy(condition.eval(env))))
+        return thenBranch.exec(env);
+      else
+        return elseBranch.exec(env);
+    };
+  }
+
+  @Override
+  public Exec visitLetStmt(Stmt.LetStmt stmt) throws Exception {
+    Eval value = this.compile(stmt.value);
+    Token name = stmt.name;
+    int slot = stmt.slot;
+
+    if (this.isRepl) {
+      return env -> {
+        env.define(slot, value.eval(env));
+        return null;
+      };
+    }
+
+    return env -> {
+      Object v = value.eval(env);
+
+      if (env.isDefined(slot))
+        Util.printError("Cannot redeclare '" + name.lexeme() + "' in the same scope", name.pos());
+
+      env.define(slot, v);
+      return null;
+    };
+  }
+
+  @Override
+  public Exec visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
+    LoopBody block = new LoopBody(this.compileAll(stmt.block.statements), stmt.block);
+
+    if (stmt.variable == null || stmt.iterable == null) {
+      return env -> {
+        Environment frame = block.frame(env);
+
+        while (true) {
+          Util.Completion completion = block.run(env, frame);
+
+          if (completion == Util.Completion.Break)
+            break;
+
+          if (completion == Util.Completion.Return)
+            return completion;
+        }
+
+        return null;
+      };
+    }
+
+    if (stmt.iterable instanceof Expr.RangeExpr)
+      return this.rangeLoop(stmt, (Expr.RangeExpr) stmt.iterable, block);
+
+    Eval iterable = this.compile(stmt.iterable);
+    Resolver.Scope scope = stmt.scope;
+    Position pos = stmt.pos;
+
+    return env -> {
+      Object value = iterable.eval(env);
+
+      if (!(value instanceof Iterable))
+        Util.printError("Can only iterate over iterable objects (e.g. arrays and ranges), got '" + Util.stringify(value) + "'", pos);
+
+      Iterable it = (Iterable) value;
+      Environment loopEnv = new Environment(scope, env);
+      Environment frame = block.frame(loopEnv);
+
+      while (it.hasNext()) {
+        loopEnv.define(0, it.next());
+        Util.Completion completion = block.run(loopEnv, frame);
+
+        if (completion == Util.Completion.Break)
+          break;
+
+        if (completion == Util.Completion.Return)
+          return completion;
+      }
+
+      return null;
+    };
+  }
+
+  // a literal range is iterated without creating it, with the same values Range would yield
+  private Exec rangeLoop(Stmt.LoopStmt stmt, Expr.RangeExpr range, LoopBody block) throws Exception {
+    Eval start = this.compile(range.start);
+    Eval end = this.compile(range.end);
+    Eval step = range.step == null
+                  ? env -> 1L
+                  : this.compile(range.step);
+    Resolver.Scope scope = stmt.scope;
+    Position pos = range.pos;
+
+    return env -> {
+      Object startValue = start.eval(env);
+      Object endValue = end.eval(env);
+      Object stepValue = step.eval(env);
+
+      Operators.checkRange(pos, startValue, endValue, stepValue);
+
+      Environment loopEnv = new Environment(scope, env);
+      Environment frame = block.frame(loopEnv);
+
+      // a range of long integers is stepped exactly; the count is unsigned
+      long integers = Range.integers(startValue, endValue, stepValue);
+
+      if (integers != -1) {
+        long first = (long) startValue;
+        long increment = (long) stepValue;
+
+        for (long i = 0; i != integers; i++) {
+          loopEnv.define(0, first + i * increment);
+          Util.Completion completion = block.run(loopEnv, frame);
+
+          if (completion == Util.Completion.Break)
+            break;
+
+          if (completion == Util.Completion.Return)
+            return completion;
+        }
+
+        return null;
+      }
+
+      double from = Operators.toDouble(startValue);
+      double to = Operators.toDouble(endValue);
+      double by = Operators.toDouble(stepValue);
+      boolean isIntegral = Operators.isIntegral(startValue, stepValue);
+      long count = Range.count(from, to, by);
+
+      if (count >= 0) {
+        for (long i = 0; i < count; i++) {
+          loopEnv.define(0, Range.value(from + i * by, isIntegral));
+          Util.Completion completion = block.run(loopEnv, frame);
+
+          if (completion == Util.Completion.Break)
+            break;
+
+          if (completion == Util.Completion.Return)
+            return completion;
+        }
+
+        return null;
+      }
+
+      for (double counter = from - by; counter + by < to; counter += by) {
+        loopEnv.define(0, Range.value(counter + by, isIntegral));
+        Util.Completion completion = block.run(loopEnv, frame);
+
+        if (completion == Util.Completion.Break)
+          break;
+
+        if (completion == Util.Completion.Return)
+          return completion;
+      }
+
+      return null;
+    };
+  }
+
+  @Override
+  public Exec visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+    if (stmt.value == null) {
+      return env -> {
+        this.interpreter.returnValue = null;
+        return Util.Completion.Return;
+      };
+    }
+
+    Eval value = stmt.isTailCall
+                   ? this.call((Expr.CallExpr) stmt.value, true)
+                   : this.compile(stmt.value);
+
+    return env -> {
+      this.interpreter.returnValue = value.eval(env);
+      return Util.Completion.Return;
+    };
+  }
+
+  @Override
+  public Exec visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
+    Eval condition = this.compile(stmt.condition);
+    LoopBody block = new LoopBody(this.compileAll(stmt.block.statements), stmt.block);
+
+    return env -> {
+      Environment frame = block.frame(env);
+
+      while (Operators.isTruthy(condition.eval(env))) {
+        Util.Completion completion = block.run(env, frame);
+
+        if (completion == Util.Completion.Break)
+          break;
+
+        if (completion == Util.Completion.Return)
+          return completion;
+      }
+
+      return null;
+    };
+  }
+
+  // ---
+
+  @Override
+  public Eval visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
+    Eval[] items = new Eval[expr.items.size()];
+
+    for (int i = 0; i < items.length; i++)
+      items[i] = this.compile(expr.items.get(i));
+
+    return env -> {
+      List<Object> array = new ArrayList<>(items.length);
+
+      for (Eval item : items)
+        array.add(item.eval(env));
+
+      return new Array(array);
+    };
+  }
+
+  @Override
+  public Eval visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+    Eval value = this.compile(expr.value);
+    Token name = expr.name;
+    int depth = expr.depth;
+    int slot = expr.slot;
+
+    if (expr.isNative) {
+      return env -> {
+        value.eval(env);
+        Util.printError("Cannot reassign native function '" + name.lexeme() + "'", name.pos());
+        return null;
+      };
+    }
+
+    Eval result = this.compound(expr, value);
+
+    if (expr.isRef) {
+      return env -> {
+        Object v = result.eval(env);
+        Object ref = env.get(depth, slot, name);
+
+        if (!(ref instanceof Ref))
+          Util.printError("Can only dereference assign reference objects, got '" + Util.stringify(ref) + "'", name.pos());
+
+        ((Ref) ref).setReferenced(v);
+        return v;
+      };
+    }
+
+    if (expr.isGlobal) {
+      Environment topLevel = this.environment;
+
+      return env -> {
+        Object v = result.eval(env);
+        topLevel.assign(0, slot, name, v);
+        return v;
+      };
+    }
+
+    return env -> {
+      Object v = result.eval(env);
+      env.assign(depth, slot, name, v);
+      return v;
+    };
+  }
+
+  private Eval compound(Expr.AssignExpr expr, Eval value) throws Exception {
+    Position pos = expr.operator.pos();
+    Position leftPos = expr.lValue.pos;
+
+    switch (expr.operator.type()) {
+      case PlusEqual, DoublePlus, MinusEqual, DoubleMinus, StarEqual, SlashEqual, ModuloEqual, LShiftEqual, RShiftEqual -> {}
+      default -> { return value; }
+    }
+
+    Eval lValue = this.compile(expr.lValue);
+
+    return switch (expr.operator.type()) {
+      case PlusEqual, DoublePlus -> env -> { Object v = value.eval(env); return Operators.plus(pos, lValue.eval(env), v); };
+      case MinusEqual, DoubleMinus -> env -> { Object v = value.eval(env); return Operators.minus(pos, lValue.eval(env), v); };
+      case StarEqual -> env -> { Object v = value.eval(env); return Operators.times(pos, lValue.eval(env), v); };
+      case SlashEqual -> env -> { Object v = value.eval(env); return Operators.divide(pos, lValue.eval(env), v, leftPos); };
+      case ModuloEqual -> env -> { Object v = value.eval(env); return Operators.modulo(pos, lValue.eval(env), v); };
+      case LShiftEqual -> env -> { Object v = value.eval(env); return Operators.lShift(pos, lValue.eval(env), v, leftPos); };
+      default -> env -> { Object v = value.eval(env); return Operators.rShift(pos, lValue.eval(env), v, leftPos); };
+    };
+  }
+
+  @Override
+  public Eval visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
+    Eval value = this.compile(expr.value);
+    Eval index = this.compile(expr.index);
+    Token name = expr.name;
+    int depth = expr.depth;
+    int slot = expr.slot;
+    Position pos = expr.pos;
+
+    if (expr.isGlobal) {
+      Environment topLevel = this.environment;
+
+      return env -> {
+        Object v = value.eval(env);
+        int i = Operators.arrayIndex(pos, index.eval(env));
+
+        topLevel.assignArray(0, slot, name, i, v);
+        return v;
+      };
+    }
+
+    return env -> {
+      Object v = value.eval(env);
+      int i = Operators.arrayIndex(pos, index.eval(env));
+
+      env.assignArray(depth, slot, name, i, v);
+      return v;
+    };
+  }
+
+  @Override
+  public Eval visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+    Eval left = this.compile(expr.left);
+    Eval right = this.compile(expr.right);
+    Position pos = expr.operator.pos();
+    Position leftPos = expr.left.pos;
+
+    switch (expr.operator.type()) {
+      case DoubleEqual:
+        return env -> Operators.isEqual(left.eval(env), right.eval(env));
+
+      case BangEqual:
+        return env -> Operators.notEqual(left.eval(env), right.eval(env));
+
+      case Greater:
+        return env -> Operators.greater(pos, left.eval(env), right.eval(env));
+
+      case GreaterEqual:
+        return env -> Operators.greaterEqual(pos, left.eval(env), right.eval(env));
+
+      case Less:
+        return env -> Operators.less(pos, left.eval(env), right.eval(env));
+
+      case LessEqual:
+        return env -> Operators.lessEqual(pos, left.eval(env), right.eval(env));
+
+      // ---
+
+      case Plus:
+        return env -> Operators.plus(pos, left.eval(env), right.eval(env));
+
+      case Minus:
+        return env -> Operators.minus(pos, left.eval(env), right.eval(env));
+
+      case Star:
+        return env -> Operators.times(pos, left.eval(env), right.eval(env));
+
+      case Slash:
+        return env -> Operators.divide(pos, left.eval(env), right.eval(env), leftPos);
+
+      case Modulo:
+        return env -> Operators.modulo(pos, left.eval(env), right.eval(env));
+
+      case LShift:
+        return env -> Operators.lShift(pos, left.eval(env), right.eval(env), leftPos);
+
+      case RShift:
+        return env -> Operators.rShift(pos, left.eval(env), right.eval(env), leftPos);
+
+      case LandKw:
+        return env -> Operators.bitAnd(pos, left.eval(env), right.eval(env), leftPos);
+
+      case LorKw:
+        return env -> Operators.bitOr(pos, left.eval(env), right.eval(env), leftPos);
+
+      case LxorKw:
+        return env -> Operators.bitXor(pos, left.eval(env), right.eval(env), leftPos);
+
+      // ---
+
+      case InKw:
+        return env -> Operators.in(left.eval(env), right.eval(env), leftPos);
+
+      default:
+        String lexeme = expr.operator.lexeme();
+
+        return env -> {
+          left.eval(env);
+          right.eval(env);
+
+          Util.printError("Invalid binary operator: '" + lexeme + "'", leftPos);
+          return null;
+        };
+    }
+  }
+
+  @Override
+  public Eval visitCallExpr(Expr.CallExpr expr) throws Exception {
+    if (expr.intrinsic != null)
+      return this.intrinsic(expr.intrinsic, expr.args);
+
+    Eval callee = this.compile(expr.callee);
+    InlineCache cache = expr.cache;
+
+    switch (expr.args.size()) {
+      case 0:
+        return env -> cache.callable(callee.eval(env)).call0(this.interpreter);
+
+      case 1: {
+        Eval arg0 = this.compile(expr.args.get(0));
+
+        return env -> {
+          Object fn = callee.eval(env);
+          Object value0 = arg0.eval(env);
+
+          return cache.callable(fn).call1(this.interpreter, value0);
+        };
+      }
+
+      case 2: {
+        Eval arg0 = this.compile(expr.args.get(0));
+        Eval arg1 = this.compile(expr.args.get(1));
+
+        return env -> {
+          Object fn = callee.eval(env);
+          Object value0 = arg0.eval(env);
+          Object value1 = arg1.eval(env);
+
+          return cache.callable(fn).call2(this.interpreter, value0, value1);
+        };
+      }
+
+      case 3: {
+        Eval arg0 = this.compile(expr.args.get(0));
+        Eval arg1 = this.compile(expr.args.get(1));
+        Eval arg2 = this.compile(expr.args.get(2));
+
+        return env -> {
+          Object fn = callee.eval(env);
+          Object value0 = arg0.eval(env);
+          Object value1 = arg1.eval(env);
+          Object value2 = arg2.eval(env);
+
+          return cache.callable(fn).call3(this.interpreter, value0, value1, value2);
+        };
+      }
+
+      default:
+        return this.call(expr, false);
+    }
+  }
+
+  private Eval intrinsic(Intrinsic intrinsic, List<Expr> args) throws Exception {
+    Eval arg0 = this.compile(args.get(0));
+
+    switch (intrinsic) {
+      case Sqrt: return env -> Intrinsic.sqrt(arg0.eval(env));
+      case Abs: return env -> Intrinsic.abs(arg0.eval(env));
+      case Floor: return env -> Intrinsic.floor(arg0.eval(env));
+      case Ceil: return env -> Intrinsic.ceil(arg0.eval(env));
+      case Len: return env -> Intrinsic.len(arg0.eval(env));
+      default: break;
+    }
+
+    Eval arg1 = this.compile(args.get(1));
+
+    if (intrinsic == Intrinsic.Min)
+      return env -> Intrinsic.min(arg0.eval(env), arg1.eval(env));
+
+    return env -> Intrinsic.max(arg0.eval(env), arg1.eval(env));
+  }
+
+  // a tail call to a compiled function is handed back to the function being returned from
+  private Eval call(Expr.CallExpr expr, boolean isTailCall) throws Exception {
+    Eval callee = this.compile(expr.callee);
+    Eval[] args = new Eval[expr.args.size()];
+    InlineCache cache = expr.cache;
+
+    for (int i = 0; i < args.length; i++)
+      args[i] = this.compile(expr.args.get(i));
+
+    return env -> {
+      Object fn = callee.eval(env);
+      List<Object> values = new ArrayList<>(args.length);
+
+      for (Eval arg : args)
+        values.add(arg.eval(env));
+
+      Callable function = cache.callable(fn);
+
+      if (isTailCall && function instanceof CompiledFunction) {
+        this.interpreter.tailCallee = function;
+        this.interpreter.tailArgs = values;
+
+        return Interpreter.TAIL_CALL;
+      }
+
+      return function.call(this.interpreter, values);
+    };
+  }
+
+  @Override
+  public Eval visitFnExpr(Expr.FnExpr expr) throws Exception {
+    Exec[] body = this.compileAll(expr.body);
+    return env -> new CompiledFunction(expr, body, env);
+  }
+
+  @Override
+  public Eval visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
+    return this.compile(expr.expr);
+  }
+
+  @Override
+  public Eval visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
+    Eval array = this.compile(expr.array);
+    Eval index = this.compile(expr.index);
+    Position pos = expr.pos;
+
+    return env -> Operators.index(pos, array.eval(env), index.eval(env));
+  }
+
+  @Override
+  public Eval visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
+    Object value = expr.value;
+    return env -> value;
+  }
+
+  @Override
+  public Eval visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+    Eval left = this.compile(expr.left);
+    Eval right = this.compile(expr.right);
+    BranchProfile profile = expr.profile;
+
+    if (expr.operator.type() == TokenType.Ampersand)
+      return env -> profile.record(!Operators.isTruthy(left.eval(env))) ? false : Operators.isTruthy(right.eval(env));
+
+    return env -> profile.record(Operators.isTruthy(left.eval(env))) ? true : Operators.isTruthy(right.eval(env));
+  }
+
+  @Override
+  public Eval visitRangeExpr(Expr.RangeExpr expr) throws Exception {
+    Eval start = this.compile(expr.start);
+    Eval end = this.compile(expr.end);
+    Eval step = expr.step == null
+                  ? env -> 1L
+                  : this.compile(expr.step);
+    Position pos = expr.pos;
+
+    return env -> Operators.range(pos, start.eval(env), end.eval(env), step.eval(env));
+  }
+
+  @Override
+  public Eval visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
+    Eval condition = this.compile(expr.condition);
+    Eval thenBranch = this.compile(expr.thenBranch);
+    Eval elseBranch = this.compile(expr.elseBranch);
+    BranchProfile profile = expr.profile;
+
+    return env -> profile.record(Operators.isTruthy(condition.eval(env)))
+                    ? thenBranch.eval(env)
+                    : elseBranch.eval(env);
+  }
+
+  @Override
+  public Eval visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+    Eval operand = this.compile(expr.operand);
+    Position pos = expr.operator.pos();
+
+    switch (expr.operator.type()) {
+      case Bang:
+        return env -> !Operators.isTruthy(operand.eval(env));
+
+      case Minus:
+        return env -> Operators.negate(pos, operand.eval(env));
+
+      case LnotKw:
+        return env -> Operators.bitNot(pos, operand.eval(env));
+
+      case Ampersand:
+        Expr.IdentifierExpr variable = (Expr.IdentifierExpr) expr.operand;
+        Token name = variable.name;
+        int depth = variable.depth;
+        int slot = variable.slot;
+
+        return env -> {
+          operand.eval(env);
+          return env.ref(depth, slot, name);
+        };
+
+      case Star:
+        return env -> {
+          Object value = operand.eval(env);
+
+          if (!(value instanceof Ref))
+            Util.printError("Can only dereference reference objects, got '" + Util.stringify(value) + "'", pos);
+
+          return ((Ref) value).getReferenced();
+        };
+
+      default:
+        String lexeme = expr.operator.lexeme();
+
+        return env -> {
+          operand.eval(env);
+
+          Util.printError("Invalid unary operator: '" + lexeme + "'", pos);
+          return null;
+        };
+    }
+  }
+
+  @Override
+  public Eval visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
+    Token name = expr.name;
+    int depth = expr.depth;
+    int slot = expr.slot;
+
+    // natives were bound by the resolver, and globals are read from the top-level frame without walking up to it
+    if (expr.bound != null) {
+      Object bound = expr.bound;
+      return env -> bound;
+    }
+
+    if (expr.isGlobal) {
+      Environment topLevel = this.environment;
+      return env -> topLevel.get(0, slot, name);
+    }
+
+    return env -> env.get(depth, slot, name);
+  }
+}
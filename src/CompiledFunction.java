@@ -0,0 +1,105 @@
+import java.util.List;
+
+public class CompiledFunction implements Callable {
+  private final FnDecl declaration;
+  private final ClosureCompiler.Exec[] body;
+  private final Environment closure;
+
+  public CompiledFunction(FnDecl declaration, ClosureCompiler.Exec[] body, Environment closure) {
+    this.declaration = declaration;
+    this.body = body;
+    this.closure = Environment.closure(declaration, closure);
+  }
+
+  @Override
+  public int arity() {
+    return this.declaration.params().size();
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    Environment params = this.params();
+
+    for (int i = 0; i < args.size(); i++) {
+      params.define(i, args.get(i));
+    }
+
+    return this.call(interpreter, params);
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) throws Exception {
+    return this.call(interpreter, this.params());
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+    Environment params = this.params();
+    params.define(0, arg0);
+
+    return this.call(interpreter, params);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+    Environment params = this.params();
+    params.define(0, arg0);
+    params.define(1, arg1);
+
+    return this.call(interpreter, params);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) throws Exception {
+    Environment params = this.params();
+    params.define(0, arg0);
+    params.define(1, arg1);
+    params.define(2, arg2);
+
+    return this.call(interpreter, params);
+  }
+
+  private Environment params() {
+    return new Environment(this.declaration.paramScope(), this.closure);
+  }
+
+  // runs the function with its arguments already in the parameter frame
+  private Object call(Interpreter interpreter, Environment params) throws Exception {
+    CompiledFunction function = this;
+    Environment body = new Environment(this.declaration.bodyScope(), params);
+
+    // tail calls made by the body run in this loop, so deep tail recursion doesn't grow the Java stack
+    while (true) {
+      Util.Completion completion = ClosureCompiler.executeBlock(function.body, body);
+      Object result = Function.complete(completion, interpreter);
+
+      if (result != Interpreter.TAIL_CALL)
+        return result;
+
+      Callable callee = interpreter.tailCallee;
+      List<Object> args = interpreter.tailArgs;
+
+      interpreter.tailCallee = null;
+      interpreter.tailArgs = null;
+
+      // the frames of a call to the same function are reused when nothing can have kept them
+      if (callee == function && !function.declaration.paramScope().captured) {
+        params.clear();
+        body.clear();
+      }
+      else {
+        function = (CompiledFunction) callee;
+        params = function.params();
+        body = new Environment(function.declaration.bodyScope(), params);
+      }
+
+      for (int i = 0; i < args.size(); i++) {
+        params.define(i, args.get(i));
+      }
+    }
+  }
+
+  public String toString() {
+    return "<fn>";
+  }
+}
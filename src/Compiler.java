@@ -0,0 +1,1112 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class Compiler implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Void> {
+  private static class Local {
+    final int slot;
+    final boolean isCell;
+
+    // when the function declared it, counting its declarations
+    int declaredAt = 0;
+
+    Local(int slot, boolean isCell) {
+      this.slot = slot;
+      this.isCell = isCell;
+    }
+  }
+
+  private static class Scope {
+    final Map<String, Local> locals = new HashMap<>();
+    final Map<String, Local> reserved = new HashMap<>();
+    final List<Deferred> deferred = new ArrayList<>();
+    final int base;
+
+    Scope(int base) {
+      this.base = base;
+    }
+  }
+
+  // function bodies are compiled when their enclosing scope ends, so they can see
+  // every declaration of that scope, like the tree-walker does at call time
+  private static class Deferred {
+    final Chunk chunk;
+    final FnDecl decl;
+    final int declared;
+
+    Deferred(Chunk chunk, FnDecl decl, int declared) {
+      this.chunk = chunk;
+      this.decl = decl;
+      this.declared = declared;
+    }
+  }
+
+  private static class Loop {
+    final int start;
+    final List<Integer> breaks = new ArrayList<>();
+    int body;
+
+    Loop(int start) {
+      this.start = start;
+    }
+  }
+
+  private static class FunctionState {
+    final FunctionState enclosing;
+    final Chunk chunk;
+    final Set<String> cellNames;
+
+    final List<Scope> scopes = new ArrayList<>();
+    final List<Loop> loops = new ArrayList<>();
+    final List<Integer> loopTable = new ArrayList<>();
+
+    final List<Integer> captures = new ArrayList<>();
+    final List<Integer> captureFallbacks = new ArrayList<>();
+    final Map<String, Integer> captureIndex = new HashMap<>();
+
+    // how many declarations the enclosing function had made where this one is declared
+    final int declared;
+    int declarations = 0;
+
+    int nextSlot = 0;
+    int stackDepth = 0;
+
+    FunctionState(FunctionState enclosing, Chunk chunk, Set<String> cellNames, int declared) {
+      this.enclosing = enclosing;
+      this.chunk = chunk;
+      this.cellNames = cellNames;
+      this.declared = declared;
+    }
+
+    void declare(Scope scope, String name, Local local) {
+      local.declaredAt = ++this.declarations;
+      scope.locals.put(name, local);
+    }
+
+    boolean isScript() {
+      return this.enclosing == null;
+    }
+
+    Local findLocal(String name) {
+      int scope = this.findScope(name, this.scopes.size());
+      return scope < 0 ? null : this.scopes.get(scope).locals.get(name);
+    }
+
+    // the innermost scope below the given one that declares the name
+    int findScope(String name, int below) {
+      for (int i = below - 1; i >= 0; i--) {
+        if (this.scopes.get(i).locals.containsKey(name))
+          return i;
+      }
+
+      return -1;
+    }
+  }
+
+  // ---
+
+  private final VM vm;
+  private final boolean isRepl;
+
+  private FunctionState current;
+  private Stmt topLevelStmt;
+
+  public Compiler(VM vm, boolean isRepl) {
+    this.vm = vm;
+    this.isRepl = isRepl;
+  }
+
+  public Chunk compile(List<Stmt> statements) throws Exception {
+    Chunk chunk = new Chunk("script");
+    this.current = new FunctionState(null, chunk, CaptureScanner.scan(statements), 0);
+
+    // the top level scope of a script is the global table
+    this.current.scopes.add(new Scope(0));
+
+    List<Integer> starts = new ArrayList<>();
+    List<Position> positions = new ArrayList<>();
+
+    for (Stmt stmt : statements) {
+      starts.add(chunk.count);
+      positions.add(stmt == null ? null : stmt.pos);
+
+      this.topLevelStmt = stmt;
+      this.compile(stmt);
+    }
+
+    chunk.statements = starts.stream().mapToInt(Integer::intValue).toArray();
+    chunk.statementPositions = positions.toArray(new Position[0]);
+
+    this.compileDeferred(this.current.scopes.get(0));
+
+    this.emit(OpCode.Nil, 1, null);
+    this.emit(OpCode.Return, -1, null);
+    this.finish(this.current);
+
+    return chunk;
+  }
+
+  // ---
+
+  private void compile(Stmt stmt) throws Exception {
+    // left by a parse error, already reported; running it stops the program there
+    if (stmt == null) {
+      this.emit(OpCode.Error, 0, null);
+      this.emitOperand(-1);
+
+      return;
+    }
+
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) throws Exception {
+    expr.accept(this);
+  }
+
+  private void finish(FunctionState state) {
+    state.chunk.slotCount = Math.max(state.chunk.slotCount, state.nextSlot);
+    state.chunk.captures = state.captures.stream().mapToInt(Integer::intValue).toArray();
+    state.chunk.captureFallbacks = state.captureFallbacks.stream().mapToInt(Integer::intValue).toArray();
+    state.chunk.loops = state.loopTable.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  // ---
+
+  private int emit(int op, int stackEffect, Position pos) {
+    FunctionState state = this.current;
+
+    state.stackDepth += stackEffect;
+    state.chunk.maxStack = Math.max(state.chunk.maxStack, state.stackDepth);
+
+    return state.chunk.write(op, pos);
+  }
+
+  private void emitOperand(int operand) {
+    this.current.chunk.write(operand, null);
+  }
+
+  private void emitConstant(Object value, Position pos) {
+    this.emit(OpCode.Constant, 1, pos);
+    this.emitOperand(this.current.chunk.addConstant(value));
+  }
+
+  private void emitError(String message, Position pos) {
+    this.emit(OpCode.Error, 0, pos);
+    this.emitOperand(this.current.chunk.addConstant(message));
+  }
+
+  private int emitJump(int op, int stackEffect) {
+    this.emit(op, stackEffect, null);
+    this.emitOperand(-1);
+
+    return this.current.chunk.count - 1;
+  }
+
+  private void patchJump(int operand) {
+    this.current.chunk.code[operand] = this.current.chunk.count;
+  }
+
+  // ---
+
+  private void beginScope(List<Stmt> statements, Token... extra) {
+    FunctionState state = this.current;
+    Scope scope = new Scope(state.nextSlot);
+
+    for (Token name : extra)
+      this.reserve(scope, name.lexeme(), name.pos());
+
+    for (Stmt stmt : statements) {
+      if (stmt instanceof Stmt.LetStmt)
+        this.reserve(scope, ((Stmt.LetStmt) stmt).name.lexeme(), stmt.pos);
+      else if (stmt instanceof Stmt.FnStmt)
+        this.reserve(scope, ((Stmt.FnStmt) stmt).name.lexeme(), stmt.pos);
+    }
+
+    state.scopes.add(scope);
+  }
+
+  private void reserve(Scope scope, String name, Position pos) {
+    FunctionState state = this.current;
+
+    if (scope.reserved.containsKey(name))
+      return;
+
+    Local local = new Local(state.nextSlot++, state.cellNames.contains(name));
+    scope.reserved.put(name, local);
+
+    if (local.isCell) {
+      this.emit(OpCode.NewCell, 0, pos);
+      this.emitOperand(local.slot);
+    }
+  }
+
+  private void endScope() throws Exception {
+    FunctionState state = this.current;
+    Scope scope = state.scopes.get(state.scopes.size() - 1);
+
+    this.compileDeferred(scope);
+
+    state.chunk.slotCount = Math.max(state.chunk.slotCount, state.nextSlot);
+    state.nextSlot = scope.base;
+    state.scopes.remove(state.scopes.size() - 1);
+  }
+
+  private boolean isGlobalScope() {
+    return this.current.isScript() && this.current.scopes.size() == 1;
+  }
+
+  private Scope innermostScope() {
+    return this.current.scopes.get(this.current.scopes.size() - 1);
+  }
+
+  // ---
+
+  private void compileDeferred(Scope scope) throws Exception {
+    // bodies may defer more functions into the same scope while being compiled
+    for (int i = 0; i < scope.deferred.size(); i++) {
+      Deferred d = scope.deferred.get(i);
+      this.compileFunction(d.chunk, d.decl, d.declared);
+    }
+
+    scope.deferred.clear();
+  }
+
+  private void compileFunction(Chunk chunk, FnDecl decl, int declared) throws Exception {
+    FunctionState enclosing = this.current;
+    FunctionState state = new FunctionState(enclosing, chunk, CaptureScanner.scan(decl.body()), declared);
+    this.current = state;
+
+    Scope params = new Scope(0);
+    List<Integer> cellParams = new ArrayList<>();
+
+    for (Token param : decl.params()) {
+      Local local = new Local(state.nextSlot++, state.cellNames.contains(param.lexeme()));
+      params.locals.put(param.lexeme(), local);
+
+      if (local.isCell)
+        cellParams.add(local.slot);
+    }
+
+    chunk.arity = decl.params().size();
+    chunk.cellParams = cellParams.stream().mapToInt(Integer::intValue).toArray();
+
+    state.scopes.add(params);
+
+    this.beginScope(decl.body());
+
+    for (Stmt stmt : decl.body())
+      this.compile(stmt);
+
+    this.endScope();
+    this.compileDeferred(params);
+
+    this.emit(OpCode.Nil, 1, null);
+    this.emit(OpCode.Return, -1, null);
+    this.finish(state);
+
+    this.current = enclosing;
+  }
+
+  private void emitClosure(FnDecl decl, String name, Position pos) {
+    Chunk chunk = new Chunk(name);
+    this.innermostScope().deferred.add(new Deferred(chunk, decl, this.current.declarations));
+
+    this.emit(OpCode.Closure, 1, pos);
+    this.emitOperand(this.current.chunk.addConstant(chunk));
+  }
+
+  // ---
+
+  private static final int LOCAL = 0;
+  private static final int CELL = 1;
+  private static final int CAPTURED = 2;
+  private static final int GLOBAL = 3;
+
+  private int[] resolve(String name) {
+    FunctionState state = this.current;
+    Local local = state.findLocal(name);
+
+    if (local != null)
+      return new int[] { local.isCell ? CELL : LOCAL, local.slot };
+
+    int captured = this.resolveCapture(state, name);
+
+    if (captured >= 0)
+      return new int[] { CAPTURED, captured };
+
+    return new int[] { GLOBAL, this.vm.globalSlot(name) };
+  }
+
+  private int resolveCapture(FunctionState state, String name) {
+    Integer existing = state.captureIndex.get(name);
+
+    if (existing != null)
+      return existing;
+
+    FunctionState enclosing = state.enclosing;
+
+    if (enclosing == null)
+      return -1;
+
+    int index;
+    int scope = enclosing.findScope(name, enclosing.scopes.size());
+
+    if (scope >= 0)
+      index = this.captureLocal(state, name, scope);
+    else {
+      int captured = this.resolveCapture(enclosing, name);
+
+      if (captured < 0)
+        return -1;
+
+      index = this.captureCaptured(state, captured);
+    }
+
+    state.captureIndex.put(name, index);
+    return index;
+  }
+
+  // a local declared after the function may not be declared yet when it runs,
+  // in which case the name still refers to the variable the local shadows
+  private int captureLocal(FunctionState state, String name, int scope) {
+    FunctionState enclosing = state.enclosing;
+    Local local = enclosing.scopes.get(scope).locals.get(name);
+
+    return this.addCapture(state, local.slot, local.declaredAt > state.declared ? this.captureShadowed(state, name, scope) : -1);
+  }
+
+  private int captureCaptured(FunctionState state, int index) {
+    int fallback = state.enclosing.captureFallbacks.get(index);
+
+    if (fallback >= 0)
+      fallback = this.captureCaptured(state, fallback);
+
+    return this.addCapture(state, -(index + 1), fallback);
+  }
+
+  // the fallback of a capture: another capture (>= 0) or a global (encoded as -(slot + 2))
+  private int captureShadowed(FunctionState state, String name, int scope) {
+    FunctionState enclosing = state.enclosing;
+    int outer = enclosing.findScope(name, scope);
+
+    if (outer >= 0)
+      return this.captureLocal(state, name, outer);
+
+    int captured = this.resolveCapture(enclosing, name);
+
+    if (captured >= 0)
+      return this.captureCaptured(state, captured);
+
+    return -(this.vm.globalSlot(name) + 2);
+  }
+
+  private int addCapture(FunctionState state, int capture, int fallback) {
+    state.captures.add(capture);
+    state.captureFallbacks.add(fallback);
+
+    return state.captures.size() - 1;
+  }
+
+  private void emitGet(Token name) {
+    int[] target = this.resolve(name.lexeme());
+
+    switch (target[0]) {
+      case LOCAL -> this.emit(OpCode.GetLocal, 1, name.pos());
+      case CELL -> this.emit(OpCode.GetCell, 1, name.pos());
+      case CAPTURED -> this.emit(OpCode.GetCaptured, 1, name.pos());
+      default -> this.emit(OpCode.GetGlobal, 1, name.pos());
+    }
+
+    this.emitOperand(target[1]);
+
+    if (target[0] == CELL || target[0] == CAPTURED)
+      this.emitOperand(this.current.chunk.addConstant(name.lexeme()));
+  }
+
+  private void emitSet(Token name) {
+    int[] target = this.resolve(name.lexeme());
+
+    switch (target[0]) {
+      case LOCAL -> this.emit(OpCode.SetLocal, 0, name.pos());
+      case CELL -> this.emit(OpCode.SetCell, 0, name.pos());
+      case CAPTURED -> this.emit(OpCode.SetCaptured, 0, name.pos());
+      default -> this.emit(OpCode.SetGlobal, 0, name.pos());
+    }
+
+    this.emitOperand(target[1]);
+
+    if (target[0] == CAPTURED)
+      this.emitOperand(this.current.chunk.addConstant(name.lexeme()));
+  }
+
+  private void declare(Token name, boolean checkRedeclaration) {
+    if (this.isGlobalScope()) {
+      this.emit(checkRedeclaration && !this.isRepl ? OpCode.DefineGlobal : OpCode.DeclareGlobal, -1, name.pos());
+      this.emitOperand(this.vm.globalSlot(name.lexeme()));
+
+      return;
+    }
+
+    Scope scope = this.innermostScope();
+
+    if (checkRedeclaration && !this.isRepl && scope.locals.containsKey(name.lexeme()))
+      this.emitError("Cannot redeclare '" + name.lexeme() + "' in the same scope", name.pos());
+
+    Local local = scope.reserved.get(name.lexeme());
+    this.current.declare(scope, name.lexeme(), local);
+
+    this.emit(local.isCell ? OpCode.SetCell : OpCode.SetLocal, 0, name.pos());
+    this.emitOperand(local.slot);
+    this.emit(OpCode.Pop, -1, null);
+  }
+
+  // ---
+
+  @Override
+  public Void visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
+    this.beginScope(stmt.statements);
+
+    for (Stmt s : stmt.statements)
+      this.compile(s);
+
+    this.endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
+    if (this.current.loops.isEmpty()) {
+      this.unwind(Util.Completion.Break, "Cannot use 'break' outside a loop", stmt.pos);
+      return null;
+    }
+
+    Loop loop = this.current.loops.get(this.current.loops.size() - 1);
+    loop.breaks.add(this.emitJump(OpCode.Jump, 0));
+
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
+    if (this.current.loops.isEmpty()) {
+      this.unwind(Util.Completion.Continue, "Cannot use 'continue' outside a loop", stmt.pos);
+      return null;
+    }
+
+    Loop loop = this.current.loops.get(this.current.loops.size() - 1);
+
+    this.emit(OpCode.Jump, 0, null);
+    this.emitOperand(loop.start);
+
+    return null;
+  }
+
+  // outside a loop of its function, a 'break' or 'continue' leaves it for the loop around the call
+  private void unwind(Util.Completion completion, String message, Position pos) {
+    if (this.current.isScript()) {
+      this.emitError(message, this.topLevelStmt.pos);
+      return;
+    }
+
+    this.emit(OpCode.Unwind, 0, pos);
+    this.emitOperand(completion.ordinal());
+  }
+
+  @Override
+  public Void visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
+    this.compile(stmt.expr);
+
+    if (this.isRepl)
+      this.emit(OpCode.PrintRepl, -1, null);
+    else
+      this.emit(OpCode.Pop, -1, null);
+
+    return null;
+  }
+
+  @Override
+  public Void visitFnStmt(Stmt.FnStmt stmt) throws Exception {
+    if (!this.isGlobalScope())
+      this.current.declare(this.innermostScope(), stmt.name.lexeme(), this.innermostScope().reserved.get(stmt.name.lexeme()));
+
+    this.emitClosure(stmt, stmt.name.lexeme(), stmt.pos);
+    this.declare(stmt.name, false);
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.IfStmt stmt) throws Exception {
+    this.compile(stmt.condition);
+    int elseJump = this.emitJump(OpCode.JumpIfFalse, -1);
+
+    this.compile(stmt.thenBranch);
+
+    if (stmt.elseBranch == null) {
+      this.patchJump(elseJump);
+      return null;
+    }
+
+    int endJump = this.emitJump(OpCode.Jump, 0);
+    this.patchJump(elseJump);
+
+    this.compile(stmt.elseBranch);
+    this.patchJump(endJump);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLetStmt(Stmt.LetStmt stmt) throws Exception {
+    this.compile(stmt.value);
+    this.declare(stmt.name, true);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
+    if (stmt.variable == null || stmt.iterable == null) {
+      Loop loop = new Loop(this.current.chunk.count);
+      this.current.loops.add(loop);
+
+      this.loopBody(loop, stmt.block);
+
+      this.emit(OpCode.Jump, 0, null);
+      this.emitOperand(loop.start);
+
+      this.endLoop(loop);
+      return null;
+    }
+
+    this.compile(stmt.iterable);
+    this.emit(OpCode.IterInit, 0, stmt.pos);
+
+    this.beginScope(List.of(), stmt.variable);
+
+    Scope scope = this.innermostScope();
+    Local variable = scope.reserved.get(stmt.variable.lexeme());
+    this.current.declare(scope, stmt.variable.lexeme(), variable);
+
+    int iterator = this.current.nextSlot++;
+
+    this.emit(OpCode.SetLocal, 0, null);
+    this.emitOperand(iterator);
+    this.emit(OpCode.Pop, -1, null);
+
+    Loop loop = new Loop(this.current.chunk.count);
+    this.current.loops.add(loop);
+
+    this.emit(OpCode.IterNext, 1, null);
+    this.emitOperand(iterator);
+    this.emitOperand(-1);
+    loop.breaks.add(this.current.chunk.count - 1);
+
+    this.emit(variable.isCell ? OpCode.SetCell : OpCode.SetLocal, 0, null);
+    this.emitOperand(variable.slot);
+    this.emit(OpCode.Pop, -1, null);
+
+    this.loopBody(loop, stmt.block);
+
+    this.emit(OpCode.Jump, 0, null);
+    this.emitOperand(loop.start);
+
+    this.endLoop(loop);
+    this.endScope();
+
+    return null;
+  }
+
+  private void loopBody(Loop loop, Stmt.BlockStmt block) throws Exception {
+    loop.body = this.current.chunk.count;
+    this.compile(block);
+  }
+
+  private void endLoop(Loop loop) {
+    for (int operand : loop.breaks)
+      this.patchJump(operand);
+
+    FunctionState state = this.current;
+    state.loopTable.addAll(List.of(loop.body, state.chunk.count, state.chunk.count, loop.start));
+    state.loops.remove(state.loops.size() - 1);
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+    // a tail call to a closure replaces the current frame; any other callee returns to the Return after it.
+    // inside a loop the frame stays, for the loop to catch a 'break' or 'continue' leaving the callee
+    if (stmt.value instanceof Expr.CallExpr && !this.current.isScript() && this.current.loops.isEmpty())
+      this.call((Expr.CallExpr) stmt.value, OpCode.TailCall);
+    else if (stmt.value != null)
+      this.compile(stmt.value);
+    else
+      this.emit(OpCode.Nil, 1, null);
+
+    if (this.current.isScript()) {
+      this.emitError("Cannot use 'return' outside a function", this.topLevelStmt.pos);
+      this.emit(OpCode.Pop, -1, null);
+
+      return null;
+    }
+
+    this.emit(OpCode.Return, -1, stmt.pos);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
+    Loop loop = new Loop(this.current.chunk.count);
+    this.current.loops.add(loop);
+
+    this.compile(stmt.condition);
+    loop.breaks.add(this.emitJump(OpCode.JumpIfFalse, -1));
+
+    this.loopBody(loop, stmt.block);
+
+    this.emit(OpCode.Jump, 0, null);
+    this.emitOperand(loop.start);
+
+    this.endLoop(loop);
+    return null;
+  }
+
+  // ---
+
+  @Override
+  public Void visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
+    for (Expr item : expr.items)
+      this.compile(item);
+
+    this.emit(OpCode.Array, 1 - expr.items.size(), expr.pos);
+    this.emitOperand(expr.items.size());
+
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+    this.compile(expr.value);
+
+    if (this.vm.isNative(expr.name.lexeme()))
+      this.emitError("Cannot reassign native function '" + expr.name.lexeme() + "'", expr.name.pos());
+
+    if (expr.operator.type() != TokenType.Equal) {
+      this.compile(expr.lValue);
+      this.emit(OpCode.Swap, 0, null);
+      this.emitOperator(expr.operator, expr.lValue.pos);
+    }
+
+    if (expr.isRef) {
+      this.emitGet(expr.name);
+      this.emit(OpCode.DerefSet, -1, expr.name.pos());
+    }
+    else
+      this.emitSet(expr.name);
+
+    return null;
+  }
+
+  @Override
+  public Void visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
+    this.compile(expr.value);
+    this.compile(expr.index);
+    this.emit(OpCode.CheckIndex, 0, expr.pos);
+
+    this.emitGet(expr.name);
+    this.emit(OpCode.SetIndex, -2, expr.name.pos());
+
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+    this.compile(expr.left);
+    this.compile(expr.right);
+
+    this.emitOperator(expr.operator, expr.left.pos);
+    return null;
+  }
+
+  private void emitOperator(Token operator, Position leftPos) throws Exception {
+    Position pos = operator.pos();
+
+    switch (operator.type()) {
+      case DoubleEqual -> this.emit(OpCode.Equal, -1, pos);
+      case BangEqual -> this.emit(OpCode.NotEqual, -1, pos);
+      case Greater -> this.emit(OpCode.Greater, -1, pos);
+      case GreaterEqual -> this.emit(OpCode.GreaterEqual, -1, pos);
+      case Less -> this.emit(OpCode.Less, -1, pos);
+      case LessEqual -> this.emit(OpCode.LessEqual, -1, pos);
+      case Plus, PlusEqual, DoublePlus -> this.emit(OpCode.Add, -1, pos);
+      case Minus, MinusEqual, DoubleMinus -> this.emit(OpCode.Subtract, -1, pos);
+      case Star, StarEqual -> this.emit(OpCode.Multiply, -1, pos);
+      case Modulo, ModuloEqual -> this.emit(OpCode.Modulo, -1, pos);
+
+      case Slash, SlashEqual, LShift, LShiftEqual, RShift, RShiftEqual, LandKw, LorKw, LxorKw, InKw -> {
+        int op = switch (operator.type()) {
+          case Slash, SlashEqual -> OpCode.Divide;
+          case LShift, LShiftEqual -> OpCode.LShift;
+          case RShift, RShiftEqual -> OpCode.RShift;
+          case LandKw -> OpCode.BitAnd;
+          case LorKw -> OpCode.BitOr;
+          case LxorKw -> OpCode.BitXor;
+          default -> OpCode.In;
+        };
+
+        this.emit(op, -1, pos);
+        this.emitOperand(this.current.chunk.addConstant(leftPos));
+      }
+
+      default -> Util.printError("Invalid binary operator: '" + operator.lexeme() + "'", leftPos);
+    }
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.CallExpr expr) throws Exception {
+    this.call(expr, OpCode.Call);
+    return null;
+  }
+
+  private void call(Expr.CallExpr expr, int op) throws Exception {
+    this.compile(expr.callee);
+
+    for (Expr arg : expr.args)
+      this.compile(arg);
+
+    this.emit(op, -expr.args.size(), expr.callee.pos);
+    this.emitOperand(expr.args.size());
+  }
+
+  @Override
+  public Void visitFnExpr(Expr.FnExpr expr) throws Exception {
+    this.emitClosure(expr, "fn", expr.pos);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
+    this.compile(expr.expr);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
+    this.compile(expr.array);
+    this.compile(expr.index);
+
+    this.emit(OpCode.Index, -1, expr.pos);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
+    if (expr.value == null)
+      this.emit(OpCode.Nil, 1, expr.pos);
+    else if (expr.value.equals(true))
+      this.emit(OpCode.True, 1, expr.pos);
+    else if (expr.value.equals(false))
+      this.emit(OpCode.False, 1, expr.pos);
+    else
+      this.emitConstant(expr.value, expr.pos);
+
+    return null;
+  }
+
+  @Override
+  public Void visitRangeExpr(Expr.RangeExpr expr) throws Exception {
+    this.compile(expr.start);
+    this.compile(expr.end);
+
+    if (expr.step == null)
+      this.emitConstant(1L, expr.pos);
+    else
+      this.compile(expr.step);
+
+    this.emit(OpCode.Range, -2, expr.pos);
+    return null;
+  }
+
+  // the result is a boolean, and the right operand only runs when the left one doesn't decide it
+  @Override
+  public Void visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+    this.compile(expr.left);
+    int rightJump = this.emitJump(OpCode.JumpIfFalse, -1);
+
+    if (expr.operator.type() == TokenType.Ampersand) {
+      this.compile(expr.right);
+      this.emit(OpCode.Not, 0, expr.operator.pos());
+      this.emit(OpCode.Not, 0, expr.operator.pos());
+      int endJump = this.emitJump(OpCode.Jump, 0);
+
+      this.current.stackDepth--;
+      this.patchJump(rightJump);
+
+      this.emit(OpCode.False, 1, expr.operator.pos());
+      this.patchJump(endJump);
+    }
+    else {
+      this.emit(OpCode.True, 1, expr.operator.pos());
+      int endJump = this.emitJump(OpCode.Jump, 0);
+
+      this.current.stackDepth--;
+      this.patchJump(rightJump);
+
+      this.compile(expr.right);
+      this.emit(OpCode.Not, 0, expr.operator.pos());
+      this.emit(OpCode.Not, 0, expr.operator.pos());
+      this.patchJump(endJump);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
+    this.compile(expr.condition);
+    int elseJump = this.emitJump(OpCode.JumpIfFalse, -1);
+
+    this.compile(expr.thenBranch);
+    int endJump = this.emitJump(OpCode.Jump, 0);
+
+    this.current.stackDepth--;
+    this.patchJump(elseJump);
+
+    this.compile(expr.elseBranch);
+    this.patchJump(endJump);
+
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+    this.compile(expr.operand);
+
+    switch (expr.operator.type()) {
+      case Bang -> this.emit(OpCode.Not, 0, expr.operator.pos());
+      case Minus -> this.emit(OpCode.Negate, 0, expr.operator.pos());
+      case LnotKw -> this.emit(OpCode.BitNot, 0, expr.operator.pos());
+      case Star -> this.emit(OpCode.Deref, 0, expr.operator.pos());
+
+      case Ampersand -> {
+        Token name = ((Expr.IdentifierExpr) expr.operand).name;
+        int[] target = this.resolve(name.lexeme());
+
+        this.emit(OpCode.Pop, -1, null);
+
+        switch (target[0]) {
+          case CELL -> this.emit(OpCode.RefCell, 1, name.pos());
+          case CAPTURED -> this.emit(OpCode.RefCaptured, 1, name.pos());
+          default -> this.emit(OpCode.RefGlobal, 1, name.pos());
+        }
+
+        this.emitOperand(target[1]);
+        this.emitOperand(this.current.chunk.addConstant(name));
+      }
+
+      default -> Util.printError("Invalid unary operator: '" + expr.operator.lexeme() + "'", expr.operator.pos());
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
+    this.emitGet(expr.name);
+    return null;
+  }
+
+  // ---
+
+  // Finds which names of a function need to live in cells: every name used inside
+  // a nested function (it may be captured) and every name taken by reference
+  private static class CaptureScanner implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Void> {
+    private final Set<String> names = new HashSet<>();
+    private int depth = 0;
+
+    static Set<String> scan(List<Stmt> body) throws Exception {
+      CaptureScanner scanner = new CaptureScanner();
+      scanner.statements(body);
+
+      return scanner.names;
+    }
+
+    // skipping the null statements left by a parse error
+    private void statements(List<Stmt> statements) throws Exception {
+      for (Stmt stmt : statements) {
+        if (stmt != null)
+          stmt.accept(this);
+      }
+    }
+
+    private void use(Token name) {
+      if (this.depth > 0)
+        this.names.add(name.lexeme());
+    }
+
+    private void function(List<Stmt> body) throws Exception {
+      this.depth++;
+      this.statements(body);
+      this.depth--;
+    }
+
+    private void block(Stmt.BlockStmt block) throws Exception {
+      if (block != null)
+        block.accept(this);
+    }
+
+    public Void visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
+      this.statements(stmt.statements);
+      return null;
+    }
+
+    public Void visitBreakStmt(Stmt.BreakStmt stmt) { return null; }
+    public Void visitContinueStmt(Stmt.ContinueStmt stmt) { return null; }
+
+    public Void visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
+      stmt.expr.accept(this);
+      return null;
+    }
+
+    public Void visitFnStmt(Stmt.FnStmt stmt) throws Exception {
+      this.use(stmt.name);
+      this.function(stmt.body);
+
+      return null;
+    }
+
+    public Void visitIfStmt(Stmt.IfStmt stmt) throws Exception {
+      stmt.condition.accept(this);
+      this.block(stmt.thenBranch);
+      this.block(stmt.elseBranch);
+
+      return null;
+    }
+
+    public Void visitLetStmt(Stmt.LetStmt stmt) throws Exception {
+      stmt.value.accept(this);
+      return null;
+    }
+
+    public Void visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
+      if (stmt.iterable != null)
+        stmt.iterable.accept(this);
+
+      this.block(stmt.block);
+      return null;
+    }
+
+    public Void visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+      if (stmt.value != null)
+        stmt.value.accept(this);
+
+      return null;
+    }
+
+    public Void visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
+      stmt.condition.accept(this);
+      this.block(stmt.block);
+
+      return null;
+    }
+
+    public Void visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
+      for (Expr item : expr.items)
+        item.accept(this);
+
+      return null;
+    }
+
+    public Void visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+      this.use(expr.name);
+      expr.lValue.accept(this);
+      expr.value.accept(this);
+
+      return null;
+    }
+
+    public Void visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
+      this.use(expr.name);
+      expr.index.accept(this);
+      expr.value.accept(this);
+
+      return null;
+    }
+
+    public Void visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+      expr.left.accept(this);
+      expr.right.accept(this);
+
+      return null;
+    }
+
+    public Void visitCallExpr(Expr.CallExpr expr) throws Exception {
+      expr.callee.accept(this);
+
+      for (Expr arg : expr.args)
+        arg.accept(this);
+
+      return null;
+    }
+
+    public Void visitFnExpr(Expr.FnExpr expr) throws Exception {
+      this.function(expr.body);
+      return null;
+    }
+
+    public Void visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
+      expr.expr.accept(this);
+      return null;
+    }
+
+    public Void visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
+      expr.array.accept(this);
+      expr.index.accept(this);
+
+      return null;
+    }
+
+    public Void visitLiteralExpr(Expr.LiteralExpr expr) { return null; }
+
+    public Void visitRangeExpr(Expr.RangeExpr expr) throws Exception {
+      expr.start.accept(this);
+      expr.end.accept(this);
+
+      if (expr.step != null)
+        expr.step.accept(this);
+
+      return null;
+    }
+
+    public Void visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+      expr.left.accept(this);
+      expr.right.accept(this);
+
+      return null;
+    }
+
+    public Void visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
+      expr.condition.accept(this);
+      expr.thenBranch.accept(this);
+      expr.elseBranch.accept(this);
+
+      return null;
+    }
+
+    public Void visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+      if (expr.operator.type() == TokenType.Ampersand)
+        this.names.add(((Expr.IdentifierExpr) expr.operand).name.lexeme());
+
+      expr.operand.accept(this);
+      return null;
+    }
+
+    public Void visitVariableExpr(Expr.IdentifierExpr expr) {
+      this.use(expr.name);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,5 @@
+import java.util.List;
+
+public interface Engine {
+  void interpret(List<Stmt> statements, boolean isRepl) throws Exception;
+}
@@ -1,46 +1,245 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
 
+// One frame of variables, stored by the slots assigned by the Resolver.
+// A slot holds Cell.UNDEFINED until its declaration runs; lookups by name only happen for unresolved names and references.
+// A variable captured by a closure moves into a Cell, which the frame and the closure share.
 public class Environment {
-  private final Map<String, Object> values = new HashMap<>();
-  private Environment enclosing;
+  private final Resolver.Scope scope;
+  private Object[] values;
+  private final Environment enclosing;
+
+  // the frames around the declaration of a closure that falls back, searched by name instead of the top-level frame
+  private Environment fallback;
 
   public Environment() {
-    this.enclosing = null;
+    this(new Resolver.Scope(), null);
   }
 
-  public Environment(Environment enclosing) {
+  public Environment(Resolver.Scope scope, Environment enclosing) {
+    this.scope = scope;
     this.enclosing = enclosing;
+    this.values = new Object[scope.size()];
+
+    Arrays.fill(this.values, Cell.UNDEFINED);
+  }
+
+  // the frame of a closure holds only the cells of the variables it captures, and continues with the top-level frame,
+  // so the frames around its declaration can be collected; unless a captured variable may not be declared yet
+  public static Environment closure(FnDecl declaration, Environment env) {
+    Environment topLevel = env;
+
+    while (topLevel.enclosing.enclosing != null)
+      topLevel = topLevel.enclosing;
+
+    Environment closure = new Environment(declaration.captureScope(), topLevel);
+    List<Resolver.Capture> captures = declaration.captures();
+
+    if (declaration.captureScope().fallsBack)
+      closure.fallback = env;
+
+    for (int i = 0; i < captures.size(); i++) {
+      Resolver.Capture capture = captures.get(i);
+      closure.values[i] = env.ancestor(capture.depth()).cell(capture.slot());
+    }
+
+    return closure;
+  }
+
+  public Resolver.Scope scope() {
+    return this.scope;
   }
 
+  // ---
+
   public void define(String name, Object value) {
-    this.values.put(name, value);
+    this.define(this.scope.declare(name), value);
+  }
+
+  public void define(int slot, Object value) {
+    // the top-level scope keeps growing in the REPL
+    if (slot >= this.values.length) {
+      int length = this.values.length;
+
+      this.values = Arrays.copyOf(this.values, Math.max(this.scope.size(), slot + 1));
+      Arrays.fill(this.values, length, this.values.length, Cell.UNDEFINED);
+    }
+
+    this.store(slot, value);
+  }
+
+  public Object get(int slot) {
+    return this.value(slot);
+  }
+
+  private Object value(int slot) {
+    if (slot >= this.values.length)
+      return Cell.UNDEFINED;
+
+    Object value = this.values[slot];
+    return value instanceof Cell ? ((Cell) value).value : value;
+  }
+
+  private void store(int slot, Object value) {
+    if (this.values[slot] instanceof Cell)
+      ((Cell) this.values[slot]).value = value;
+    else
+      this.values[slot] = value;
+  }
+
+  private Cell cell(int slot) {
+    if (!(this.values[slot] instanceof Cell))
+      this.values[slot] = new Cell(this.values[slot]);
+
+    return (Cell) this.values[slot];
+  }
+
+  // forgets every variable, for a frame that is reused
+  public void clear() {
+    Arrays.fill(this.values, Cell.UNDEFINED);
+  }
+
+  public boolean isDefined(int slot) {
+    return this.value(slot) != Cell.UNDEFINED;
   }
 
   public boolean containsVariable(String name) {
-    return this.values.containsKey(name);
+    int slot = this.scope.slot(name);
+    return slot >= 0 && this.isDefined(slot);
   }
 
-  public Object get(Token name) throws Exception {
-    if (this.values.containsKey(name.lexeme())) {
-      return this.values.get(name.lexeme());
+  public void forEach(BiConsumer<String, Object> action) {
+    for (int i = 0; i < this.values.length; i++) {
+      if (this.isDefined(i))
+        action.accept(this.scope.names.get(i), this.value(i));
+    }
+  }
+
+  // ---
+
+  // where a lookup by name continues
+  private Environment outer() {
+    return this.fallback != null ? this.fallback : this.enclosing;
+  }
+
+  private Environment ancestor(int depth) {
+    Environment env = this;
+
+    for (int i = 0; i < depth; i++)
+      env = env.enclosing;
+
+    return env;
+  }
+
+  // a resolved slot that isn't defined yet means the name still refers to an outer variable at this point
+  public Object get(int depth, int slot, Token name) throws Exception {
+    if (depth < 0)
+      return this.get(name);
+
+    Environment env = this.ancestor(depth);
+    Object value = env.value(slot);
+
+    if (value != Cell.UNDEFINED)
+      return value;
+
+    if (env.outer() != null)
+      return env.outer().get(name);
+
+    Util.printError("Variable '" + name.lexeme() + "' doesn't exist in this or a parent scope", name.pos());
+    return null;
+  }
+
+  // a referenced variable moves into a cell, so the reference reads and writes it directly;
+  // a name that isn't in its resolved slot yet is still referenced by name
+  public Ref ref(int depth, int slot, Token name) {
+    if (depth >= 0) {
+      Environment env = this.ancestor(depth);
+
+      if (env.isDefined(slot))
+        return env.cell(slot).ref(name);
+    }
+
+    return new Ref(name, this);
+  }
+
+  public void assign(int depth, int slot, Token name, Object value) throws Exception {
+    if (depth < 0) {
+      this.assign(name, value);
+      return;
     }
 
-    if (this.enclosing != null)
-      return this.enclosing.get(name);
+    Environment env = this.ancestor(depth);
+
+    if (env.isDefined(slot)) {
+      env.store(slot, value);
+      return;
+    }
+
+    if (env.outer() != null) {
+      env.outer().assign(name, value);
+      return;
+    }
+
+    Util.printError("Variable '" + name.lexeme() + "' doesn't exist in this or a parent scope", name.pos());
+  }
+
+  public void assignArray(int depth, int slot, Token name, int index, Object value) throws Exception {
+    if (depth < 0) {
+      this.assignArray(name, index, value);
+      return;
+    }
+
+    Environment env = this.ancestor(depth);
+
+    if (env.isDefined(slot)) {
+      env.setArray(slot, name, index, value);
+      return;
+    }
+
+    if (env.outer() != null) {
+      env.outer().assignArray(name, index, value);
+      return;
+    }
+
+    Util.printError("Variable '" + name.lexeme() + "' doesn't exist in this or a parent scope", name.pos());
+  }
+
+  private void setArray(int slot, Token name, int index, Object value) throws Exception {
+    Object obj = this.value(slot);
+
+    if (!(obj instanceof Array))
+      Util.printError("Can only index arrays", name.pos());
+
+    Array a = (Array) obj;
+    a.array.set(index, value);
+  }
+
+  // ---
+
+  public Object get(Token name) throws Exception {
+    int slot = this.scope.slot(name.lexeme());
+
+    if (slot >= 0 && this.isDefined(slot))
+      return this.value(slot);
+
+    if (this.outer() != null)
+      return this.outer().get(name);
 
     Util.printError("Variable '" + name.lexeme() + "' doesn't exist in this or a parent scope", name.pos());
     return null;
   }
 
   public void assign(Token name, Object value) throws Exception {
-    if (this.values.containsKey(name.lexeme())) {
-      values.put(name.lexeme(), value);
+    int slot = this.scope.slot(name.lexeme());
+
+    if (slot >= 0 && this.isDefined(slot)) {
+      this.store(slot, value);
       return;
     }
 
-    if (this.enclosing != null) {
-      this.enclosing.assign(name, value);
+    if (this.outer() != null) {
+      this.outer().assign(name, value);
       return;
     }
 
@@ -48,21 +247,15 @@ public class Environment {
   }
 
   public void assignArray(Token name, int index, Object value) throws Exception {
-    if (this.values.containsKey(name.lexeme())) {
-      Object obj = this.get(name);
-
-      if (!(obj instanceof Array))
-        Util.printError("Can only index arrays", name.pos());
-      
-      Array a = (Array) obj;
-      a.array.set(index, value);
+    int slot = this.scope.slot(name.lexeme());
 
-      values.put(name.lexeme(), a);
+    if (slot >= 0 && this.isDefined(slot)) {
+      this.setArray(slot, name, index, value);
       return;
     }
 
-    if (this.enclosing != null) {
-      this.enclosing.assignArray(name, index, value);
+    if (this.outer() != null) {
+      this.outer().assignArray(name, index, value);
       return;
     }
 
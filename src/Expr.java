@@ -1,6 +1,9 @@
+import java.util.ArrayList;
 import java.util.List;
 
-public abstract class Expr {
+// sealed with final node classes, so the type tests on the interpreter's fast paths are a single class compare;
+// the interpreter dispatches through the visitor, or on the nodes' kind tags with -Dquick.dispatch=switch
+public abstract sealed class Expr {
   public interface ExprVisitor<R> {
     R visitArrayExpr(ArrayExpr expr) throws Exception;
     R visitAssignExpr(AssignExpr expr) throws Exception;
@@ -11,25 +14,78 @@ public abstract class Expr {
     R visitGroupingExpr(GroupingExpr expr) throws Exception;
     R visitIndexExpr(ArrayIndexExpr expr) throws Exception;
     R visitLiteralExpr(LiteralExpr expr) throws Exception;
+    R visitLogicalExpr(LogicalExpr expr) throws Exception;
     R visitRangeExpr(RangeExpr expr) throws Exception;
     R visitTernaryExpr(TernaryExpr expr) throws Exception;
     R visitUnaryExpr(UnaryExpr expr) throws Exception;
     R visitVariableExpr(IdentifierExpr expr) throws Exception;
   }
 
-  public final Position pos;
+  // operand types observed by the interpreter; a failed speculation falls back to Generic for good,
+  // and operands of a Proven node have types known before running, so it never falls back
+  public enum Specialization {
+    Uninitialized,
+    Number,
+    Integer,
+    String,
+    Array,
+    Generic,
+    Proven
+  }
+
+  // value types proven by TypeInference; a node of a known type always evaluates to it, or fails
+  public enum Type {
+    Unknown,
+    Number,
+    Integer,
+    String,
+    Boolean,
+    Array
+  }
+
+  // common shapes the interpreter runs in one step, marked by the Optimizer
+  public enum Fused {
+    None,
+    Increment,
+    VariableIndex,
+    Compare,
+    Println
+  }
 
-  public Expr(Position pos) {
+  public final Position pos;
+  // one of the tags below
+  public final int kind;
+  Type type = Type.Unknown;
+  Fused fused = Fused.None;
+
+  // node-kind tags, one per node class, for the interpreter's switch dispatch
+  static final int ARRAY = 0;
+  static final int ASSIGN = 1;
+  static final int ASSIGN_INDEX = 2;
+  static final int BINARY = 3;
+  static final int CALL = 4;
+  static final int FN = 5;
+  static final int GROUPING = 6;
+  static final int INDEX = 7;
+  static final int LITERAL = 8;
+  static final int LOGICAL = 9;
+  static final int RANGE = 10;
+  static final int TERNARY = 11;
+  static final int UNARY = 12;
+  static final int VARIABLE = 13;
+
+  public Expr(Position pos, int kind) {
     this.pos = pos;
+    this.kind = kind;
   }
 
   public abstract <R> R accept(ExprVisitor<R> visitor) throws Exception;
 
-  public static class ArrayExpr extends Expr {
+  public static final class ArrayExpr extends Expr {
     final List<Expr> items;
 
     public ArrayExpr(Position pos, List<Expr> items) {
-      super(pos);
+      super(pos, ARRAY);
       this.items = items;
     }
 
@@ -38,15 +94,24 @@ public abstract class Expr {
     }
   }
 
-  public static class AssignExpr extends Expr {
+  public static final class AssignExpr extends Expr {
     final Token name;
     final Token operator;
     final Expr lValue;
     final Expr value;
     final boolean isRef;
 
+    int depth = -1;
+    int slot;
+    boolean isGlobal;
+    boolean isNative;
+
+    // an Increment reads this variable, the one assigned, and adds the step to it
+    IdentifierExpr incremented;
+    Object step;
+
     public AssignExpr(Position pos, Token name, Token operator, Expr expr, Expr value, boolean isRef) {
-      super(pos);
+      super(pos, ASSIGN);
 
       this.name = name;
       this.operator = operator;
@@ -60,15 +125,19 @@ public abstract class Expr {
     }
   }
 
-  public static class AssignIndexExpr extends Expr {
+  public static final class AssignIndexExpr extends Expr {
     final Token name;
     final Token operator;
     final Expr index;
     final Expr expr;
     final Expr value;
 
+    int depth = -1;
+    int slot;
+    boolean isGlobal;
+
     public AssignIndexExpr(Position pos, Token name, Token operator, Expr index, Expr expr, Expr value) {
-      super(pos);
+      super(pos, ASSIGN_INDEX);
 
       this.name = name;
       this.operator = operator;
@@ -82,13 +151,15 @@ public abstract class Expr {
     }
   }
 
-  public static class BinaryExpr extends Expr {
+  public static final class BinaryExpr extends Expr {
     final Expr left;
     final Token operator;
     final Expr right;
 
+    Specialization specialization = Specialization.Uninitialized;
+
     public BinaryExpr(Position pos, Expr left, Token operator, Expr right) {
-      super(pos);
+      super(pos, BINARY);
 
       this.left = left;
       this.operator = operator;
@@ -100,15 +171,21 @@ public abstract class Expr {
     }
   }
 
-  public static class CallExpr extends Expr {
+  public static final class CallExpr extends Expr {
     final Expr callee;
     final List<Expr> args;
 
+    final InlineCache cache;
+
+    // set when the callee resolves to a native the engines implement directly
+    Intrinsic intrinsic;
+
     public CallExpr(Position pos, Expr callee, List<Expr> args) {
-      super(pos);
+      super(pos, CALL);
 
       this.callee = callee;
       this.args = args;
+      this.cache = new InlineCache(args.size(), callee.pos);
     }
 
     public <R> R accept(ExprVisitor<R> visitor) throws Exception {
@@ -116,12 +193,17 @@ public abstract class Expr {
     }
   }
 
-  public static class FnExpr extends Expr implements FnDecl {
+  public static final class FnExpr extends Expr implements FnDecl {
     final List<Token> params;
     final List<Stmt> body;
+    final Jit.Profile profile = new Jit.Profile();
+    final Resolver.Scope paramScope = new Resolver.Scope();
+    final Resolver.Scope bodyScope = new Resolver.Scope();
+    final Resolver.Scope captureScope = new Resolver.Scope();
+    final List<Resolver.Capture> captures = new ArrayList<>();
 
     public FnExpr(Position pos, List<Token> params, List<Stmt> body) {
-      super(pos);
+      super(pos, FN);
 
       this.params = params;
       this.body = body;
@@ -140,13 +222,38 @@ public abstract class Expr {
     public List<Stmt> body() {
       return this.body;
     }
+
+    @Override
+    public Jit.Profile profile() {
+      return this.profile;
+    }
+
+    @Override
+    public Resolver.Scope paramScope() {
+      return this.paramScope;
+    }
+
+    @Override
+    public Resolver.Scope bodyScope() {
+      return this.bodyScope;
+    }
+
+    @Override
+    public Resolver.Scope captureScope() {
+      return this.captureScope;
+    }
+
+    @Override
+    public List<Resolver.Capture> captures() {
+      return this.captures;
+    }
   }
 
-  public static class GroupingExpr extends Expr {
+  public static final class GroupingExpr extends Expr {
     final Expr expr;
 
     public GroupingExpr(Position pos, Expr expr) {
-      super(pos);
+      super(pos, GROUPING);
 
       this.expr = expr;
     }
@@ -156,12 +263,14 @@ public abstract class Expr {
     }
   }
 
-  public static class ArrayIndexExpr extends Expr {
+  public static final class ArrayIndexExpr extends Expr {
     final Expr array;
     final Expr index;
 
+    Specialization specialization = Specialization.Uninitialized;
+
     public ArrayIndexExpr(Position pos, Expr expr, Expr index) {
-      super(pos);
+      super(pos, INDEX);
 
       this.array = expr;
       this.index = index;
@@ -172,11 +281,11 @@ public abstract class Expr {
     }
   }
 
-  public static class LiteralExpr extends Expr {
+  public static final class LiteralExpr extends Expr {
     final Object value;
 
     public LiteralExpr(Position pos, Object value) {
-      super(pos);
+      super(pos, LITERAL);
 
       this.value = value;
     }
@@ -186,13 +295,36 @@ public abstract class Expr {
     }
   }
 
-  public static class RangeExpr extends Expr {
+  // '&' and '|', which only evaluate their right operand when the left one doesn't decide the result
+  public static final class LogicalExpr extends Expr {
+    final Expr left;
+    final Token operator;
+    final Expr right;
+
+    // taken when the left operand decides the result
+    final BranchProfile profile;
+
+    public LogicalExpr(Position pos, Expr left, Token operator, Expr right) {
+      super(pos, LOGICAL);
+
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+      this.profile = new BranchProfile("'" + operator.lexeme() + "'", operator.pos());
+    }
+
+    public <R> R accept(ExprVisitor<R> visitor) throws Exception {
+      return visitor.visitLogicalExpr(this);
+    }
+  }
+
+  public static final class RangeExpr extends Expr {
     final Expr start;
     final Expr end;
     final Expr step;
 
     public RangeExpr(Position pos, Expr start, Expr end, Expr step) {
-      super(pos);
+      super(pos, RANGE);
 
       this.start = start;
       this.end = end;
@@ -204,17 +336,21 @@ public abstract class Expr {
     }
   }
 
-  public static class TernaryExpr extends Expr {
+  public static final class TernaryExpr extends Expr {
     final Expr condition;
     final Expr thenBranch;
     final Expr elseBranch;
 
+    // taken when the then branch runs
+    final BranchProfile profile;
+
     public TernaryExpr(Position pos, Expr condition, Expr thenBranch, Expr elseBranch) {
-      super(pos);
+      super(pos, TERNARY);
 
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
+      this.profile = new BranchProfile("ternary", pos);
     }
 
     public <R> R accept(ExprVisitor<R> visitor) throws Exception {
@@ -222,12 +358,14 @@ public abstract class Expr {
     }
   }
 
-  public static class UnaryExpr extends Expr {
+  public static final class UnaryExpr extends Expr {
     final Token operator;
     final Expr operand;
 
+    Specialization specialization = Specialization.Uninitialized;
+
     public UnaryExpr(Position pos, Token operator, Expr right) {
-      super(pos);
+      super(pos, UNARY);
 
       this.operator = operator;
       this.operand = right;
@@ -238,11 +376,18 @@ public abstract class Expr {
     }
   }
 
-  public static class IdentifierExpr extends Expr {
+  public static final class IdentifierExpr extends Expr {
     final Token name;
 
+    int depth = -1;
+    int slot;
+    boolean isGlobal;
+
+    // the value of a native, bound by the resolver
+    Object bound;
+
     public IdentifierExpr(Position pos, Token name) {
-      super(pos);
+      super(pos, VARIABLE);
 
       this.name = name;
     }
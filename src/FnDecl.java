@@ -3,4 +3,9 @@ import java.util.List;
 public interface FnDecl {
   List<Token> params();
   List<Stmt> body();
+  Jit.Profile profile();
+  Resolver.Scope paramScope();
+  Resolver.Scope bodyScope();
+  Resolver.Scope captureScope();
+  List<Resolver.Capture> captures();
 }
@@ -6,7 +6,7 @@ public class Function implements Callable {
 
   public Function(FnDecl declaration, Environment closure) {
     this.declaration = declaration;
-    this.closure = closure;
+    this.closure = Environment.closure(declaration, closure);
   }
 
   @Override
@@ -16,20 +16,140 @@ public class Function implements Callable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-    Environment env = new Environment(this.closure);
+    Environment params = this.params();
 
-    for (int i = 0; i < declaration.params().size(); i++) {
-      env.define(declaration.params().get(i).lexeme(), args.get(i));
+    for (int i = 0; i < args.size(); i++) {
+      params.define(i, args.get(i));
     }
 
+    return this.call(interpreter, params);
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) throws Exception {
+    return this.call(interpreter, this.params());
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+    Environment params = this.params();
+    params.define(0, arg0);
+
+    return this.call(interpreter, params);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+    Environment params = this.params();
+    params.define(0, arg0);
+    params.define(1, arg1);
+
+    return this.call(interpreter, params);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) throws Exception {
+    Environment params = this.params();
+    params.define(0, arg0);
+    params.define(1, arg1);
+    params.define(2, arg2);
+
+    return this.call(interpreter, params);
+  }
+
+  private Environment params() {
+    return new Environment(this.declaration.paramScope(), this.closure);
+  }
+
+  // runs the function with its arguments already in the parameter frame
+  private Object call(Interpreter interpreter, Environment params) throws Exception {
+    Function function = this;
+    Environment body = null;
+
+    // tail calls made by the body run in this loop, so deep tail recursion doesn't grow the Java stack
+    while (true) {
+      FnDecl declaration = function.declaration;
+      Jit.Profile profile = declaration.profile();
+
+      if (profile.code == null && !profile.failed && !interpreter.isRepl()) {
+        profile.invocations++;
+
+        if (profile.isHot()) {
+          profile.code = Jit.compile(declaration);
+          profile.failed = profile.code == null;
+        }
+      }
+
+      Object result;
+
+      if (profile.code != null)
+        result = profile.code.run(function.closure, interpreter, params);
+      else {
+        if (body == null)
+          body = new Environment(declaration.bodyScope(), params);
+
+        result = function.run(interpreter, profile, body);
+      }
+
+      if (result != Interpreter.TAIL_CALL)
+        return result;
+
+      Callable callee = interpreter.tailCallee;
+      List<Object> args = interpreter.tailArgs;
+
+      interpreter.tailCallee = null;
+      interpreter.tailArgs = null;
+
+      // the frames of a call to the same function are reused when nothing can have kept them
+      if (callee == function && !declaration.paramScope().captured) {
+        params.clear();
+
+        if (body != null)
+          body.clear();
+      }
+      else {
+        function = (Function) callee;
+        params = function.params();
+        body = null;
+      }
+
+      for (int i = 0; i < args.size(); i++) {
+        params.define(i, args.get(i));
+      }
+    }
+  }
+
+  private Object run(Interpreter interpreter, Jit.Profile profile, Environment body) throws Exception {
+    Jit.Profile caller = interpreter.profile;
+    interpreter.profile = profile;
+
+    Util.Completion completion;
+
     try {
-      interpreter.executeBlock(declaration.body(), env);
+      completion = interpreter.executeBlock(this.declaration.body(), body);
+    }
+    finally {
+      interpreter.profile = caller;
     }
-    catch (Util.Return r) {
-      return r.value;
+
+    return complete(completion, interpreter);
+  }
+
+  // the returned value, or the 'break' / 'continue' that leaves the body to reach the caller's loop
+  public static Object complete(Util.Completion completion, Interpreter interpreter) throws Exception {
+    if (completion == null)
+      return null;
+
+    switch (completion) {
+      case Break -> throw Util.Break.INSTANCE;
+      case Continue -> throw Util.Continue.INSTANCE;
+      default -> {
+        Object value = interpreter.returnValue;
+        interpreter.returnValue = null;
+
+        return value;
+      }
     }
-    
-    return null;
   }
 
   public String toString() {
@@ -0,0 +1,31 @@
+// The callees a call site has already checked, so calling one of them again skips the
+// callable and arity checks. Entries are compared by identity: when the binding the site
+// calls changes, the new callee misses, is checked and takes the second entry.
+public class InlineCache {
+  private static final Object EMPTY = new Object();
+
+  private final int argc;
+  private final Position pos;
+
+  private Object first = EMPTY;
+  private Object second = EMPTY;
+
+  public InlineCache(int argc, Position pos) {
+    this.argc = argc;
+    this.pos = pos;
+  }
+
+  public Callable callable(Object callee) throws Exception {
+    if (callee == this.first || callee == this.second)
+      return (Callable) callee;
+
+    Callable function = Operators.callable(callee, this.argc, this.pos);
+
+    if (this.first == EMPTY)
+      this.first = function;
+    else
+      this.second = function;
+
+    return function;
+  }
+}
@@ -0,0 +1,144 @@
+import java.math.BigInteger;
+
+// Exact integer algorithms behind the number theory natives, on longs while the values fit
+// and on big integers past them; results are normalized like those of the operators.
+public final class Integers {
+  // the largest n whose factorial and fibonacci number fit a long
+  private static final long FACTORIAL_LIMIT = 20;
+  private static final long FIBONACCI_LIMIT = 92;
+
+  private Integers() {}
+
+  // --- Factorial
+
+  public static Object factorial(long n) {
+    if (n <= FACTORIAL_LIMIT) {
+      long result = 1;
+
+      for (long i = 2; i <= n; i++)
+        result *= i;
+
+      return result;
+    }
+
+    return Operators.normalize(product(1, n));
+  }
+
+  // the product of the integers in (low, high], split in halves so both sides of each
+  // multiplication have about as many digits, which is where big multiplication is fast
+  private static BigInteger product(long low, long high) {
+    if (high - low <= 16) {
+      BigInteger result = BigInteger.valueOf(high);
+
+      for (long i = high - 1; i > low; i--)
+        result = result.multiply(BigInteger.valueOf(i));
+
+      return result;
+    }
+
+    long middle = (low + high) >>> 1;
+    return product(low, middle).multiply(product(middle, high));
+  }
+
+  // --- Fibonacci
+
+  // fast doubling, from F(2k) = F(k) * (2F(k+1) - F(k)) and F(2k+1) = F(k)^2 + F(k+1)^2
+  public static Object fibonacci(long n) {
+    if (n <= FIBONACCI_LIMIT) {
+      long current = 0;
+      long next = 1;
+
+      for (long i = 0; i < n; i++) {
+        next += current;
+        current = next - current;
+      }
+
+      return current;
+    }
+
+    BigInteger current = BigInteger.ZERO;
+    BigInteger next = BigInteger.ONE;
+
+    for (int bit = 63 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+      BigInteger doubled = current.multiply(next.shiftLeft(1).subtract(current));
+      BigInteger doubledNext = current.multiply(current).add(next.multiply(next));
+
+      if ((n >>> bit & 1) == 0) {
+        current = doubled;
+        next = doubledNext;
+      }
+      else {
+        current = doubledNext;
+        next = doubled.add(doubledNext);
+      }
+    }
+
+    return Operators.normalize(current);
+  }
+
+  // --- Divisors
+
+  // Euclid's algorithm; the gcd of 0 and n is |n|
+  public static Object gcd(Object a, Object b) {
+    if (a instanceof Long && b instanceof Long && (long) a != Long.MIN_VALUE && (long) b != Long.MIN_VALUE) {
+      long x = Math.abs((long) a);
+      long y = Math.abs((long) b);
+
+      while (y != 0) {
+        long remainder = x % y;
+        x = y;
+        y = remainder;
+      }
+
+      return x;
+    }
+
+    return Operators.normalize(Operators.toBig(a).gcd(Operators.toBig(b)));
+  }
+
+  public static Object lcm(Object a, Object b) {
+    if (Operators.compare(a, 0L) == 0 || Operators.compare(b, 0L) == 0)
+      return 0L;
+
+    BigInteger gcd = Operators.toBig(gcd(a, b));
+    return Operators.normalize(Operators.toBig(a).divide(gcd).multiply(Operators.toBig(b)).abs());
+  }
+
+  // --- Modular arithmetic
+
+  // base^exponent mod modulus, in [0, modulus); a negative exponent raises the inverse of base,
+  // which only exists when base and modulus are coprime
+  public static Object modPower(Object base, Object exponent, Object modulus) {
+    if (Operators.compare(modulus, 0L) <= 0)
+      return null;
+
+    // products of residues below 2^31 fit a long
+    if (modulus instanceof Long && (long) modulus <= Integer.MAX_VALUE && exponent instanceof Long && (long) exponent >= 0) {
+      long m = (long) modulus;
+      long b = base instanceof Long
+                 ? Math.floorMod((long) base, m)
+                 : Operators.toBig(base).mod(BigInteger.valueOf(m)).longValue();
+      long e = (long) exponent;
+      long result = 1 % m;
+
+      while (e > 0) {
+        if ((e & 1) == 1)
+          result = result * b % m;
+
+        b = b * b % m;
+        e >>= 1;
+      }
+
+      return result;
+    }
+
+    BigInteger m = Operators.toBig(modulus);
+    BigInteger b = Operators.toBig(base);
+    BigInteger e = Operators.toBig(exponent);
+
+    if (e.signum() < 0 && !b.gcd(m).equals(BigInteger.ONE))
+      return null;
+
+    return Operators.normalize(b.modPow(e, m));
+  }
+}
@@ -1,126 +1,112 @@
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
-public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Object> {
+public class Interpreter implements Engine, Stmt.StmtVisitor<Util.Completion>, Expr.ExprVisitor<Object> {
   public final Environment globals = new Environment();
-  private Environment environment = new Environment(globals);
+
+  private final Resolver resolver = new Resolver(this.globals);
+  private final TypeInference typeInference = new TypeInference();
+  private final Environment topLevel = new Environment(this.resolver.topLevel(), this.globals);
+  private Environment environment = this.topLevel;
 
   private boolean isRepl = false;
 
+  // -Dquick.dispatch=switch runs the nodes through a switch on their kind tags instead of the visitor; 'make bench' compares both
+  private static final boolean SWITCH_DISPATCH = System.getProperty("quick.dispatch", "visitor").equals("switch");
+
+  // profile of the function being interpreted, it receives the loop back-edges
+  Jit.Profile profile = null;
+
+  // set by a 'return' statement, read by the function call it completes
+  Object returnValue = null;
+
+  // returned by a function body that ends in a tail call; the call is left for Function.call to make
+  static final Object TAIL_CALL = new Object();
+
+  Callable tailCallee = null;
+  List<Object> tailArgs = null;
+
   public Interpreter() {
     // -- Prelude --
 
-    globals.define("timeMs", new Callable() {
-      public int arity() { return 0; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        return (double) System.currentTimeMillis();
+    this.define(new Native("timeMs", 0, false) {
+      public Object call0(Interpreter interpreter) {
+        return System.currentTimeMillis();
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("timeSec", new Callable() {
-      public int arity() { return 0; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("timeSec", 0, false) {
+      public Object call0(Interpreter interpreter) {
         return (double) System.currentTimeMillis() / 1000.0;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("println", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        System.out.println(Util.stringify(args.get(0)));
+    this.define(new Native("println", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        System.out.println(Util.stringify(arg0));
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("print", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        System.out.print(Util.stringify(args.get(0)));
+    this.define(new Native("print", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        System.out.print(Util.stringify(arg0));
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("printlnBlank", new Callable() {
-      public int arity() { return 0; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("printlnBlank", 0, false) {
+      public Object call0(Interpreter interpreter) {
         System.out.println();
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("clearScreen", new Callable() {
-      public int arity() { return 0; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("clearScreen", 0, false) {
+      public Object call0(Interpreter interpreter) {
         Util.clearScreen();
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("execute", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("execute", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
         boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("win");
         ProcessBuilder builder;
 
         try {
           if (isWindows)
-            builder = new ProcessBuilder("cmd", "/c", Util.stringify(args.get(0)));
+            builder = new ProcessBuilder("cmd", "/c", Util.stringify(arg0));
           else
-            builder = new ProcessBuilder("sh", "-c", Util.stringify(args.get(0)));
+            builder = new ProcessBuilder("sh", "-c", Util.stringify(arg0));
 
           builder.inheritIO();
           Process process = builder.start();
           
-          return process.waitFor();
+          return (long) process.waitFor();
         } catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("input", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        System.out.print(Util.stringify(args.get(0)));
+    this.define(new Native("input", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        System.out.print(Util.stringify(arg0));
         return System.console().readLine();
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("inputNum", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        System.out.print(Util.stringify(args.get(0)));
+    this.define(new Native("inputNum", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        System.out.print(Util.stringify(arg0));
         String s = System.console().readLine();
 
         try {
@@ -131,17 +117,13 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("inputNumPersistent", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("inputNumPersistent", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
         while (true) {
           try {
-            System.out.print(Util.stringify(args.get(0)));
+            System.out.print(Util.stringify(arg0));
 
             String s = System.console().readLine();
             Double res = Double.valueOf(s);
@@ -153,389 +135,243 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           }
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("inputInt", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        System.out.print(Util.stringify(args.get(0)));
+    this.define(new Native("inputInt", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        System.out.print(Util.stringify(arg0));
         String s = System.console().readLine();
 
         try {
-          Integer res = Integer.valueOf(s);
-          return (double) res;
+          return Long.valueOf(s);
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("inputIntPersistent", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("inputIntPersistent", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
         while (true) {
           try {
-            System.out.print(Util.stringify(args.get(0)));
+            System.out.print(Util.stringify(arg0));
 
             String s = System.console().readLine();
-            Integer res = Integer.valueOf(s);
-
-            return (double) res;
+            return Long.valueOf(s);
           }
           catch (Exception e) {
             continue;
           }
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("panic", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        System.out.println("Panic: " + Util.stringify(args.get(0)));
+    this.define(new Native("panic", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        System.out.println("Panic: " + Util.stringify(arg0));
         throw new Exception();
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("args", new Callable() {
-      public int arity() { return 0; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("args", 0, false) {
+      public Object call0(Interpreter interpreter) throws Exception {
         return new Array(Arrays.asList((Object[]) Util.args));
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("exit", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
-
-          if (d.intValue() != d)
-            return null;
-          
-          System.exit(d.intValue());
-        }
+    this.define(new Native("exit", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isInteger(arg0))
+          System.exit((int) Operators.toLong(arg0));
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("len", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        final Object obj = args.get(0);
-        
-        if (obj instanceof String) {
-          return (double) ((String) obj).length();
-        }
-        else if (obj instanceof Array) {
-          return (double) ((Array) obj).array.size();
-        }
-
-        return null;
+    this.define(new Native("len", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Intrinsic.len(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("workingDir", new Callable() {
-      public int arity() { return 0; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("workingDir", 0, false) {
+      public Object call0(Interpreter interpreter) {
         return System.getProperty("user.dir");
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("getProperty", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (!(args.get(0) instanceof String))
+    this.define(new Native("getProperty", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (!(arg0 instanceof String))
           return null;
 
-        return System.getProperty((String) args.get(0));
+        return System.getProperty((String) arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("setProperty", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (!(args.get(0) instanceof String && args.get(1) instanceof String))
+    this.define(new Native("setProperty", 2, false) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        if (!(arg0 instanceof String && arg1 instanceof String))
           return null;
 
-        return System.setProperty((String) args.get(0), (String) args.get(1));
+        return System.setProperty((String) arg0, (String) arg1);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
     // -- Types --
 
-    globals.define("asStr", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        return Util.stringify(args.get(0));
+    this.define(new Native("asStr", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Util.stringify(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("asNum", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
+    this.define(new Native("asNum", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
         try {
-          if (!(args.get(0) instanceof String)) return null;
+          if (!(arg0 instanceof String)) return null;
 
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return Double.valueOf(s);
         } catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("toInt", new Callable() {
-      public int arity() { return 1; }
+    this.define(new Native("toInt", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (arg0 instanceof String) {
+          String s = (String) arg0;
+          Optional<BigInteger> integer = Util.supressException(() -> new BigInteger(s));
 
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof String) {
-          String s = (String) args.get(0);
-          return (double) Double.valueOf(s).intValue();
-        }
+          if (integer.isPresent())
+            return Operators.normalize(integer.get());
 
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
-          return (double) d.intValue();
+          return Operators.truncate(Double.valueOf(s));
         }
 
+        if (Operators.isExact(arg0))
+          return arg0;
+
+        if (Operators.isNumber(arg0))
+          return Operators.truncate((double) arg0);
+
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isInt", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (!(args.get(0) instanceof Double)) return false;
-
-        Double d = (Double) args.get(0);
-        return d.intValue() == d;
+    this.define(new Native("isInt", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Operators.isInteger(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isFloat", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (!(args.get(0) instanceof Double)) return false;
-
-        Double d = (Double) args.get(0);
-        return d.intValue() != d;
+    this.define(new Native("isFloat", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Operators.isNumber(arg0) && !Operators.isInteger(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isNum", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof Double) return true;
-        return false;
+    this.define(new Native("isNum", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Operators.isNumber(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isStr", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof String) return true;
+    this.define(new Native("isStr", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (arg0 instanceof String) return true;
         return false;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isBool", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof Boolean) return true;
+    this.define(new Native("isBool", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (arg0 instanceof Boolean) return true;
         return false;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isArray", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof Array) return true;
+    this.define(new Native("isArray", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (arg0 instanceof Array) return true;
         return false;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isRange", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof Range) return true;
+    this.define(new Native("isRange", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (arg0 instanceof Range) return true;
         return false;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isRef", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof Ref) return true;
+    this.define(new Native("isRef", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (arg0 instanceof Ref) return true;
         return false;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isFn", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof Function) return true;
+    this.define(new Native("isFn", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (arg0 instanceof Function || arg0 instanceof Closure || arg0 instanceof CompiledFunction) return true;
         return false;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("typeOf", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) {
-        if (args.get(0) instanceof Double) return "num";
-        if (args.get(0) instanceof String) return "str";
-        if (args.get(0) instanceof Boolean) return "bool";
-        if (args.get(0) instanceof Array) return "array";
-        if (args.get(0) instanceof Range) return "range";
-        if (args.get(0) instanceof Ref) return "ref";
-        if (args.get(0) instanceof Function) return "fn";
-        if (args.get(0) == null) return "nil";
+    this.define(new Native("typeOf", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        if (Operators.isNumber(arg0)) return "num";
+        if (arg0 instanceof String) return "str";
+        if (arg0 instanceof Boolean) return "bool";
+        if (arg0 instanceof Array) return "array";
+        if (arg0 instanceof Range) return "range";
+        if (arg0 instanceof Ref) return "ref";
+        if (arg0 instanceof Function || arg0 instanceof Closure || arg0 instanceof CompiledFunction) return "fn";
+        if (arg0 == null) return "nil";
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
     // -- Math --
 
-    globals.define("ceil", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
-          return Math.ceil(d);
-        }
-
-        return null;
+    this.define(new Native("ceil", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Intrinsic.ceil(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("floor", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
-          return Math.floor(d);
-        }
-
-        return null;
+    this.define(new Native("floor", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Intrinsic.floor(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("min", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double && args.get(1) instanceof Double) {
-          Double a = (Double) args.get(0);
-          Double b = (Double) args.get(1);
-
-          return Math.min(a, b);
-        }
-
-        return null;
+    this.define(new Native("min", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return Intrinsic.min(arg0, arg1);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("max", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double && args.get(1) instanceof Double) {
-          Double a = (Double) args.get(0);
-          Double b = (Double) args.get(1);
-          
-          return Math.max(a, b);
-        }
-
-        return null;
+    this.define(new Native("max", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return Intrinsic.max(arg0, arg1);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("factorial", new Callable() {
-      public int arity() { return 1; }
+    this.define(new Native("factorial", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isInteger(arg0) && !(arg0 instanceof BigInteger)) {
+          long n = Operators.toLong(arg0);
+          return n < 0 ? null : Integers.factorial(n);
+        }
 
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
           Double res = d;
 
           while (d > 1) {
@@ -548,58 +384,29 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("fibonacci", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double n = (Double) args.get(0);
-          Double current = 1.0;
-          Double prev = 0.0;
-
-          for (int i = 2; i <= n; i++) {
-            current += prev;
-            prev = current - prev;
-          }
-
-          return current;
+    this.define(new Native("fibonacci", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0) && !(arg0 instanceof BigInteger)) {
+          double n = Math.floor(Operators.toDouble(arg0));
+          return n < 0 ? null : Integers.fibonacci((long) n);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("sqrt", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
-
-          if (d < 0)
-            return null;
-
-          return Math.sqrt(d);
-        }
-
-        return null;
+    this.define(new Native("sqrt", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Intrinsic.sqrt(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("cbrt", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("cbrt", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           if (d < 0)
             return null;
@@ -609,370 +416,251 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("lcm", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double && args.get(1) instanceof Double) {
-          Double a = (Double) args.get(0);
-          Double b = (Double) args.get(1);
-
-          if (a == 0 || b == 0)
-            return 0;
-
-          double absNumber1 = Math.abs(a);
-          double absNumber2 = Math.abs(b);
-
-          double absHigherNumber = Math.max(absNumber1, absNumber2);
-          double absLowerNumber = Math.min(absNumber1, absNumber2);
-
-          double lcm = absHigherNumber;
-          
-          while (lcm % absLowerNumber != 0) {
-            lcm += absHigherNumber;
-          }
-            
-          return lcm;
-        }
+    this.define(new Native("lcm", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (Operators.isInteger(arg0) && Operators.isInteger(arg1))
+          return Integers.lcm(arg0, arg1);
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("gcd", new Callable() {
-      public int arity() { return 2; }
+    this.define(new Native("gcd", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (Operators.isInteger(arg0) && Operators.isInteger(arg1))
+          return Integers.gcd(arg0, arg1);
 
-    public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-      if (args.get(0) instanceof Double && args.get(1) instanceof Double) {
-        Double a = (Double) args.get(0);
-        Double b = (Double) args.get(1);
-        
-        double i;
-        if (a < b)
-          i = a;
-        else
-          i = b;
-        
-        for (; i > 1; i--) {
-          if (a % i == 0 && b % i == 0)
-            return i;
-        }
-        
-        return 1;
+        return null;
       }
-      
-      return null;
-    }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("sin", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("sin", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.sin(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("cos", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("cos", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.cos(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("tan", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("tan", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.tan(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("asin", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("asin", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.asin(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("acos", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("acos", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.acos(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("atan", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("atan", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.atan(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("sinh", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("sinh", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.sinh(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("cosh", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("cosh", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.cosh(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("tanh", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double d = (Double) args.get(0);
+    this.define(new Native("tanh", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double d = Operators.toDouble(arg0);
 
           return Math.tanh(d);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("atan2", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double && args.get(1) instanceof Double) {
-          Double a = (Double) args.get(0);
-          Double b = (Double) args.get(1);
+    this.define(new Native("atan2", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (Operators.isNumber(arg0) && Operators.isNumber(arg1)) {
+          double a = Operators.toDouble(arg0);
+          double b = Operators.toDouble(arg1);
 
           return Math.atan2(a, b);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("power", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double && args.get(1) instanceof Double) {
-          Double a = (Double) args.get(0);
-          Double b = (Double) args.get(1);
+    this.define(new Native("power", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (Operators.isNumber(arg0) && Operators.isNumber(arg1)) {
+          double a = Operators.toDouble(arg0);
+          double b = Operators.toDouble(arg1);
 
           return Math.pow(a, b);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("log", new Callable() {
-      public int arity() { return 1; }
+    this.define(new Native("modPower", 3, true) {
+      public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) throws Exception {
+        if (Operators.isInteger(arg0) && Operators.isInteger(arg1) && Operators.isInteger(arg2))
+          return Integers.modPower(arg0, arg1, arg2);
+
+        return null;
+      }
+    });
 
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double a = (Double) args.get(0);
+    this.define(new Native("log", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double a = Operators.toDouble(arg0);
 
           return Math.log(a);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("log10", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double a = (Double) args.get(0);
+    this.define(new Native("log10", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double a = Operators.toDouble(arg0);
 
           return Math.log10(a);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("log1p", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double a = (Double) args.get(0);
+    this.define(new Native("log1p", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double a = Operators.toDouble(arg0);
 
           return Math.log1p(a);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("toDegrees", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double a = (Double) args.get(0);
+    this.define(new Native("toDegrees", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double a = Operators.toDouble(arg0);
 
           return Math.toDegrees(a);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("toRadians", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double a = (Double) args.get(0);
+    this.define(new Native("toRadians", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (Operators.isNumber(arg0)) {
+          double a = Operators.toDouble(arg0);
 
           return Math.toRadians(a);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("pi", new Callable() {
-      public int arity() { return 0; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("pi", 0, true) {
+      public Object call0(Interpreter interpreter) throws Exception {
         return Math.PI;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("e", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("e", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         return Math.E;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("abs", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Double) {
-          Double a = (Double) args.get(0);
-
-          return Math.abs(a);
-        }
-
-        return null;
+    this.define(new Native("abs", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) {
+        return Intrinsic.abs(arg0);
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("arrayStrNoBracket", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("arrayStrNoBracket", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          Array a = (Array) args.get(0);
+          Array a = (Array) arg0;
           String res = Util.stringify(a);
 
           return res.substring(1, res.length() - 1);
@@ -981,16 +669,12 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("arrayStrNoBracketNoComma", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("arrayStrNoBracketNoComma", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          Array a = (Array) args.get(0);
+          Array a = (Array) arg0;
           String res = Util.stringify(a);
 
           return res.substring(1, res.length() - 1).replace(", ", "");
@@ -999,16 +683,12 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("arrayStrNoComma", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("arrayStrNoComma", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          Array a = (Array) args.get(0);
+          Array a = (Array) arg0;
           String res = Util.stringify(a);
 
           return res.replace(", ", "");
@@ -1017,22 +697,18 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
     // -- Arrays --
 
-    globals.define("sort", new Callable() {
-      public int arity() { return 1; }
+    this.define(new Native("sort", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
+        if (arg0 instanceof Array) {
+          List<Object> copy = new ArrayList<>();
 
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Array) {
-          List<Double> copy = new ArrayList<>();
-
-          for (Object o : ((Array) args.get(0)).array) {
-            if (o instanceof Double) {
-              copy.add((Double) o);
+          for (Object o : ((Array) arg0).array) {
+            if (Operators.isNumber(o)) {
+              copy.add(o);
             }
             else {
               return null;
@@ -1040,14 +716,8 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           }
 
           try {
-            Collections.sort(copy);
-            List<Object> out = new ArrayList<>();
-
-            for (Double d : copy) {
-              out.add(d);
-            }
-
-            return new Array(out);
+            copy.sort(Operators::compare);
+            return new Array(copy);
           } catch (Exception e) {
             return null;
           }
@@ -1055,92 +725,63 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("append", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Array) {
-          Array a = (Array) args.get(0);
+    this.define(new Native("append", 2, false) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (arg0 instanceof Array) {
+          Array a = (Array) arg0;
 
           List<Object> list = new ArrayList<>(a.array);
-          list.add(args.get(1));
+          list.add(arg1);
 
           return new Array(list);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("push", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Array) {
-          Array a = (Array) args.get(0);
-          a.array.add(args.get(1));
+    this.define(new Native("push", 2, false) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (arg0 instanceof Array) {
+          Array a = (Array) arg0;
+          a.array.add(arg1);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("remove", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Array && args.get(1) instanceof Double) {
-          Array a = (Array) args.get(0);
-          Double d = (Double) args.get(1);
-
-          if (d.intValue() != d)
-            return null;
-          
-          a.array.remove(d.intValue());
+    this.define(new Native("remove", 2, false) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (arg0 instanceof Array && Operators.isInteger(arg1)) {
+          Array a = (Array) arg0;
+          a.array.remove((int) Operators.toLong(arg1));
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("insert", new Callable() {
-      public int arity() { return 3; }
+    this.define(new Native("insert", 3, false) {
+      public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) throws Exception {
+        if (arg0 instanceof Array && Operators.isInteger(arg2)) {
+          Array a = (Array) arg0;
+          Object element = arg1;
 
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Array && args.get(2) instanceof Double) {
-          Array a = (Array) args.get(0);
-          Object element = args.get(1);
-          Double d = (Double) args.get(2);
-
-          if (d.intValue() != d)
-            return null;
-          
-          a.array.add(d.intValue(), element);
+          a.array.add((int) Operators.toLong(arg2), element);
         }
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("split", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof String && args.get(1) instanceof String) {
-          String s = (String) args.get(0);
-          String sep = (String) args.get(1);
+    this.define(new Native("split", 2, false) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (arg0 instanceof String && arg1 instanceof String) {
+          String s = (String) arg0;
+          String sep = (String) arg1;
 
           String[] spl = s.split(sep);
           List<Object> list = new ArrayList<>();
@@ -1154,17 +795,13 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-     globals.define("join", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
-        if (args.get(0) instanceof Array && args.get(1) instanceof String) {
-          Array a = (Array) args.get(0);
-          String sep = (String) args.get(1);
+    this.define(new Native("join", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
+        if (arg0 instanceof Array && arg1 instanceof String) {
+          Array a = (Array) arg0;
+          String sep = (String) arg1;
 
           List<String> strs = new ArrayList<>();
 
@@ -1176,19 +813,15 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
     // -- Strings --
 
-    globals.define("collectStr", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("collectStr", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
           StringBuilder b = new StringBuilder();
-          Array a = (Array) args.get(0);
+          Array a = (Array) arg0;
 
           for (Object o : a.array) {
             b.append((String) o);
@@ -1200,17 +833,13 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("startsWith", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("startsWith", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          String s = (String) args.get(0);
-          String start = (String) args.get(1);
+          String s = (String) arg0;
+          String start = (String) arg1;
 
           return s.startsWith(start);
         }
@@ -1218,17 +847,13 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("endsWith", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("endsWith", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          String s = (String) args.get(0);
-          String end = (String) args.get(1);
+          String s = (String) arg0;
+          String end = (String) arg1;
 
           return s.endsWith(end);
         }
@@ -1236,17 +861,13 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("contains", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("contains", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          String s = (String) args.get(0);
-          String substr = (String) args.get(1);
+          String s = (String) arg0;
+          String substr = (String) arg1;
 
           return s.contains(substr);
         }
@@ -1254,55 +875,43 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("indexOf", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("indexOf", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          String s = (String) args.get(0);
-          String substr = (String) args.get(1);
+          String s = (String) arg0;
+          String substr = (String) arg1;
 
-          return s.indexOf(substr);
+          return (long) s.indexOf(substr);
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("lastIndexOf", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("lastIndexOf", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          String s = (String) args.get(0);
-          String substr = (String) args.get(1);
+          String s = (String) arg0;
+          String substr = (String) arg1;
 
-          return s.lastIndexOf(substr);
+          return (long) s.lastIndexOf(substr);
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("replace", new Callable() {
-      public int arity() { return 3; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("replace", 3, true) {
+      public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
 
-          String replaced = (String) args.get(1);
-          String replacer = (String) args.get(2);
+          String replaced = (String) arg1;
+          String replacer = (String) arg2;
 
           return s.replace(replaced, replacer);
         }
@@ -1310,167 +919,126 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("repeat", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("repeat", 2, true) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          String s = (String) args.get(0);
-          Double times = (Double) args.get(1);
+          String s = (String) arg0;
 
-          if (times.intValue() != times)
+          if (!Operators.isInteger(arg1))
             throw new Exception();
 
-          return s.repeat(times.intValue());
+          return s.repeat((int) Operators.toLong(arg1));
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("toLowerCase", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("toLowerCase", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return s.toLowerCase();
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("toUpperCase", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("toUpperCase", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return s.toUpperCase();
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("trim", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("trim", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return s.trim();
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("trimStart", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("trimStart", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return s.stripLeading();
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("trimEnd", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("trimEnd", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return s.stripTrailing();
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isBlank", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("isBlank", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return s.isBlank();
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("isEmpty", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("isEmpty", 1, true) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          String s = (String) args.get(0);
+          String s = (String) arg0;
           return s.isEmpty();
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
     // -- Files --
 
-    globals.define("readFile", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("readFile", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          return Files.readString(new File((String) args.get(0)).toPath());
+          return Files.readString(new File((String) arg0).toPath());
         }
         catch (Exception e) {
           return null;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("writeFile", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("writeFile", 2, false) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          try (BufferedWriter wr = new BufferedWriter(new FileWriter((String) args.get(0)));) {
-            wr.write((String) args.get(1));
+          try (BufferedWriter wr = new BufferedWriter(new FileWriter((String) arg0));) {
+            wr.write((String) arg1);
           }
         }
         catch (Exception e) {
@@ -1479,17 +1047,13 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("appendFile", new Callable() {
-      public int arity() { return 2; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("appendFile", 2, false) {
+      public Object call2(Interpreter interpreter, Object arg0, Object arg1) throws Exception {
         try {
-          try (BufferedWriter wr = new BufferedWriter(new FileWriter((String) args.get(0)));) {
-            wr.append((String) args.get(1));
+          try (BufferedWriter wr = new BufferedWriter(new FileWriter((String) arg0));) {
+            wr.append((String) arg1);
           }
         }
         catch (Exception e) {
@@ -1498,200 +1062,135 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
         return null;
       }
-
-      public String toString() { return "<native fn>"; }
     });
 
-    globals.define("existsFile", new Callable() {
-      public int arity() { return 1; }
-
-      public Object call(Interpreter interpreter, List<Object> args) throws Exception {
+    this.define(new Native("existsFile", 1, false) {
+      public Object call1(Interpreter interpreter, Object arg0) throws Exception {
         try {
-          return new File((String) args.get(0)).exists();
+          return new File((String) arg0).exists();
         }
         catch (Exception e) {
           return false;
         }
       }
-
-      public String toString() { return "<native fn>"; }
     });
   }
 
-  public void interpret(List<Stmt> statements, boolean isRepl) throws Exception {
-    this.isRepl = isRepl;
+  private void define(Native function) {
+    this.globals.define(function.name, function);
+  }
+
+  @Override
+  public void interpret(List<Stmt> statements, boolean isRepl) throws Exception {
+    this.isRepl = isRepl;
+    this.environment = this.topLevel;
+
+    this.resolver.resolve(statements);
+    this.typeInference.infer(statements, this.globals.scope(), this.resolver.topLevel());
 
     for (Stmt stmt : statements) {
+      Util.Completion completion;
+
       try {
-        this.execute(stmt);
+        completion = this.execute(stmt);
       }
       catch (Util.Break b) {
-        Util.printError("Cannot use 'break' outside a loop", stmt.pos);
+        completion = Util.Completion.Break;
       }
       catch (Util.Continue c) {
-        Util.printError("Cannot use 'continue' outside a loop", stmt.pos);
-      }
-      catch (Util.Return r) {
-        Util.printError("Cannot use 'return' outside a function", stmt.pos);
+        completion = Util.Completion.Continue;
       }
-    }
-  }
-
-  // ---
-
-  private void execute(Stmt stmt) throws Exception {
-    stmt.accept(this);
-  }
-
-  public void executeBlock(List<Stmt> statements, Environment environment) throws Exception {
-    Environment previous = this.environment;
-
-    try {
-      this.environment = new Environment(environment);
 
-      for (Stmt stmt : statements)
-        this.execute(stmt);
-    }
-    finally {
-      this.environment = previous;
+      if (completion != null)
+        outsideError(completion, stmt.pos);
     }
   }
 
-  // ---
-  
-  private boolean isTruthy(Object obj) {
-    if (obj == null) return false;
-    if (obj instanceof Boolean) return (boolean) obj;
-
-    return true;
-  }
-
-  private Object greater(Token operator, Object left, Object right) throws Exception {
-    checkNumberOperands(operator, left, right);
-    return (double) left > (double) right;
-  }
-
-  private Object greaterEqual(Token operator, Object left, Object right) throws Exception {
-    checkNumberOperands(operator, left, right);
-    return (double) left >= (double) right;
+  public static void outsideError(Util.Completion completion, Position pos) throws Exception {
+    switch (completion) {
+      case Break -> Util.printError("Cannot use 'break' outside a loop", pos);
+      case Continue -> Util.printError("Cannot use 'continue' outside a loop", pos);
+      case Return -> Util.printError("Cannot use 'return' outside a function", pos);
+    }
   }
 
-  private Object less(Token operator, Object left, Object right) throws Exception {
-    checkNumberOperands(operator, left, right);
-    return (double) left < (double) right;
+  public boolean isRepl() {
+    return this.isRepl;
   }
 
-  private Object lessEqual(Token operator, Object left, Object right) throws Exception {
-    checkNumberOperands(operator, left, right);
-    return (double) left <= (double) right;
-  }
+  // ---
 
-  private Object plus(Token operator, Object left, Object right) throws Exception {
-    if (left instanceof Double && right instanceof Double)
-      return (double) left + (double) right;
-      
-    return Util.stringify(left) + Util.stringify(right);
-  }
+  private Util.Completion execute(Stmt stmt) throws Exception {
+    if (SWITCH_DISPATCH)
+      return this.dispatch(stmt);
 
-  private Object minus(Token operator, Object left, Object right) throws Exception {
-    checkNumberOperands(operator, left, right);
-    return (double) left - (double) right;
+    return stmt.accept(this);
   }
 
-  private Object times(Token operator, Object left, Object right) throws Exception {
-    checkNumberOperands(operator, left, right);
-    return (double) left * (double) right;
+  // the visitor methods called directly on the node's kind tag, one switch instead of the two virtual calls of accept
+  private Util.Completion dispatch(Stmt stmt) throws Exception {
+    return switch (stmt.kind) {
+      case Stmt.BLOCK -> this.visitBlockStmt((Stmt.BlockStmt) stmt);
+      case Stmt.BREAK -> this.visitBreakStmt((Stmt.BreakStmt) stmt);
+      case Stmt.CONTINUE -> this.visitContinueStmt((Stmt.ContinueStmt) stmt);
+      case Stmt.FN -> this.visitFnStmt((Stmt.FnStmt) stmt);
+      case Stmt.EXPR -> this.visitExprStmt((Stmt.ExprStmt) stmt);
+      case Stmt.IF -> this.visitIfStmt((Stmt.IfStmt) stmt);
+      case Stmt.LET -> this.visitLetStmt((Stmt.LetStmt) stmt);
+      case Stmt.LOOP -> this.visitLoopStmt((Stmt.LoopStmt) stmt);
+      case Stmt.RETURN -> this.visitReturnStmt((Stmt.ReturnStmt) stmt);
+      case Stmt.WHILE -> this.visitWhileStmt((Stmt.WhileStmt) stmt);
+      default -> throw new IllegalStateException("Unknown statement kind " + stmt.kind);
+    };
   }
 
-  private Object divide(Token operator, Object left, Object right, Expr leftExpr) throws Exception {
-    checkNumberOperands(operator, left, right);
-
-    if ((double) right == 0.0)
-      Util.printError("Cannot divide by zero | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), leftExpr.pos);
-
-    return (double) left / (double) right;
-  }
+  public Util.Completion executeBlock(List<Stmt> statements, Environment environment) throws Exception {
+    Environment previous = this.environment;
 
-  private Object modulo(Token operator, Object left, Object right) throws Exception {
-    checkNumberOperands(operator, left, right);
-    return (double) left % (double) right;
-  }
+    try {
+      this.environment = environment;
 
-  private Object lShift(Token operator, Object left, Object right, Expr leftExpr) throws Exception {
-    checkNumberOperands(operator, left, right);
+      for (Stmt stmt : statements) {
+        Util.Completion completion = this.execute(stmt);
 
-    int leftInt = ((Double) left).intValue();
-    int rightInt = ((Double) right).intValue();
+        if (completion != null)
+          return completion;
+      }
 
-    if ((double) leftInt != (double) left || (double) rightInt != (double) right) {
-      Util.printError("Can only bit shift integers | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), leftExpr.pos);
+      return null;
     }
-
-    return (double) (leftInt << rightInt);
-  }
-
-  private Object rShift(Token operator, Object left, Object right, Expr leftExpr) throws Exception {
-    checkNumberOperands(operator, left, right);
-
-    int leftInt = ((Double) left).intValue();
-    int rightInt = ((Double) right).intValue();
-
-    if ((double) leftInt != (double) left || (double) rightInt != (double) right) {
-      Util.printError("Can only bit shift integers | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), leftExpr.pos);
+    finally {
+      this.environment = previous;
     }
-
-    return (double) (leftInt >> rightInt);
-  }
-
-  private Object and(Object left, Object right) throws Exception {
-    return this.isTruthy(left) && this.isTruthy(right);
-  }
-
-  private Object or(Object left, Object right) throws Exception {
-    return this.isTruthy(left) || this.isTruthy(right);
-  }
-
-  private Object notEqual(Object left, Object right) throws Exception {
-    return !this.isEqual(left, right);
-  }
-
-  private boolean isEqual(Object a, Object b) {
-    if (a == null && b == null) return true;
-    if (a == null) return false;
-
-    return a.equals(b);
-  }
-
-  private static void checkNumberOperand(Token operator, Object operand) throws Exception {
-    if (operand instanceof Double) return;
-    Util.printError("Operand must be a number | value: " + Util.stringify(operand), operator.pos());
   }
 
-  private static void checkNumberOperands(Token operator, Object left, Object right) throws Exception {
-    if (left instanceof Double && right instanceof Double) return;
-    Util.printError("Operands must be numbers | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), operator.pos());
+  private void backEdge() {
+    if (this.profile != null)
+      this.profile.backEdges++;
   }
 
   // ---
-
+  
   @Override
-  public Void visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
-    this.executeBlock(stmt.statements, this.environment);
-    return null;
+  public Util.Completion visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
+    if (!stmt.hasFrame)
+      return this.executeBlock(stmt.statements, this.environment);
+
+    return this.executeBlock(stmt.statements, new Environment(stmt.scope, this.environment));
   }
 
   @Override
-  public Void visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
-    throw new Util.Break();
+  public Util.Completion visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
+    return Util.Completion.Break;
   }
 
   @Override
-  public Void visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
-    throw new Util.Continue();
+  public Util.Completion visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
+    return Util.Completion.Continue;
   }
 
   @Override
-  public Void visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
+  public Util.Completion visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
     if (this.isRepl) {
       System.out.println("< " + Util.stringify(this.evaluate(stmt.expr)));
       return null;
@@ -1702,52 +1201,57 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
   }
 
   @Override
-  public Void visitFnStmt(Stmt.FnStmt stmt) throws Exception {
+  public Util.Completion visitFnStmt(Stmt.FnStmt stmt) throws Exception {
     Function fn = new Function(stmt, this.environment);
-    this.environment.define(stmt.name.lexeme(), fn);
+    this.environment.define(stmt.slot, fn);
 
     return null;
   }
 
   @Override
-  public Void visitIfStmt(Stmt.IfStmt stmt) throws Exception {
-    if (this.isTruthy(this.evaluate(stmt.condition)))
-      this.execute(stmt.thenBranch);
+  public Util.Completion visitIfStmt(Stmt.IfStmt stmt) throws Exception {
+    if (stmt.profile.record(this.condition(stmt.condition)))
+      return this.execute(stmt.thenBranch);
     else if (stmt.elseBranch != null)
-      this.execute(stmt.elseBranch);
+      return this.execute(stmt.elseBranch);
     
     return null;
   }
 
   @Override
-  public Void visitLetStmt(Stmt.LetStmt stmt) throws Exception {
+  public Util.Completion visitLetStmt(Stmt.LetStmt stmt) throws Exception {
     Object value = this.evaluate(stmt.value);
 
-    if (this.environment.containsVariable(stmt.name.lexeme()) && !this.isRepl)
+    if (this.environment.isDefined(stmt.slot) && !this.isRepl)
       Util.printError("Cannot redeclare '" + stmt.name.lexeme() + "' in the same scope", stmt.name.pos());
 
-    this.environment.define(stmt.name.lexeme(), value);
+    this.environment.define(stmt.slot, value);
     return null;
   }
 
   @Override
-  public Void visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
+  public Util.Completion visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
     if (stmt.variable == null || stmt.iterable == null) {
+      Environment frame = this.iterationFrame(stmt.block);
+
       while (true) {
-        try {
-          this.execute(stmt.block);
-        }
-        catch (Util.Break b) {
+        this.backEdge();
+
+        Util.Completion completion = this.loopBody(stmt.block, frame);
+
+        if (completion == Util.Completion.Break)
           break;
-        }
-        catch (Util.Continue c) {
-          continue;
-        }
+
+        if (completion == Util.Completion.Return)
+          return completion;
       }
 
       return null;
     }
 
+    if (stmt.iterable instanceof Expr.RangeExpr)
+      return this.rangeLoop(stmt, (Expr.RangeExpr) stmt.iterable);
+
     Object iterable = this.evaluate(stmt.iterable);
 
     if (!(iterable instanceof Iterable))
@@ -1756,58 +1260,202 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
     Iterable it = (Iterable) iterable;
 
     Environment previous = this.environment;
-    this.environment = new Environment(previous);
+    this.environment = new Environment(stmt.scope, previous);
 
-    while (it.hasNext()) {
-      try {
-        this.environment.define(stmt.variable.lexeme(), it.next());
-        this.execute(stmt.block);
+    Environment frame = this.iterationFrame(stmt.block);
+
+    try {
+      while (it.hasNext()) {
+        this.backEdge();
+
+        this.environment.define(0, it.next());
+        Util.Completion completion = this.loopBody(stmt.block, frame);
+
+        if (completion == Util.Completion.Break)
+          break;
+
+        if (completion == Util.Completion.Return)
+          return completion;
       }
-      catch (Util.Break b) {
-        break;
+    }
+    finally {
+      this.environment = previous;
+    }
+
+    return null;
+  }
+
+  // a literal range is iterated without creating it, with the same values Range would yield
+  private Util.Completion rangeLoop(Stmt.LoopStmt stmt, Expr.RangeExpr range) throws Exception {
+    Object startValue = this.evaluate(range.start);
+    Object endValue = this.evaluate(range.end);
+    Object stepValue = range.step == null
+                        ? 1L
+                        : this.evaluate(range.step);
+
+    Operators.checkRange(range.pos, startValue, endValue, stepValue);
+
+    double start = Operators.toDouble(startValue);
+    double end = Operators.toDouble(endValue);
+    double step = Operators.toDouble(stepValue);
+    boolean isIntegral = Operators.isIntegral(startValue, stepValue);
+    long count = Range.count(start, end, step);
+
+    Environment previous = this.environment;
+    this.environment = new Environment(stmt.scope, previous);
+
+    Environment frame = this.iterationFrame(stmt.block);
+
+    // a range of long integers is stepped exactly; the count is unsigned
+    long integers = Range.integers(startValue, endValue, stepValue);
+
+    try {
+      if (integers != -1) {
+        long first = (long) startValue;
+        long increment = (long) stepValue;
+
+        for (long i = 0; i != integers; i++) {
+          this.backEdge();
+
+          this.environment.define(0, first + i * increment);
+          Util.Completion completion = this.loopBody(stmt.block, frame);
+
+          if (completion == Util.Completion.Break)
+            break;
+
+          if (completion == Util.Completion.Return)
+            return completion;
+        }
+
+        return null;
       }
-      catch (Util.Continue c) {
-        continue;
+
+      if (count >= 0) {
+        for (long i = 0; i < count; i++) {
+          this.backEdge();
+
+          this.environment.define(0, Range.value(start + i * step, isIntegral));
+          Util.Completion completion = this.loopBody(stmt.block, frame);
+
+          if (completion == Util.Completion.Break)
+            break;
+
+          if (completion == Util.Completion.Return)
+            return completion;
+        }
+
+        return null;
+      }
+
+      for (double counter = start - step; counter + step < end; counter += step) {
+        this.backEdge();
+
+        this.environment.define(0, Range.value(counter + step, isIntegral));
+        Util.Completion completion = this.loopBody(stmt.block, frame);
+
+        if (completion == Util.Completion.Break)
+          break;
+
+        if (completion == Util.Completion.Return)
+          return completion;
       }
     }
+    finally {
+      this.environment = previous;
+    }
 
-    this.environment = previous;
     return null;
   }
 
   @Override
-  public Void visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+  public Util.Completion visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+    if (stmt.isTailCall) {
+      this.returnValue = this.tailCall((Expr.CallExpr) stmt.value);
+      return Util.Completion.Return;
+    }
+
     Object value = null;
 
     if (stmt.value != null)
       value = this.evaluate(stmt.value);
 
-    throw new Util.Return(value);
+    this.returnValue = value;
+    return Util.Completion.Return;
   }
 
   @Override
-  public Void visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
-    while (this.isTruthy(this.evaluate(stmt.condition))){
-      try {
-        this.execute(stmt.block);
-      }
-      catch (Util.Break b) {
+  public Util.Completion visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
+    Environment frame = this.iterationFrame(stmt.block);
+
+    while (this.condition(stmt.condition)) {
+      this.backEdge();
+
+      Util.Completion completion = this.loopBody(stmt.block, frame);
+
+      if (completion == Util.Completion.Break)
         break;
-      }
-      catch (Util.Continue c) {
-        continue;
-      }
+
+      if (completion == Util.Completion.Return)
+        return completion;
     }
 
     return null;
   }
 
+  // a body that declares variables no closure or reference can capture runs every iteration in one frame, cleared
+  private Environment iterationFrame(Stmt.BlockStmt block) {
+    if (!block.hasFrame || block.scope.captured)
+      return null;
+
+    return new Environment(block.scope, this.environment);
+  }
+
+  // a 'break' or 'continue' inside a called function still reaches this loop, as an exception
+  private Util.Completion loopBody(Stmt.BlockStmt block, Environment frame) throws Exception {
+    try {
+      if (frame == null)
+        return this.execute(block);
+
+      frame.clear();
+      return this.executeBlock(block.statements, frame);
+    }
+    catch (Util.Break b) {
+      return Util.Completion.Break;
+    }
+    catch (Util.Continue c) {
+      return Util.Completion.Continue;
+    }
+  }
+
   // ---
 
   private Object evaluate(Expr expr) throws Exception {
+    if (SWITCH_DISPATCH)
+      return this.dispatch(expr);
+
     return expr.accept(this);
   }
 
+  private Object dispatch(Expr expr) throws Exception {
+    return switch (expr.kind) {
+      case Expr.ARRAY -> this.visitArrayExpr((Expr.ArrayExpr) expr);
+      case Expr.ASSIGN -> this.visitAssignExpr((Expr.AssignExpr) expr);
+      case Expr.ASSIGN_INDEX -> this.visitAssignIndexExpr((Expr.AssignIndexExpr) expr);
+      case Expr.BINARY -> this.visitBinaryExpr((Expr.BinaryExpr) expr);
+      case Expr.CALL -> this.visitCallExpr((Expr.CallExpr) expr);
+      case Expr.FN -> this.visitFnExpr((Expr.FnExpr) expr);
+      case Expr.GROUPING -> this.visitGroupingExpr((Expr.GroupingExpr) expr);
+      case Expr.INDEX -> this.visitIndexExpr((Expr.ArrayIndexExpr) expr);
+      case Expr.LITERAL -> this.visitLiteralExpr((Expr.LiteralExpr) expr);
+      case Expr.LOGICAL -> this.visitLogicalExpr((Expr.LogicalExpr) expr);
+      case Expr.RANGE -> this.visitRangeExpr((Expr.RangeExpr) expr);
+      case Expr.TERNARY -> this.visitTernaryExpr((Expr.TernaryExpr) expr);
+      case Expr.UNARY -> this.visitUnaryExpr((Expr.UnaryExpr) expr);
+      case Expr.VARIABLE -> this.visitVariableExpr((Expr.IdentifierExpr) expr);
+      default -> throw new IllegalStateException("Unknown expression kind " + expr.kind);
+    };
+  }
+
   @Override
   public Object visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
     List<Object> array = new ArrayList<>();
@@ -1820,153 +1468,686 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
   @Override
   public Object visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+    if (expr.fused == Expr.Fused.Increment && !expr.isNative) {
+      Object value = this.operand(expr.incremented);
+
+      if (value instanceof Long && expr.step instanceof Long) {
+        Object result = Operators.add((long) value, (long) expr.step);
+        this.assign(expr, result);
+
+        return result;
+      }
+
+      if (value instanceof Double) {
+        Double result = (double) value + Operators.toDouble(expr.step);
+        this.assign(expr, result);
+
+        return result;
+      }
+    }
+
     Object value = this.evaluate(expr.value);
 
-    if (this.globals.containsVariable(expr.name.lexeme())) {
+    if (expr.isNative) {
       Util.printError("Cannot reassign native function '" + expr.name.lexeme() + "'", expr.name.pos());
     }
 
     switch (expr.operator.type()) {
-      case PlusEqual, DoublePlus -> value = this.plus(expr.operator, this.evaluate(expr.lValue), value);
-      case MinusEqual, DoubleMinus -> value = this.minus(expr.operator, this.evaluate(expr.lValue), value);
-      case StarEqual -> value = this.times(expr.operator, this.evaluate(expr.lValue), value);
-      case SlashEqual -> value = this.divide(expr.operator, this.evaluate(expr.lValue), value, expr.lValue);
-      case ModuloEqual -> value = this.modulo(expr.operator, this.evaluate(expr.lValue), value);
+      case PlusEqual, DoublePlus -> value = Operators.plus(expr.operator.pos(), this.evaluate(expr.lValue), value);
+      case MinusEqual, DoubleMinus -> value = Operators.minus(expr.operator.pos(), this.evaluate(expr.lValue), value);
+      case StarEqual -> value = Operators.times(expr.operator.pos(), this.evaluate(expr.lValue), value);
+      case SlashEqual -> value = Operators.divide(expr.operator.pos(), this.evaluate(expr.lValue), value, expr.lValue.pos);
+      case ModuloEqual -> value = Operators.modulo(expr.operator.pos(), this.evaluate(expr.lValue), value);
 
-      case LShiftEqual -> value = this.lShift(expr.operator, this.evaluate(expr.lValue), value, expr.lValue);
-      case RShiftEqual -> value = this.rShift(expr.operator, this.evaluate(expr.lValue), value, expr.lValue);
+      case LShiftEqual -> value = Operators.lShift(expr.operator.pos(), this.evaluate(expr.lValue), value, expr.lValue.pos);
+      case RShiftEqual -> value = Operators.rShift(expr.operator.pos(), this.evaluate(expr.lValue), value, expr.lValue.pos);
 
       default -> {}
     }
 
     if (expr.isRef) {
-      Object v = this.environment.get(expr.name);
+      Object v = expr.isGlobal ? this.topLevel.get(0, expr.slot, expr.name) : this.environment.get(expr.depth, expr.slot, expr.name);
 
       if (!(v instanceof Ref))
         Util.printError("Can only dereference assign reference objects, got '" + Util.stringify(v) + "'", expr.name.pos());
       
       Ref r = (Ref) v;
-      r.env.assign(r.name, value);
+      r.setReferenced(value);
     }
     else
-      this.environment.assign(expr.name, value);
+      this.assign(expr, value);
 
     return value;
   }
 
+  // globals are stored in the top-level frame directly, without walking up to it
+  private void assign(Expr.AssignExpr expr, Object value) throws Exception {
+    if (expr.isGlobal)
+      this.topLevel.assign(0, expr.slot, expr.name, value);
+    else
+      this.environment.assign(expr.depth, expr.slot, expr.name, value);
+  }
+
   @Override
   public Object visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
     Object value = this.evaluate(expr.value);
-    Object index = this.evaluate(expr.index);
-
-    if (!(index instanceof Double))
-      Util.printError("Arrays can only be indexed by integers, got '" + Util.stringify(index) + "'", expr.pos);
-    
-    Double ind = (Double) index;
+    int index = Operators.arrayIndex(expr.pos, this.evaluate(expr.index));
     
-    if (ind.intValue() != ind)
-      Util.printError("Arrays can only be indexed by integers, got '" + Util.stringify(index) + "'", expr.pos);
-    
-    this.environment.assignArray(expr.name, ind.intValue(), value);
+    if (expr.isGlobal)
+      this.topLevel.assignArray(0, expr.slot, expr.name, index, value);
+    else
+      this.environment.assignArray(expr.depth, expr.slot, expr.name, index, value);
+
     return value;
   }
 
   @Override
   public Object visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+    if (expr.fused == Expr.Fused.Compare)
+      return this.compare(expr);
+
+    if (expr.specialization == Expr.Specialization.Proven)
+      return this.provenBinary(expr);
+
+    if (expr.specialization == Expr.Specialization.Number)
+      return this.numberBinary(expr);
+
     Object left = this.evaluate(expr.left);
     Object right = this.evaluate(expr.right);
 
+    switch (expr.specialization) {
+      case Integer:
+        if (left instanceof Long && right instanceof Long)
+          return this.integerBinary(expr, (long) left, (long) right);
+
+        expr.specialization = Expr.Specialization.Generic;
+        break;
+
+      case String:
+        if (left instanceof String && right instanceof String)
+          return (String) left + (String) right;
+
+        expr.specialization = Expr.Specialization.Generic;
+        break;
+
+      case Uninitialized:
+        expr.specialization = this.specializeBinary(expr, left, right);
+        break;
+
+      default:
+        break;
+    }
+
+    return this.binary(expr, left, right);
+  }
+
+  private Object binary(Expr.BinaryExpr expr, Object left, Object right) throws Exception {
     switch (expr.operator.type()) {
       case DoubleEqual:
-        return this.isEqual(left, right);
+        return Operators.isEqual(left, right);
     
       case BangEqual:
-        return this.notEqual(left, right);
-
-      // ---
-
-      case Ampersand:
-        return this.and(left, right);
-
-      case VerticalBar:
-        return this.or(left, right);
+        return Operators.notEqual(left, right);
 
       // ---
 
       case Greater:
-        return this.greater(expr.operator, left, right);
+        return Operators.greater(expr.operator.pos(), left, right);
 
       case GreaterEqual:
-        return this.greaterEqual(expr.operator, left, right);
+        return Operators.greaterEqual(expr.operator.pos(), left, right);
 
       case Less:
-        return this.less(expr.operator, left, right);
+        return Operators.less(expr.operator.pos(), left, right);
 
       case LessEqual:
-        return this.lessEqual(expr.operator, left, right);
+        return Operators.lessEqual(expr.operator.pos(), left, right);
 
       // ---
 
       case Plus:
-        return this.plus(expr.operator, left, right);
+        return Operators.plus(expr.operator.pos(), left, right);
 
       case Minus:
-        return this.minus(expr.operator, left, right);
+        return Operators.minus(expr.operator.pos(), left, right);
 
       case Star:
-        return this.times(expr.operator, left, right);
+        return Operators.times(expr.operator.pos(), left, right);
 
       case Slash:
-        return this.divide(expr.operator, left, right, expr.left);
+        return Operators.divide(expr.operator.pos(), left, right, expr.left.pos);
 
       case Modulo:
-        return this.modulo(expr.operator, left, right);
+        return Operators.modulo(expr.operator.pos(), left, right);
 
       case LShift:
-        return this.lShift(expr.operator, left, right, expr.left);
+        return Operators.lShift(expr.operator.pos(), left, right, expr.left.pos);
 
       case RShift:
-        return this.rShift(expr.operator, left, right, expr.left);
+        return Operators.rShift(expr.operator.pos(), left, right, expr.left.pos);
+
+      case LandKw:
+        return Operators.bitAnd(expr.operator.pos(), left, right, expr.left.pos);
+
+      case LorKw:
+        return Operators.bitOr(expr.operator.pos(), left, right, expr.left.pos);
+
+      case LxorKw:
+        return Operators.bitXor(expr.operator.pos(), left, right, expr.left.pos);
 
       // ---
 
       case InKw:
-        if (!(right instanceof Array))
-          Util.printError("Right side of an 'in' expression must be an array, got '" + Util.stringify(right) + "'", expr.left.pos);
-        
-        Array a = (Array) right;
+        return Operators.in(left, right, expr.left.pos);
+
+      default:
+        Util.printError("Invalid binary operator: '" + expr.operator.lexeme() + "'", expr.left.pos);
+        return null;
+    }
+  }
+
+  private Expr.Specialization specializeBinary(Expr.BinaryExpr expr, Object left, Object right) {
+    TokenType operator = expr.operator.type();
+
+    switch (operator) {
+      case Plus, Minus, Star, Slash, Modulo, Greater, GreaterEqual, Less, LessEqual:
+        if (left instanceof Double && right instanceof Double)
+          return Expr.Specialization.Number;
+
+        // an integer literal next to a double is computed with it as a double
+        if (left instanceof Double && isIntegerLiteral(expr.right) || right instanceof Double && isIntegerLiteral(expr.left))
+          return Expr.Specialization.Number;
+
+        if (left instanceof Long && right instanceof Long)
+          return Expr.Specialization.Integer;
+
+        if (operator == TokenType.Plus && left instanceof String && right instanceof String)
+          return Expr.Specialization.String;
+
+        return Expr.Specialization.Generic;
 
-        for (Object o : a.array)
-          if (left.equals(o))
-            return true;
+      case LandKw, LorKw, LxorKw:
+        if (left instanceof Long && right instanceof Long)
+          return Expr.Specialization.Integer;
+
+        return Expr.Specialization.Generic;
+
+      default:
+        return Expr.Specialization.Generic;
+    }
+  }
+
+  private static boolean isIntegerLiteral(Expr expr) {
+    return expr instanceof Expr.LiteralExpr && ((Expr.LiteralExpr) expr).value instanceof Long;
+  }
 
+  // the operators on two integers, which only leave longs when they overflow or divide inexactly
+  private Object integerBinary(Expr.BinaryExpr expr, long left, long right) throws Exception {
+    switch (expr.operator.type()) {
+      case Plus:
+        return Operators.add(left, right);
+
+      case Minus:
+        return Operators.subtract(left, right);
+
+      case Star:
+        return Operators.multiply(left, right);
+
+      case Modulo:
+        return Operators.remainder(left, right);
+
+      case Greater, GreaterEqual, Less, LessEqual:
+        return this.compare(expr.operator.type(), left, right);
+
+      case LandKw:
+        return left & right;
+
+      case LorKw:
+        return left | right;
+
+      case LxorKw:
+        return left ^ right;
+
+      default:
+        return this.binary(expr, left, right);
+    }
+  }
+
+  // --- Superinstructions
+
+  // the operands of fused nodes are variables or number literals, read without visiting them
+  private Object operand(Expr expr) throws Exception {
+    if (expr instanceof Expr.IdentifierExpr)
+      return this.variable((Expr.IdentifierExpr) expr);
+
+    return ((Expr.LiteralExpr) expr).value;
+  }
+
+  private boolean condition(Expr condition) throws Exception {
+    if (condition.fused == Expr.Fused.Compare)
+      return this.compare((Expr.BinaryExpr) condition);
+
+    return Operators.isTruthy(this.evaluate(condition));
+  }
+
+  private boolean compare(Expr.BinaryExpr expr) throws Exception {
+    Object left = this.operand(expr.left);
+    Object right = this.operand(expr.right);
+
+    if (left instanceof Long && right instanceof Long)
+      return this.compare(expr.operator.type(), (long) left, (long) right);
+
+    if (!(left instanceof Double && right instanceof Double))
+      return (boolean) this.binary(expr, left, right);
+
+    double l = (double) left;
+    double r = (double) right;
+
+    switch (expr.operator.type()) {
+      case Greater:
+        return l > r;
+
+      case GreaterEqual:
+        return l >= r;
+
+      case Less:
+        return l < r;
+
+      default:
+        return l <= r;
+    }
+  }
+
+  private boolean compare(TokenType operator, long left, long right) {
+    switch (operator) {
+      case Greater:
+        return left > right;
+
+      case GreaterEqual:
+        return left >= right;
+
+      case Less:
+        return left < right;
+
+      default:
+        return left <= right;
+    }
+  }
+
+  private Object variableIndex(Expr.ArrayIndexExpr expr) throws Exception {
+    Object array = this.operand(expr.array);
+    Object index = this.operand(expr.index);
+
+    // out of bounds and non-integer indexes report their error through the generic path
+    if (index instanceof Long) {
+      long ind = (long) index;
+
+      if (array instanceof Array) {
+        List<Object> items = ((Array) array).array;
+
+        if (ind >= 0 && ind < items.size())
+          return items.get((int) ind);
+      }
+      else if (array instanceof String) {
+        String s = (String) array;
+
+        if (ind >= 0 && ind < s.length())
+          return String.valueOf(s.charAt((int) ind));
+      }
+    }
+    else if (index instanceof Double) {
+      double ind = (double) index;
+
+      if (array instanceof Array) {
+        List<Object> items = ((Array) array).array;
+
+        if ((int) ind == ind && ind >= 0 && ind < items.size())
+          return items.get((int) ind);
+      }
+      else if (array instanceof String) {
+        String s = (String) array;
+
+        if ((int) ind == ind && ind >= 0 && ind < s.length())
+          return String.valueOf(s.charAt((int) ind));
+      }
+    }
+
+    return Operators.index(expr.pos, array, index);
+  }
+
+  // --- Numbers
+
+  // thrown by evaluateNumber when the value isn't a number after all, with the value computed instead
+  @SuppressWarnings("serial")
+  private static class NotNumber extends Exception {
+    Object value;
+
+    NotNumber() {
+      super(null, null, false, false);
+    }
+  }
+
+  private final NotNumber notNumber = new NotNumber();
+
+  private NotNumber notNumber(Object value) {
+    this.notNumber.value = value;
+    return this.notNumber;
+  }
+
+  // the arithmetic of nodes specialized for numbers is computed on primitives; only the final result is boxed
+  private double evaluateNumber(Expr expr) throws Exception {
+    if (expr.type == Expr.Type.Number)
+      return this.provenNumber(expr);
+
+    if (expr instanceof Expr.BinaryExpr) {
+      Expr.BinaryExpr binary = (Expr.BinaryExpr) expr;
+
+      if (binary.specialization == Expr.Specialization.Number && isArithmetic(binary.operator.type()))
+        return this.numberArithmetic(binary);
+    }
+    else if (expr instanceof Expr.UnaryExpr && ((Expr.UnaryExpr) expr).specialization == Expr.Specialization.Number) {
+      Expr.UnaryExpr unary = (Expr.UnaryExpr) expr;
+
+      try {
+        return -this.evaluateNumber(unary.operand);
+      }
+      catch (NotNumber n) {
+        unary.specialization = Expr.Specialization.Generic;
+        return this.toNumber(this.unary(unary, n.value));
+      }
+    }
+
+    // an integer literal only reaches here next to a double
+    if (expr instanceof Expr.LiteralExpr && ((Expr.LiteralExpr) expr).value instanceof Long)
+      return (long) ((Expr.LiteralExpr) expr).value;
+
+    return this.toNumber(this.evaluate(expr));
+  }
+
+  private double toNumber(Object value) throws NotNumber {
+    if (value instanceof Double)
+      return (double) value;
+
+    throw this.notNumber(value);
+  }
+
+  private static boolean isArithmetic(TokenType operator) {
+    switch (operator) {
+      case Plus, Minus, Star, Slash, Modulo:
+        return true;
+
+      default:
         return false;
+    }
+  }
+
+  // --- Proven types
+
+  // nodes whose operand types TypeInference proved skip both the checks and the speculation;
+  // a proven node of type Number is arithmetic, or a negation, and an Integer one joins doubles as a double
+  private double provenNumber(Expr expr) throws Exception {
+    if (expr.type == Expr.Type.Integer)
+      return (long) this.evaluate(expr);
+
+    if (expr instanceof Expr.BinaryExpr) {
+      if (((Expr.BinaryExpr) expr).specialization == Expr.Specialization.Proven)
+        return this.provenArithmetic((Expr.BinaryExpr) expr);
+    }
+    else if (expr instanceof Expr.UnaryExpr) {
+      if (((Expr.UnaryExpr) expr).specialization == Expr.Specialization.Proven)
+        return -this.provenNumber(((Expr.UnaryExpr) expr).operand);
+    }
+
+    return (Double) this.evaluate(expr);
+  }
+
+  private Object provenBinary(Expr.BinaryExpr expr) throws Exception {
+    if (expr.left.type == Expr.Type.String)
+      return (String) this.evaluate(expr.left) + (String) this.evaluate(expr.right);
+
+    if (expr.left.type == Expr.Type.Integer && expr.right.type == Expr.Type.Integer)
+      return this.provenInteger(expr);
+
+    if (isArithmetic(expr.operator.type()))
+      return this.provenArithmetic(expr);
+
+    double left = this.provenNumber(expr.left);
+    double right = this.provenNumber(expr.right);
+
+    switch (expr.operator.type()) {
+      case Greater:
+        return left > right;
+
+      case GreaterEqual:
+        return left >= right;
+
+      case Less:
+        return left < right;
 
       default:
-        Util.printError("Invalid binary operator: '" + expr.operator.lexeme() + "'", expr.left.pos);
-        return null;
+        return left <= right;
+    }
+  }
+
+  // only comparisons and bitwise operators are proven on two integers, as arithmetic may overflow them
+  private Object provenInteger(Expr.BinaryExpr expr) throws Exception {
+    long left = (long) this.evaluate(expr.left);
+    long right = (long) this.evaluate(expr.right);
+
+    switch (expr.operator.type()) {
+      case LandKw:
+        return left & right;
+
+      case LorKw:
+        return left | right;
+
+      case LxorKw:
+        return left ^ right;
+
+      default:
+        return this.compare(expr.operator.type(), left, right);
+    }
+  }
+
+  private double provenArithmetic(Expr.BinaryExpr expr) throws Exception {
+    double left = this.provenNumber(expr.left);
+    double right = this.provenNumber(expr.right);
+
+    switch (expr.operator.type()) {
+      case Plus:
+        return left + right;
+
+      case Minus:
+        return left - right;
+
+      case Star:
+        return left * right;
+
+      case Slash:
+        if (right == 0.0)
+          Operators.divide(expr.operator.pos(), left, right, expr.left.pos);
+
+        return left / right;
+
+      default:
+        return Operators.remainder(left, right);
+    }
+  }
+
+  // ---
+
+  private Object numberBinary(Expr.BinaryExpr expr) throws Exception {
+    if (isArithmetic(expr.operator.type())) {
+      try {
+        return this.numberArithmetic(expr);
+      }
+      catch (NotNumber n) {
+        return n.value;
+      }
+    }
+
+    double left, right;
+
+    try {
+      left = this.evaluateNumber(expr.left);
+    }
+    catch (NotNumber n) {
+      expr.specialization = Expr.Specialization.Generic;
+      return this.binary(expr, n.value, this.evaluate(expr.right));
+    }
+
+    try {
+      right = this.evaluateNumber(expr.right);
+    }
+    catch (NotNumber n) {
+      expr.specialization = Expr.Specialization.Generic;
+      return this.binary(expr, left, n.value);
+    }
+
+    switch (expr.operator.type()) {
+      case Greater:
+        return left > right;
+
+      case GreaterEqual:
+        return left >= right;
+
+      case Less:
+        return left < right;
+
+      default:
+        return left <= right;
+    }
+  }
+
+  private double numberArithmetic(Expr.BinaryExpr expr) throws Exception {
+    double left, right;
+
+    // an operand that isn't a number makes the node generic, and its generic result is passed up
+    try {
+      left = this.evaluateNumber(expr.left);
+    }
+    catch (NotNumber n) {
+      expr.specialization = Expr.Specialization.Generic;
+      return this.toNumber(this.binary(expr, n.value, this.evaluate(expr.right)));
+    }
+
+    try {
+      right = this.evaluateNumber(expr.right);
+    }
+    catch (NotNumber n) {
+      expr.specialization = Expr.Specialization.Generic;
+      return this.toNumber(this.binary(expr, left, n.value));
+    }
+
+    switch (expr.operator.type()) {
+      case Plus:
+        return left + right;
+
+      case Minus:
+        return left - right;
+
+      case Star:
+        return left * right;
+
+      case Slash:
+        if (right == 0.0)
+          Operators.divide(expr.operator.pos(), left, right, expr.left.pos);
+
+        return left / right;
+
+      default:
+        return Operators.remainder(left, right);
     }
   }
 
   @Override
   public Object visitCallExpr(Expr.CallExpr expr) throws Exception {
-    Object callee = this.evaluate(expr.callee);
+    List<Expr> argExprs = expr.args;
+
+    if (expr.intrinsic != null)
+      return this.intrinsic(expr.intrinsic, argExprs);
+
+    if (expr.fused == Expr.Fused.Println) {
+      System.out.println(Util.stringify(this.evaluate(argExprs.get(0))));
+      return null;
+    }
+
+    switch (argExprs.size()) {
+      case 0:
+        return expr.cache.callable(this.evaluate(expr.callee)).call0(this);
+
+      case 1: {
+        Object callee = this.evaluate(expr.callee);
+        Object arg0 = this.evaluate(argExprs.get(0));
 
+        return expr.cache.callable(callee).call1(this, arg0);
+      }
+
+      case 2: {
+        Object callee = this.evaluate(expr.callee);
+        Object arg0 = this.evaluate(argExprs.get(0));
+        Object arg1 = this.evaluate(argExprs.get(1));
+
+        return expr.cache.callable(callee).call2(this, arg0, arg1);
+      }
+
+      case 3: {
+        Object callee = this.evaluate(expr.callee);
+        Object arg0 = this.evaluate(argExprs.get(0));
+        Object arg1 = this.evaluate(argExprs.get(1));
+        Object arg2 = this.evaluate(argExprs.get(2));
+
+        return expr.cache.callable(callee).call3(this, arg0, arg1, arg2);
+      }
+
+      default: {
+        List<Object> args = new ArrayList<>();
+        Callable function = this.callee(expr, args);
+
+        return function.call(this, args);
+      }
+    }
+  }
+
+  private Object intrinsic(Intrinsic intrinsic, List<Expr> args) throws Exception {
+    Object arg0 = this.evaluate(args.get(0));
+
+    switch (intrinsic) {
+      case Sqrt: return Intrinsic.sqrt(arg0);
+      case Abs: return Intrinsic.abs(arg0);
+      case Floor: return Intrinsic.floor(arg0);
+      case Ceil: return Intrinsic.ceil(arg0);
+      case Min: return Intrinsic.min(arg0, this.evaluate(args.get(1)));
+      case Max: return Intrinsic.max(arg0, this.evaluate(args.get(1)));
+      default: return Intrinsic.len(arg0);
+    }
+  }
+
+  // a call to a Quick function is handed back to the function being returned from, the rest are made here
+  private Object tailCall(Expr.CallExpr expr) throws Exception {
     List<Object> args = new ArrayList<>();
-    
+    Callable function = this.callee(expr, args);
+
+    if (!(function instanceof Function))
+      return function.call(this, args);
+
+    this.tailCallee = function;
+    this.tailArgs = args;
+
+    return TAIL_CALL;
+  }
+
+  // evaluates the callee and the arguments of a call, into args
+  private Callable callee(Expr.CallExpr expr, List<Object> args) throws Exception {
+    Object callee = this.evaluate(expr.callee);
+
     for (Expr arg : expr.args)
       args.add(this.evaluate(arg));
     
-    if (!(callee instanceof Callable))
-      Util.printError("Can only call functions, got '" + Util.stringify(callee) + "'", expr.callee.pos);
-
-    Callable function = (Callable) callee;
+    return expr.cache.callable(callee);
+  }
 
-    if (args.size() != function.arity())
-      Util.printError("Expected " + function.arity() + " arguments, got " + args.size(), expr.callee.pos);
 
-    return function.call(this, args);
-  }
 
   @Override
   public Object visitFnExpr(Expr.FnExpr expr) throws Exception {
@@ -1980,117 +2161,101 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
   @Override
   public Object visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
-    Object array = this.evaluate(expr.array);
-    Object index = this.evaluate(expr.index);
-
-    if (!(array instanceof Array || array instanceof String))
-      Util.printError("Can only index arrays and strings, got '" + Util.stringify(array) + "'", expr.pos);
-    
-    if (!(index instanceof Double || index instanceof Range))
-      Util.printError("Arrays and strings can only be indexed by integers and ranges, got '" + Util.stringify(index) + "'", expr.pos);
+    if (expr.fused == Expr.Fused.VariableIndex)
+      return this.variableIndex(expr);
 
-    if (array instanceof Array) {
-      Array a = (Array) array;
+    Object array = this.evaluate(expr.array);
 
-      if (index instanceof Double) {
-        Double ind = (Double) index;
+    if (expr.specialization == Expr.Specialization.Proven) {
+      double ind = this.provenNumber(expr.index);
 
-        if (ind.intValue() != ind)
-          Util.printError("Arrays can only be indexed by integers and ranges, got '" + Util.stringify(index) + "'", expr.pos);
+      if (expr.array.type == Expr.Type.Array) {
+        List<Object> items = ((Array) array).array;
 
-        if (ind < 0 || ind >= a.array.size())
-          Util.printError("Index out of bounds: index " + ind.intValue() + " is outside the bounds for an array of length " + a.array.size(), expr.pos);
-        
-        return a.array.get(ind.intValue());
+        if ((int) ind == ind && ind >= 0 && ind < items.size())
+          return items.get((int) ind);
       }
+      else {
+        String s = (String) array;
 
-      if (index instanceof Range) {
-        Range range = (Range) index;
-
-        if (((Double) (range.start)).intValue() != range.start || ((Double) (range.end)).intValue() != range.end || ((Double) (range.step)).intValue() != range.step)
-          Util.printError("Range bounds and step must be integers, got '" + Util.stringify(index) + "'", expr.pos);
-
-        if (range.start < 0 || range.start >= a.array.size() || range.end < 0 || range.end >= a.array.size())
-          Util.printError("Index out of bounds: range " + Util.stringify(range) + " bound is outside the bounds for an array of length " + a.array.size(), expr.pos);
-
-        List<Object> res = new ArrayList<>();
-        while (range.hasNext()) {
-          res.add(a.array.get(((Double) range.next()).intValue()));
-        }
-
-        return new Array(res);
+        if ((int) ind == ind && ind >= 0 && ind < s.length())
+          return String.valueOf(s.charAt((int) ind));
       }
-    }
-    else if (array instanceof String) {
-      String s = (String) array;
 
-      if (index instanceof Double) {
-        Double ind = (Double) index;
+      return Operators.index(expr.pos, array, ind);
+    }
 
-        if (ind.intValue() != ind)
-          Util.printError("Arrays can only be indexed by integers and ranges, got '" + Util.stringify(index) + "'", expr.pos);
+    Object index = this.evaluate(expr.index);
 
-        if (ind < 0 || ind >= s.length())
-          Util.printError("Index out of bounds: index " + ind.intValue() + " is outside the bounds for an array of length " + s.length(), expr.pos);
-        
-        return new String(new char[] { s.charAt(ind.intValue()) });
+    if (expr.specialization == Expr.Specialization.Array || expr.specialization == Expr.Specialization.String) {
+      if (!(index instanceof Long)) {
+        expr.specialization = Expr.Specialization.Generic;
+        return Operators.index(expr.pos, array, index);
       }
 
-      if (index instanceof Range) {
-        Range range = (Range) index;
+      long ind = (long) index;
 
-        if (((Double) (range.start)).intValue() != range.start || ((Double) (range.end)).intValue() != range.end || ((Double) (range.step)).intValue() != range.step)
-          Util.printError("Range bounds and step must be integers, got '" + Util.stringify(index) + "'", expr.pos);
+      // out of bounds indexes report their error through the generic path
+      if (expr.specialization == Expr.Specialization.Array && array instanceof Array) {
+        List<Object> items = ((Array) array).array;
 
-        if (range.start < 0 || range.start >= s.length() || range.end < 0 || range.end >= s.length())
-          Util.printError("Index out of bounds: range " + Util.stringify(range) + " bound is outside the bounds for an array of length " + s.length(), expr.pos);
-
-        List<Object> res = new ArrayList<>();
-        while (range.hasNext()) {
-          res.add(new String(new char[] { s.charAt(((Double) range.next()).intValue()) }));
-        }
+        if (ind >= 0 && ind < items.size())
+          return items.get((int) ind);
+      }
+      else if (expr.specialization == Expr.Specialization.String && array instanceof String) {
+        String s = (String) array;
 
-        StringBuilder b = new StringBuilder();
+        if (ind >= 0 && ind < s.length())
+          return String.valueOf(s.charAt((int) ind));
+      }
+      else
+        expr.specialization = Expr.Specialization.Generic;
 
-        for (Object o : res) {
-          b.append((String) o);
-        }
+      return Operators.index(expr.pos, array, index);
+    }
 
-        return b.toString();
-      }
+    if (expr.specialization == Expr.Specialization.Uninitialized) {
+      if (index instanceof Long && array instanceof Array)
+        expr.specialization = Expr.Specialization.Array;
+      else if (index instanceof Long && array instanceof String)
+        expr.specialization = Expr.Specialization.String;
+      else
+        expr.specialization = Expr.Specialization.Generic;
     }
 
-    return null;
-   }
+    return Operators.index(expr.pos, array, index);
+  }
 
   @Override
   public Object visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
     return expr.value;
   }
 
+  @Override
+  public Object visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+    boolean left = Operators.isTruthy(this.evaluate(expr.left));
+
+    // false decides '&', and true decides '|'
+    if (expr.profile.record(left == (expr.operator.type() == TokenType.VerticalBar)))
+      return left;
+
+    return Operators.isTruthy(this.evaluate(expr.right));
+  }
+
   @Override
   public Object visitRangeExpr(Expr.RangeExpr expr) throws Exception {
     Object start = this.evaluate(expr.start);
     Object end = this.evaluate(expr.end);
     Object step = expr.step == null
-                    ? 1.0
+                    ? 1L
                     : this.evaluate(expr.step);
 
-    if (!(start instanceof Double))
-      Util.printError("The start of the range must be a number, got '" + Util.stringify(start) + "'", expr.pos);
-    
-    if (!(end instanceof Double))
-      Util.printError("The end of the range must be a number, got '" + Util.stringify(end) + "'", expr.pos);
-    
-    if (!(step instanceof Double))
-      Util.printError("The step of the range must be a number, got '" + Util.stringify(step) + "'", expr.pos);
-    
-    return new Range((Double) start, (Double) end, (Double) step);
+    return Operators.range(expr.pos, start, end, step);
   }
 
   @Override
   public Object visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
-    if (this.isTruthy(this.evaluate(expr.condition)))
+    if (expr.profile.record(Operators.isTruthy(this.evaluate(expr.condition))))
       return this.evaluate(expr.thenBranch);
     
     return this.evaluate(expr.elseBranch);
@@ -2098,25 +2263,51 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
   @Override
   public Object visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+    if (expr.specialization == Expr.Specialization.Proven)
+      return -this.provenNumber(expr.operand);
+
+    if (expr.specialization == Expr.Specialization.Number) {
+      try {
+        return -this.evaluateNumber(expr.operand);
+      }
+      catch (NotNumber n) {
+        expr.specialization = Expr.Specialization.Generic;
+        return this.unary(expr, n.value);
+      }
+    }
+
     Object operand = this.evaluate(expr.operand);
 
+    if (expr.specialization == Expr.Specialization.Uninitialized) {
+      expr.specialization = expr.operator.type() == TokenType.Minus && operand instanceof Double
+                              ? Expr.Specialization.Number
+                              : Expr.Specialization.Generic;
+    }
+
+    return this.unary(expr, operand);
+  }
+
+  private Object unary(Expr.UnaryExpr expr, Object operand) throws Exception {
     switch (expr.operator.type()) {
       case Bang:
-        return !this.isTruthy(operand);
+        return !Operators.isTruthy(operand);
       
       case Minus:
-        checkNumberOperand(expr.operator, operand);
-        return -(double) operand;
+        return Operators.negate(expr.operator.pos(), operand);
+
+      case LnotKw:
+        return Operators.bitNot(expr.operator.pos(), operand);
       
       case Ampersand:
-        return new Ref(((Expr.IdentifierExpr) expr.operand).name, this.environment);
+        Expr.IdentifierExpr variable = (Expr.IdentifierExpr) expr.operand;
+        return this.environment.ref(variable.depth, variable.slot, variable.name);
       
       case Star:
         if (!(operand instanceof Ref))
           Util.printError("Can only dereference reference objects, got '" + Util.stringify(operand) + "'", expr.operator.pos());
         
         Ref r = (Ref) operand;
-        return r.env.get(r.name);
+        return r.getReferenced();
 
       default:
         Util.printError("Invalid unary operator: '" + expr.operator.lexeme() + "'", expr.operator.pos());
@@ -2126,6 +2317,17 @@ public class Interpreter implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Obj
 
   @Override
   public Object visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
-    return this.environment.get(expr.name);
+    return this.variable(expr);
+  }
+
+  // natives were bound by the resolver, and globals are read from the top-level frame without walking up to it
+  private Object variable(Expr.IdentifierExpr expr) throws Exception {
+    if (expr.bound != null)
+      return expr.bound;
+
+    if (expr.isGlobal)
+      return this.topLevel.get(0, expr.slot, expr.name);
+
+    return this.environment.get(expr.depth, expr.slot, expr.name);
   }
 }
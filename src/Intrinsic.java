@@ -0,0 +1,117 @@
+import java.math.BigInteger;
+
+// Pure natives simple enough for the engines to call their implementation directly,
+// when a call resolves to the native itself; the prelude uses the same implementations.
+public enum Intrinsic {
+  Sqrt("sqrt", 1),
+  Abs("abs", 1),
+  Floor("floor", 1),
+  Ceil("ceil", 1),
+  Min("min", 2),
+  Max("max", 2),
+  Len("len", 1);
+
+  // also the name of the implementing method
+  public final String nativeName;
+  public final int arity;
+
+  private Intrinsic(String nativeName, int arity) {
+    this.nativeName = nativeName;
+    this.arity = arity;
+  }
+
+  public static Intrinsic of(String name, int argc) {
+    for (Intrinsic intrinsic : values()) {
+      if (intrinsic.nativeName.equals(name) && intrinsic.arity == argc)
+        return intrinsic;
+    }
+
+    return null;
+  }
+
+  // ---
+
+  public static Object sqrt(Object value) {
+    if (Operators.isNumber(value)) {
+      double d = Operators.toDouble(value);
+
+      if (d < 0)
+        return null;
+
+      return Math.sqrt(d);
+    }
+
+    return null;
+  }
+
+  public static Object abs(Object value) {
+    // the smallest long has no positive long, and becomes a double
+    if (value instanceof Long)
+      return (long) value < 0 ? Operators.subtract(0, (long) value) : value;
+
+    if (value instanceof BigInteger)
+      return ((BigInteger) value).abs();
+
+    if (value instanceof Double)
+      return Math.abs((double) (Double) value);
+
+    return null;
+  }
+
+  // integers are their own floor and ceiling
+  public static Object floor(Object value) {
+    if (Operators.isExact(value))
+      return value;
+
+    if (value instanceof Double)
+      return Math.floor((Double) value);
+
+    return null;
+  }
+
+  public static Object ceil(Object value) {
+    if (Operators.isExact(value))
+      return value;
+
+    if (value instanceof Double)
+      return Math.ceil((Double) value);
+
+    return null;
+  }
+
+  public static Object min(Object a, Object b) {
+    if (a instanceof Long && b instanceof Long)
+      return Math.min((long) a, (long) b);
+
+    if (Operators.isExact(a) && Operators.isExact(b))
+      return Operators.compare(a, b) <= 0 ? a : b;
+
+    if (Operators.isNumber(a) && Operators.isNumber(b))
+      return Math.min(Operators.toDouble(a), Operators.toDouble(b));
+
+    return null;
+  }
+
+  public static Object max(Object a, Object b) {
+    if (a instanceof Long && b instanceof Long)
+      return Math.max((long) a, (long) b);
+
+    if (Operators.isExact(a) && Operators.isExact(b))
+      return Operators.compare(a, b) >= 0 ? a : b;
+
+    if (Operators.isNumber(a) && Operators.isNumber(b))
+      return Math.max(Operators.toDouble(a), Operators.toDouble(b));
+
+    return null;
+  }
+
+  public static Object len(Object value) {
+    if (value instanceof String)
+      return (long) ((String) value).length();
+
+    if (value instanceof Array)
+      return (long) ((Array) value).array.size();
+
+    return null;
+  }
+}
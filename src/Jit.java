@@ -0,0 +1,138 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Tiering policy for the tree-walking interpreter: hot functions are compiled to JVM bytecode and loaded as hidden classes
+public class Jit {
+  public static final int INVOCATION_THRESHOLD = 1000;
+  public static final int BACK_EDGE_THRESHOLD = 10000;
+
+  // -Dquick.noJit=true keeps every function in the tree-walker, so 'make bench' measures the tree-walker itself
+  private static final boolean NO_JIT = Boolean.getBoolean("quick.noJit");
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  // shared by every function value created from the same declaration
+  public static class Profile {
+    public int invocations = 0;
+    public int backEdges = 0;
+
+    public JitCode code = null;
+    public boolean failed = false;
+
+    public boolean isHot() {
+      return !NO_JIT && (this.invocations >= INVOCATION_THRESHOLD || this.backEdges >= BACK_EDGE_THRESHOLD);
+    }
+  }
+
+  // returns null when the function uses a construct the compiler doesn't support, so it keeps being interpreted;
+  // anything else, like a class the JVM rejects, is a bug in the compiler and isn't hidden
+  public static JitCode compile(FnDecl declaration) throws Exception {
+    JitCompiler.Result result = new JitCompiler().compile(declaration);
+
+    if (result == null)
+      return null;
+
+    try {
+      MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(result.bytes(), true);
+      return (JitCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                             .invoke(result.constants());
+    }
+    catch (ReflectiveOperationException e) {
+      return null;
+    }
+    catch (Exception | Error e) {
+      throw e;
+    }
+    catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  // --- Runtime support for the generated code
+
+  public static Object call(Object callee, Object[] args, Interpreter interpreter, InlineCache cache) throws Exception {
+    return cache.callable(callee).call(interpreter, new ArrayList<>(Arrays.asList(args)));
+  }
+
+  public static Object call0(Object callee, Interpreter interpreter, InlineCache cache) throws Exception {
+    return cache.callable(callee).call0(interpreter);
+  }
+
+  public static Object call1(Object callee, Object arg0, Interpreter interpreter, InlineCache cache) throws Exception {
+    return cache.callable(callee).call1(interpreter, arg0);
+  }
+
+  public static Object call2(Object callee, Object arg0, Object arg1, Interpreter interpreter, InlineCache cache) throws Exception {
+    return cache.callable(callee).call2(interpreter, arg0, arg1);
+  }
+
+  public static Object call3(Object callee, Object arg0, Object arg1, Object arg2, Interpreter interpreter, InlineCache cache) throws Exception {
+    return cache.callable(callee).call3(interpreter, arg0, arg1, arg2);
+  }
+
+  // a call to a Quick function is left for Function.call, which runs the compiled code
+  public static Object tailCall(Object callee, Object[] args, Interpreter interpreter, InlineCache cache) throws Exception {
+    Callable function = cache.callable(callee);
+
+    if (!(function instanceof Function))
+      return function.call(interpreter, new ArrayList<>(Arrays.asList(args)));
+
+    interpreter.tailCallee = function;
+    interpreter.tailArgs = new ArrayList<>(Arrays.asList(args));
+
+    return Interpreter.TAIL_CALL;
+  }
+
+  public static Object array(Object[] items) {
+    return new Array(new ArrayList<>(Arrays.asList(items)));
+  }
+
+  public static Object deref(Object value, Position pos) throws Exception {
+    if (!(value instanceof Ref))
+      Util.printError("Can only dereference reference objects, got '" + Util.stringify(value) + "'", pos);
+
+    return ((Ref) value).getReferenced();
+  }
+
+  public static Object derefAssign(Object ref, Object value, Token name) throws Exception {
+    if (!(ref instanceof Ref))
+      Util.printError("Can only dereference assign reference objects, got '" + Util.stringify(ref) + "'", name.pos());
+
+    ((Ref) ref).setReferenced(value);
+    return value;
+  }
+
+  public static Object assignIndex(Object target, int index, Object value, Token name) throws Exception {
+    if (!(target instanceof Array))
+      Util.printError("Can only index arrays", name.pos());
+
+    ((Array) target).array.set(index, value);
+    return value;
+  }
+
+  public static Iterable iterable(Object value, Position pos) throws Exception {
+    if (!(value instanceof Iterable))
+      Util.printError("Can only iterate over iterable objects (e.g. arrays and ranges), got '" + Util.stringify(value) + "'", pos);
+
+    return (Iterable) value;
+  }
+
+  public static Object reassignNative(Token name) throws Exception {
+    Util.printError("Cannot reassign native function '" + name.lexeme() + "'", name.pos());
+    return null;
+  }
+
+  public static void redeclare(Token name) throws Exception {
+    Util.printError("Cannot redeclare '" + name.lexeme() + "' in the same scope", name.pos());
+  }
+
+  public static void breakOut() throws Exception {
+    throw Util.Break.INSTANCE;
+  }
+
+  public static void continueOut() throws Exception {
+    throw Util.Continue.INSTANCE;
+  }
+}
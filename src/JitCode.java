@@ -0,0 +1,3 @@
+public interface JitCode {
+  Object run(Environment closure, Interpreter interpreter, Environment params) throws Exception;
+}
@@ -0,0 +1,756 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates the body of a function into a JVM class implementing JitCode.
+// Locals live in JVM local variables; every operation goes through the same helpers the interpreter uses.
+public class JitCompiler implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Void>, ClassWriter.Opcodes {
+  public record Result(byte[] bytes, Object[] constants) {}
+
+  @SuppressWarnings("serial")
+  private static class Unsupported extends Exception {}
+
+  private static final String OBJECT = "java/lang/Object";
+  private static final String OBJ = "Ljava/lang/Object;";
+  private static final String POS = "LPosition;";
+  private static final String TOKEN = "LToken;";
+
+  private static final int THIS = 0;
+  private static final int CLOSURE = 1;
+  private static final int INTERPRETER = 2;
+  private static final int PARAMS = 3;
+  private static final int CONSTANTS = 4;
+
+  private final ClassWriter cw = new ClassWriter();
+  private final ClassWriter.Code code = new ClassWriter.Code(this.cw, CONSTANTS + 1);
+
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+
+  private final List<Map<String, Integer>> scopes = new ArrayList<>();
+  private final List<ClassWriter.Label[]> loops = new ArrayList<>();
+
+  public Result compile(FnDecl declaration) throws Exception {
+    try {
+      this.emitConstructor();
+
+      ClassWriter.Code c = this.code;
+
+      c.load(ALOAD, THIS);
+      c.field(GETFIELD, "QuickFn", "constants", "[" + OBJ);
+      c.store(ASTORE, CONSTANTS);
+
+      this.beginScope();
+
+      for (int i = 0; i < declaration.params().size(); i++) {
+        c.load(ALOAD, PARAMS);
+        c.iconst(i);
+        c.invoke(INVOKEVIRTUAL, "Environment", "get", "(I)" + OBJ);
+
+        this.declare(declaration.params().get(i).lexeme());
+      }
+
+      this.beginScope();
+
+      for (Stmt stmt : declaration.body())
+        stmt.accept(this);
+
+      this.endScope();
+      this.endScope();
+
+      c.op(ACONST_NULL, 1);
+      c.op(ARETURN, -1);
+
+      if (c.length() > ClassWriter.MAX_CODE_LENGTH || c.maxLocals > 0xFF)
+        return null;
+
+      this.cw.method(ClassWriter.ACC_PUBLIC, "run", "(LEnvironment;LInterpreter;LEnvironment;)" + OBJ, c);
+      this.cw.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_FINAL, "constants", "[" + OBJ);
+
+      byte[] bytes = this.cw.toByteArray(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL | ClassWriter.ACC_SUPER, "QuickFn", OBJECT, "JitCode");
+
+      return new Result(bytes, this.constants.toArray());
+    }
+    catch (Unsupported e) {
+      return null;
+    }
+  }
+
+  private void emitConstructor() {
+    ClassWriter.Code c = new ClassWriter.Code(this.cw, 2);
+
+    c.load(ALOAD, 0);
+    c.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+    c.load(ALOAD, 0);
+    c.load(ALOAD, 1);
+    c.field(PUTFIELD, "QuickFn", "constants", "[" + OBJ);
+    c.op(RETURN, 0);
+
+    this.cw.method(ClassWriter.ACC_PUBLIC, "<init>", "([" + OBJ + ")V", c);
+  }
+
+  // ---
+
+  private void beginScope() {
+    this.scopes.add(new HashMap<>());
+  }
+
+  private void endScope() {
+    this.scopes.remove(this.scopes.size() - 1);
+  }
+
+  // stores the value on top of the stack into a new local of the current scope
+  private void declare(String name) {
+    int slot = this.code.newLocal();
+
+    this.code.store(ASTORE, slot);
+    this.scopes.get(this.scopes.size() - 1).put(name, slot);
+  }
+
+  private Integer resolve(String name) {
+    for (int i = this.scopes.size() - 1; i >= 0; i--) {
+      Integer slot = this.scopes.get(i).get(name);
+
+      if (slot != null)
+        return slot;
+    }
+
+    return null;
+  }
+
+  private void constant(Object value, String type) {
+    ClassWriter.Code c = this.code;
+
+    if (value == null) {
+      c.op(ACONST_NULL, 1);
+      return;
+    }
+
+    Integer index = this.constantIndex.get(value);
+
+    if (index == null) {
+      index = this.constants.size();
+      this.constants.add(value);
+      this.constantIndex.put(value, index);
+    }
+
+    c.load(ALOAD, CONSTANTS);
+    c.iconst(index);
+    c.op(AALOAD, -1);
+
+    if (type != null)
+      c.type(CHECKCAST, type);
+  }
+
+  private void operator(String name, String descriptor) {
+    this.code.invoke(INVOKESTATIC, "Operators", name, descriptor);
+  }
+
+  private void helper(String name, String descriptor) {
+    this.code.invoke(INVOKESTATIC, "Jit", name, descriptor);
+  }
+
+  private void truthy(Expr expr) throws Exception {
+    expr.accept(this);
+    this.operator("isTruthy", "(" + OBJ + ")Z");
+  }
+
+  private void boxBoolean() {
+    this.code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+  }
+
+  private void loadVariable(Token name, int depth, int slot) throws Exception {
+    ClassWriter.Code c = this.code;
+    Integer local = this.resolve(name.lexeme());
+
+    if (local != null) {
+      c.load(ALOAD, local);
+      return;
+    }
+
+    this.outerVariable(name, depth, slot);
+    c.invoke(INVOKEVIRTUAL, "Environment", "get", "(II" + TOKEN + ")" + OBJ);
+  }
+
+  // pushes the closure environment and the arguments that locate a variable declared outside the function
+  private void outerVariable(Token name, int depth, int slot) throws Exception {
+    ClassWriter.Code c = this.code;
+
+    // the resolver counts the frames created inside the function too
+    int closureDepth = depth < 0 ? -1 : depth - this.scopes.size();
+
+    if (depth >= 0 && closureDepth < 0)
+      throw new Unsupported();
+
+    c.load(ALOAD, CLOSURE);
+    c.iconst(closureDepth);
+    c.iconst(slot);
+    this.constant(name, "Token");
+  }
+
+  private void block(List<Stmt> statements) throws Exception {
+    this.beginScope();
+
+    for (Stmt stmt : statements)
+      stmt.accept(this);
+
+    this.endScope();
+  }
+
+  private void loopBody(Stmt.BlockStmt block, ClassWriter.Label next, ClassWriter.Label exit) throws Exception {
+    ClassWriter.Code c = this.code;
+    ClassWriter.Label start = new ClassWriter.Label();
+    ClassWriter.Label end = new ClassWriter.Label();
+    ClassWriter.Label after = new ClassWriter.Label();
+    ClassWriter.Label breaks = new ClassWriter.Label();
+    ClassWriter.Label continues = new ClassWriter.Label();
+
+    this.loops.add(new ClassWriter.Label[] { next, exit });
+
+    c.mark(start);
+    block.accept(this);
+    c.mark(end);
+
+    this.loops.remove(this.loops.size() - 1);
+
+    // a 'break' or 'continue' inside a called function reaches the loop as an exception
+    c.jump(GOTO, after);
+
+    c.markHandler(breaks);
+    c.op(POP, -1);
+    c.jump(GOTO, exit);
+
+    c.markHandler(continues);
+    c.op(POP, -1);
+    c.jump(GOTO, next);
+
+    c.mark(after);
+    c.tryCatch(start, end, breaks, "Util$Break");
+    c.tryCatch(start, end, continues, "Util$Continue");
+  }
+
+  // ---
+
+  @Override
+  public Void visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
+    // the resolver counts only the blocks that have a frame
+    if (!stmt.hasFrame) {
+      for (Stmt statement : stmt.statements)
+        statement.accept(this);
+
+      return null;
+    }
+
+    this.block(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
+    if (this.loops.isEmpty())
+      this.helper("breakOut", "()V");
+    else
+      this.code.jump(GOTO, this.loops.get(this.loops.size() - 1)[1]);
+
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
+    if (this.loops.isEmpty())
+      this.helper("continueOut", "()V");
+    else
+      this.code.jump(GOTO, this.loops.get(this.loops.size() - 1)[0]);
+
+    return null;
+  }
+
+  @Override
+  public Void visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
+    stmt.expr.accept(this);
+    this.code.op(POP, -1);
+
+    return null;
+  }
+
+  @Override
+  public Void visitFnStmt(Stmt.FnStmt stmt) throws Exception {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.IfStmt stmt) throws Exception {
+    ClassWriter.Code c = this.code;
+    ClassWriter.Label elseLabel = new ClassWriter.Label();
+    ClassWriter.Label end = new ClassWriter.Label();
+
+    this.truthy(stmt.condition);
+    c.jump(IFEQ, elseLabel);
+
+    stmt.thenBranch.accept(this);
+    c.jump(GOTO, end);
+
+    c.mark(elseLabel);
+
+    if (stmt.elseBranch != null)
+      stmt.elseBranch.accept(this);
+
+    c.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitLetStmt(Stmt.LetStmt stmt) throws Exception {
+    stmt.value.accept(this);
+
+    if (this.scopes.get(this.scopes.size() - 1).containsKey(stmt.name.lexeme())) {
+      this.constant(stmt.name, "Token");
+      this.helper("redeclare", "(" + TOKEN + ")V");
+    }
+
+    this.declare(stmt.name.lexeme());
+    return null;
+  }
+
+  @Override
+  public Void visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
+    ClassWriter.Code c = this.code;
+    ClassWriter.Label start = new ClassWriter.Label();
+    ClassWriter.Label end = new ClassWriter.Label();
+
+    if (stmt.variable == null || stmt.iterable == null) {
+      c.mark(start);
+      this.loopBody(stmt.block, start, end);
+      c.jump(GOTO, start);
+
+      c.mark(end);
+      return null;
+    }
+
+    stmt.iterable.accept(this);
+    this.constant(stmt.pos, "Position");
+    this.helper("iterable", "(" + OBJ + POS + ")LIterable;");
+
+    int iterator = c.newLocal();
+    c.store(ASTORE, iterator);
+
+    this.beginScope();
+    c.op(ACONST_NULL, 1);
+    this.declare(stmt.variable.lexeme());
+    int variable = this.resolve(stmt.variable.lexeme());
+
+    c.mark(start);
+    c.load(ALOAD, iterator);
+    c.invoke(INVOKEINTERFACE, "Iterable", "hasNext", "()Z");
+    c.jump(IFEQ, end);
+
+    c.load(ALOAD, iterator);
+    c.invoke(INVOKEINTERFACE, "Iterable", "next", "()" + OBJ);
+    c.store(ASTORE, variable);
+
+    this.loopBody(stmt.block, start, end);
+    c.jump(GOTO, start);
+
+    c.mark(end);
+    this.endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+    if (stmt.value == null)
+      this.code.op(ACONST_NULL, 1);
+    else if (stmt.isTailCall)
+      this.call((Expr.CallExpr) stmt.value, "tailCall");
+    else
+      stmt.value.accept(this);
+
+    this.code.op(ARETURN, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
+    ClassWriter.Code c = this.code;
+    ClassWriter.Label start = new ClassWriter.Label();
+    ClassWriter.Label end = new ClassWriter.Label();
+
+    c.mark(start);
+    this.truthy(stmt.condition);
+    c.jump(IFEQ, end);
+
+    this.loopBody(stmt.block, start, end);
+    c.jump(GOTO, start);
+
+    c.mark(end);
+    return null;
+  }
+
+  // ---
+
+  @Override
+  public Void visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
+    this.values(expr.items);
+    this.helper("array", "([" + OBJ + ")" + OBJ);
+
+    return null;
+  }
+
+  private void values(List<Expr> items) throws Exception {
+    ClassWriter.Code c = this.code;
+
+    c.iconst(items.size());
+    c.type(ANEWARRAY, OBJECT);
+
+    for (int i = 0; i < items.size(); i++) {
+      c.op(DUP, 1);
+      c.iconst(i);
+      items.get(i).accept(this);
+      c.op(AASTORE, -3);
+    }
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+    ClassWriter.Code c = this.code;
+
+    expr.value.accept(this);
+
+    if (expr.isNative) {
+      c.op(POP, -1);
+      this.constant(expr.name, "Token");
+      this.helper("reassignNative", "(" + TOKEN + ")" + OBJ);
+
+      return null;
+    }
+
+    String compound = switch (expr.operator.type()) {
+      case PlusEqual, DoublePlus -> "plus";
+      case MinusEqual, DoubleMinus -> "minus";
+      case StarEqual -> "times";
+      case SlashEqual -> "divide";
+      case ModuloEqual -> "modulo";
+      case LShiftEqual -> "lShift";
+      case RShiftEqual -> "rShift";
+      default -> null;
+    };
+
+    if (compound != null) {
+      int value = c.newLocal();
+      c.store(ASTORE, value);
+
+      this.constant(expr.operator.pos(), "Position");
+      expr.lValue.accept(this);
+      c.load(ALOAD, value);
+
+      if (compound.equals("divide") || compound.equals("lShift") || compound.equals("rShift")) {
+        this.constant(expr.lValue.pos, "Position");
+        this.operator(compound, "(" + POS + OBJ + OBJ + POS + ")" + OBJ);
+      }
+      else
+        this.operator(compound, "(" + POS + OBJ + OBJ + ")" + OBJ);
+    }
+
+    if (expr.isRef) {
+      int value = c.newLocal();
+      c.store(ASTORE, value);
+
+      this.loadVariable(expr.name, expr.depth, expr.slot);
+      c.load(ALOAD, value);
+      this.constant(expr.name, "Token");
+      this.helper("derefAssign", "(" + OBJ + OBJ + TOKEN + ")" + OBJ);
+
+      return null;
+    }
+
+    Integer slot = this.resolve(expr.name.lexeme());
+
+    if (slot != null) {
+      c.op(DUP, 1);
+      c.store(ASTORE, slot);
+
+      return null;
+    }
+
+    int value = c.newLocal();
+    c.store(ASTORE, value);
+
+    this.outerVariable(expr.name, expr.depth, expr.slot);
+    c.load(ALOAD, value);
+    c.invoke(INVOKEVIRTUAL, "Environment", "assign", "(II" + TOKEN + OBJ + ")V");
+    c.load(ALOAD, value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
+    ClassWriter.Code c = this.code;
+    int value = c.newLocal();
+    int index = c.newLocal();
+
+    expr.value.accept(this);
+    c.store(ASTORE, value);
+
+    this.constant(expr.pos, "Position");
+    expr.index.accept(this);
+    this.operator("arrayIndex", "(" + POS + OBJ + ")I");
+    c.store(ISTORE, index);
+
+    Integer slot = this.resolve(expr.name.lexeme());
+
+    if (slot != null) {
+      c.load(ALOAD, slot);
+      c.load(ILOAD, index);
+      c.load(ALOAD, value);
+      this.constant(expr.name, "Token");
+      this.helper("assignIndex", "(" + OBJ + "I" + OBJ + TOKEN + ")" + OBJ);
+
+      return null;
+    }
+
+    this.outerVariable(expr.name, expr.depth, expr.slot);
+    c.load(ILOAD, index);
+    c.load(ALOAD, value);
+    c.invoke(INVOKEVIRTUAL, "Environment", "assignArray", "(II" + TOKEN + "I" + OBJ + ")V");
+    c.load(ALOAD, value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+    String binary = "(" + POS + OBJ + OBJ + ")" + OBJ;
+    String checked = "(" + POS + OBJ + OBJ + POS + ")" + OBJ;
+    String plain = "(" + OBJ + OBJ + ")" + OBJ;
+
+    switch (expr.operator.type()) {
+      case DoubleEqual -> {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        this.operator("isEqual", "(" + OBJ + OBJ + ")Z");
+        this.boxBoolean();
+      }
+
+      case BangEqual -> this.plain(expr, "notEqual", plain);
+
+      case Greater -> this.positioned(expr, "greater", binary, false);
+      case GreaterEqual -> this.positioned(expr, "greaterEqual", binary, false);
+      case Less -> this.positioned(expr, "less", binary, false);
+      case LessEqual -> this.positioned(expr, "lessEqual", binary, false);
+
+      case Plus -> this.positioned(expr, "plus", binary, false);
+      case Minus -> this.positioned(expr, "minus", binary, false);
+      case Star -> this.positioned(expr, "times", binary, false);
+      case Slash -> this.positioned(expr, "divide", checked, true);
+      case Modulo -> this.positioned(expr, "modulo", binary, false);
+      case LShift -> this.positioned(expr, "lShift", checked, true);
+      case RShift -> this.positioned(expr, "rShift", checked, true);
+      case LandKw -> this.positioned(expr, "bitAnd", checked, true);
+      case LorKw -> this.positioned(expr, "bitOr", checked, true);
+      case LxorKw -> this.positioned(expr, "bitXor", checked, true);
+
+      case InKw -> {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        this.constant(expr.left.pos, "Position");
+        this.operator("in", "(" + OBJ + OBJ + POS + ")" + OBJ);
+      }
+
+      default -> throw new Unsupported();
+    }
+
+    return null;
+  }
+
+  private void plain(Expr.BinaryExpr expr, String name, String descriptor) throws Exception {
+    expr.left.accept(this);
+    expr.right.accept(this);
+    this.operator(name, descriptor);
+  }
+
+  private void positioned(Expr.BinaryExpr expr, String name, String descriptor, boolean leftPos) throws Exception {
+    this.constant(expr.operator.pos(), "Position");
+    expr.left.accept(this);
+    expr.right.accept(this);
+
+    if (leftPos)
+      this.constant(expr.left.pos, "Position");
+
+    this.operator(name, descriptor);
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.CallExpr expr) throws Exception {
+    int argc = expr.args.size();
+
+    // the implementation of an intrinsic is called directly
+    if (expr.intrinsic != null) {
+      for (Expr arg : expr.args)
+        arg.accept(this);
+
+      this.code.invoke(INVOKESTATIC, "Intrinsic", expr.intrinsic.nativeName, "(" + OBJ.repeat(argc) + ")" + OBJ);
+      return null;
+    }
+
+    if (argc > 3) {
+      this.call(expr, "call");
+      return null;
+    }
+
+    expr.callee.accept(this);
+
+    for (Expr arg : expr.args)
+      arg.accept(this);
+
+    this.code.load(ALOAD, INTERPRETER);
+    this.constant(expr.cache, "InlineCache");
+    this.helper("call" + argc, "(" + OBJ + OBJ.repeat(argc) + "LInterpreter;LInlineCache;)" + OBJ);
+
+    return null;
+  }
+
+  private void call(Expr.CallExpr expr, String helper) throws Exception {
+    expr.callee.accept(this);
+    this.values(expr.args);
+
+    this.code.load(ALOAD, INTERPRETER);
+    this.constant(expr.cache, "InlineCache");
+    this.helper(helper, "(" + OBJ + "[" + OBJ + "LInterpreter;LInlineCache;)" + OBJ);
+  }
+
+  @Override
+  public Void visitFnExpr(Expr.FnExpr expr) throws Exception {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
+    expr.expr.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
+    this.constant(expr.pos, "Position");
+    expr.array.accept(this);
+    expr.index.accept(this);
+    this.operator("index", "(" + POS + OBJ + OBJ + ")" + OBJ);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
+    this.constant(expr.value, null);
+    return null;
+  }
+
+  // compiled code doesn't count branches, only the tree-walking engines fill the profile
+  @Override
+  public Void visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+    ClassWriter.Code c = this.code;
+    ClassWriter.Label decided = new ClassWriter.Label();
+    ClassWriter.Label end = new ClassWriter.Label();
+    boolean isOr = expr.operator.type() == TokenType.VerticalBar;
+
+    this.truthy(expr.left);
+    c.jump(isOr ? IFNE : IFEQ, decided);
+
+    this.truthy(expr.right);
+    c.jump(GOTO, end);
+
+    c.mark(decided);
+    c.iconst(isOr ? 1 : 0);
+
+    c.mark(end);
+    this.boxBoolean();
+
+    return null;
+  }
+
+  @Override
+  public Void visitRangeExpr(Expr.RangeExpr expr) throws Exception {
+    this.constant(expr.pos, "Position");
+    expr.start.accept(this);
+    expr.end.accept(this);
+
+    if (expr.step == null)
+      this.constant(1L, null);
+    else
+      expr.step.accept(this);
+
+    this.operator("range", "(" + POS + OBJ + OBJ + OBJ + ")LRange;");
+    return null;
+  }
+
+  @Override
+  public Void visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
+    ClassWriter.Code c = this.code;
+    ClassWriter.Label elseLabel = new ClassWriter.Label();
+    ClassWriter.Label end = new ClassWriter.Label();
+
+    this.truthy(expr.condition);
+    c.jump(IFEQ, elseLabel);
+
+    expr.thenBranch.accept(this);
+    c.jump(GOTO, end);
+
+    c.mark(elseLabel);
+    expr.elseBranch.accept(this);
+
+    c.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+    ClassWriter.Code c = this.code;
+
+    switch (expr.operator.type()) {
+      case Bang -> {
+        this.truthy(expr.operand);
+        c.iconst(1);
+        c.op(IXOR, -1);
+        this.boxBoolean();
+      }
+
+      case Minus -> {
+        this.constant(expr.operator.pos(), "Position");
+        expr.operand.accept(this);
+        this.operator("negate", "(" + POS + OBJ + ")" + OBJ);
+      }
+
+      case LnotKw -> {
+        this.constant(expr.operator.pos(), "Position");
+        expr.operand.accept(this);
+        this.operator("bitNot", "(" + POS + OBJ + ")" + OBJ);
+      }
+
+      case Star -> {
+        expr.operand.accept(this);
+        this.constant(expr.operator.pos(), "Position");
+        this.helper("deref", "(" + OBJ + POS + ")" + OBJ);
+      }
+
+      // references need the variable to live in an environment
+      default -> throw new Unsupported();
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
+    if (expr.bound != null) {
+      this.constant(expr.bound, null);
+      return null;
+    }
+
+    this.loadVariable(expr.name, expr.depth, expr.slot);
+    return null;
+  }
+}
@@ -1,3 +1,4 @@
+import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -30,6 +31,11 @@ public class Lexer {
     keywords.put("break", TokenType.BreakKw);
     keywords.put("continue", TokenType.ContinueKw);
 
+    keywords.put("land", TokenType.LandKw);
+    keywords.put("lor", TokenType.LorKw);
+    keywords.put("lxor", TokenType.LxorKw);
+    keywords.put("lnot", TokenType.LnotKw);
+
     keywords.put("true", TokenType.TrueKw);
     keywords.put("false", TokenType.FalseKw);
     keywords.put("nil", TokenType.NilKw);
@@ -245,17 +251,37 @@ public class Lexer {
     this.addToken(type);
   }
 
+  // literals without a fraction are integers, in decimal or hexadecimal, and big integers past a long
   private void number() throws Exception {
+    if (this.peek(-1) == '0' && this.peek(0) == 'x' && this.isHexDigit(this.peek(1))) {
+      this.advance();
+
+      while (this.isHexDigit(this.peek(0)))
+        this.advance();
+
+      BigInteger value = new BigInteger(this.lexeme().substring(2), 16);
+      this.addToken(TokenType.Number, this.lexeme(), Operators.normalize(value), this.startPos);
+      return;
+    }
+
     while (this.isNumber(this.peek(0)))
       this.advance();
     
+    boolean isInteger = true;
+
     if (this.peek(0) == '.' && isNumber(this.peek(1))) {
       this.advance();
+      isInteger = false;
 
       while (this.isNumber(this.peek(0)))
         this.advance();
     }
 
+    if (isInteger) {
+      this.addToken(TokenType.Number, this.lexeme(), Operators.normalize(new BigInteger(this.lexeme())), this.startPos);
+      return;
+    }
+
     Optional<Double> opt = Util.supressException(() -> Double.parseDouble(this.lexeme()));
     
     if (!opt.isPresent())
@@ -339,6 +365,10 @@ public class Lexer {
     return Character.isDigit(c);
   }
 
+  private boolean isHexDigit(char c) {
+    return Character.digit(c, 16) >= 0;
+  }
+
   // ---
 
   private void addToken(TokenType type) {
@@ -8,13 +8,20 @@ public class Main {
   public static final String VERSION = "1.1";
 
   public static void main(String[] args) {
+    String engine = "";
+
+    if (args.length > 0 && (args[0].equals("--vm") || args[0].equals("--closures"))) {
+      engine = args[0];
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+
     if (args.length == 0) {
-      Repl.repl();
+      Repl.repl(engine);
       return;
     }
 
     if (args.length > 2) {
-      System.out.println("Usage: quick <file> [args] | (-v | --version)");
+      System.out.println("Usage: quick [--vm | --closures] <file> [args] | (-v | --version)");
       return;
     }
 
@@ -29,9 +36,9 @@ public class Main {
 
     try {
       List<Token> tokens = new Lexer(Files.readString(Paths.get(args[0]))).lex();
-      List<Stmt> stmts = new Parser(tokens).parse();
+      List<Stmt> stmts = new Optimizer(false).optimize(new Parser(tokens).parse());
 
-      new Interpreter().interpret(stmts, false);
+      newEngine(engine).interpret(stmts, false);
     }
     catch (IOException ee) {
       System.out.println("File '" + args[0] + "' doesn't exist in the '" + Paths.get("").toAbsolutePath().normalize().toString() + "' folder");
@@ -40,4 +47,12 @@ public class Main {
       return;
     }
   }
+
+  public static Engine newEngine(String engine) {
+    return switch (engine) {
+      case "--vm" -> new VM();
+      case "--closures" -> new ClosureCompiler();
+      default -> new Interpreter();
+    };
+  }
 }
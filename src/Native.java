@@ -0,0 +1,24 @@
+// A function of the prelude, declared with its name, its arity and whether it's pure:
+// a pure native has no side effects and its result depends only on its arguments.
+// Implementations override the fixed-arity call method matching their arity.
+public abstract class Native implements Callable {
+  public final String name;
+  public final boolean isPure;
+
+  private final int arity;
+
+  public Native(String name, int arity, boolean isPure) {
+    this.name = name;
+    this.arity = arity;
+    this.isPure = isPure;
+  }
+
+  @Override
+  public int arity() {
+    return this.arity;
+  }
+
+  public String toString() {
+    return "<native fn>";
+  }
+}
@@ -0,0 +1,69 @@
+public final class OpCode {
+  public static final int Constant = 0;
+  public static final int Nil = 1;
+  public static final int True = 2;
+  public static final int False = 3;
+  public static final int Pop = 4;
+  public static final int Swap = 5;
+
+  public static final int GetLocal = 6;
+  public static final int SetLocal = 7;
+  public static final int GetCell = 8;
+  public static final int SetCell = 9;
+  public static final int NewCell = 10;
+  public static final int GetCaptured = 11;
+  public static final int SetCaptured = 12;
+  public static final int GetGlobal = 13;
+  public static final int SetGlobal = 14;
+  public static final int DefineGlobal = 15;
+  public static final int DeclareGlobal = 16;
+
+  public static final int Equal = 17;
+  public static final int NotEqual = 18;
+  public static final int Greater = 19;
+  public static final int GreaterEqual = 20;
+  public static final int Less = 21;
+  public static final int LessEqual = 22;
+  public static final int Add = 23;
+  public static final int Subtract = 24;
+  public static final int Multiply = 25;
+  public static final int Divide = 26;
+  public static final int Modulo = 27;
+  public static final int LShift = 28;
+  public static final int RShift = 29;
+  public static final int BitAnd = 30;
+  public static final int BitOr = 31;
+  public static final int BitXor = 32;
+  public static final int In = 33;
+  public static final int Not = 34;
+  public static final int Negate = 35;
+  public static final int BitNot = 36;
+
+  public static final int RefCell = 37;
+  public static final int RefCaptured = 38;
+  public static final int RefGlobal = 39;
+  public static final int Deref = 40;
+  public static final int DerefSet = 41;
+
+  public static final int Array = 42;
+  public static final int Index = 43;
+  public static final int CheckIndex = 44;
+  public static final int SetIndex = 45;
+  public static final int Range = 46;
+
+  public static final int Jump = 47;
+  public static final int JumpIfFalse = 48;
+  public static final int IterInit = 49;
+  public static final int IterNext = 50;
+
+  public static final int Call = 51;
+  public static final int Closure = 52;
+  public static final int Return = 53;
+  public static final int TailCall = 54;
+  public static final int Unwind = 55;
+
+  public static final int PrintRepl = 56;
+  public static final int Error = 57;
+
+  private OpCode() {}
+}
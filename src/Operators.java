@@ -0,0 +1,538 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runtime semantics of the language operators, shared by every execution engine
+public class Operators {
+  public static boolean isTruthy(Object obj) {
+    if (obj == null) return false;
+    if (obj instanceof Boolean) return (boolean) obj;
+
+    return true;
+  }
+
+  public static boolean isEqual(Object a, Object b) {
+    if (a == null && b == null) return true;
+    if (a == null) return false;
+
+    // an integer equals the double of the same value
+    if (isExact(a) && b instanceof Double)
+      return isEqual(a, (double) b);
+
+    if (a instanceof Double && isExact(b))
+      return isEqual(b, (double) a);
+
+    return a.equals(b);
+  }
+
+  private static boolean isEqual(Object integer, double d) {
+    if (integer instanceof Long)
+      return d == (double) (long) integer && d >= -0x1p63 && d < 0x1p63 && (long) d == (long) integer;
+
+    return d == Math.rint(d) && !Double.isInfinite(d) && new BigDecimal(d).toBigInteger().equals(integer);
+  }
+
+  // ---
+
+  public static Object greater(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return (long) left > (long) right;
+
+    checkNumberOperands(pos, left, right);
+
+    if (isExact(left) && isExact(right))
+      return toBig(left).compareTo(toBig(right)) > 0;
+
+    return toDouble(left) > toDouble(right);
+  }
+
+  public static Object greaterEqual(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return (long) left >= (long) right;
+
+    checkNumberOperands(pos, left, right);
+
+    if (isExact(left) && isExact(right))
+      return toBig(left).compareTo(toBig(right)) >= 0;
+
+    return toDouble(left) >= toDouble(right);
+  }
+
+  public static Object less(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return (long) left < (long) right;
+
+    checkNumberOperands(pos, left, right);
+
+    if (isExact(left) && isExact(right))
+      return toBig(left).compareTo(toBig(right)) < 0;
+
+    return toDouble(left) < toDouble(right);
+  }
+
+  public static Object lessEqual(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return (long) left <= (long) right;
+
+    checkNumberOperands(pos, left, right);
+
+    if (isExact(left) && isExact(right))
+      return toBig(left).compareTo(toBig(right)) <= 0;
+
+    return toDouble(left) <= toDouble(right);
+  }
+
+  public static Object plus(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return add((long) left, (long) right);
+
+    if (isExact(left) && isExact(right))
+      return normalize(toBig(left).add(toBig(right)));
+
+    if (isNumber(left) && isNumber(right))
+      return toDouble(left) + toDouble(right);
+
+    return Util.stringify(left) + Util.stringify(right);
+  }
+
+  public static Object minus(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return subtract((long) left, (long) right);
+
+    checkNumberOperands(pos, left, right);
+
+    if (isExact(left) && isExact(right))
+      return normalize(toBig(left).subtract(toBig(right)));
+
+    return toDouble(left) - toDouble(right);
+  }
+
+  public static Object times(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return multiply((long) left, (long) right);
+
+    checkNumberOperands(pos, left, right);
+
+    if (isExact(left) && isExact(right))
+      return normalize(toBig(left).multiply(toBig(right)));
+
+    return toDouble(left) * toDouble(right);
+  }
+
+  public static Object divide(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    checkNumberOperands(pos, left, right);
+
+    if (toDouble(right) == 0.0)
+      Util.printError("Cannot divide by zero | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), leftPos);
+
+    // integers stay integers when they divide exactly
+    if (left instanceof Long && right instanceof Long) {
+      long l = (long) left;
+      long r = (long) right;
+
+      if (l % r == 0 && !(l == Long.MIN_VALUE && r == -1))
+        return l / r;
+    }
+
+    if (isExact(left) && isExact(right)) {
+      BigInteger[] division = toBig(left).divideAndRemainder(toBig(right));
+
+      if (division[1].signum() == 0)
+        return normalize(division[0]);
+    }
+
+    return toDouble(left) / toDouble(right);
+  }
+
+  public static Object modulo(Position pos, Object left, Object right) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return remainder((long) left, (long) right);
+
+    checkNumberOperands(pos, left, right);
+
+    if (isExact(left) && isExact(right)) {
+      BigInteger r = toBig(right);
+      return r.signum() == 0 ? Double.NaN : normalize(toBig(left).remainder(r));
+    }
+
+    return remainder(toDouble(left), toDouble(right));
+  }
+
+  // like a double remainder, an integer one by zero is NaN
+  public static Object remainder(long left, long right) {
+    if (right == 0)
+      return Double.NaN;
+
+    return left % right;
+  }
+
+  // the same result as %, which the JVM computes slowly; integers take the remainder of longs instead
+  public static double remainder(double left, double right) {
+    if (Math.abs(left) < 0x1p53 && Math.abs(right) < 0x1p53 && (long) left == left && (long) right == right && right != 0) {
+      long result = (long) left % (long) right;
+      return result == 0 ? Math.copySign(0.0, left) : result;
+    }
+
+    return left % right;
+  }
+
+  // shifts work on all 64 bits of a long; like '*', a left shift that would lose bits gives a big integer instead
+  public static Object lShift(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    long count = shiftCount(pos, left, right, leftPos);
+
+    if (!(left instanceof BigInteger)) {
+      long value = toLong(left);
+
+      // no bits are lost when shifting back gives the value again
+      if (value == 0 || (count < 63 && (value << count) >> count == value))
+        return value << count;
+    }
+
+    if (count > Integer.MAX_VALUE)
+      Util.printError("Cannot shift an integer this far | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), leftPos);
+
+    return normalize(toBig(left).shiftLeft((int) count));
+  }
+
+  public static Object rShift(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    long count = shiftCount(pos, left, right, leftPos);
+
+    if (left instanceof BigInteger)
+      return normalize(((BigInteger) left).shiftRight((int) Math.min(count, Integer.MAX_VALUE)));
+
+    return toLong(left) >> Math.min(count, 63);
+  }
+
+  // a count too big for a long shifts out any bits there are
+  private static long shiftCount(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    checkNumberOperands(pos, left, right);
+
+    if (!isInteger(left) || !isInteger(right) || signum(right) < 0)
+      Util.printError("Can only bit shift integers | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), leftPos);
+
+    return right instanceof BigInteger ? Long.MAX_VALUE : toLong(right);
+  }
+
+  public static Object bitAnd(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return (long) left & (long) right;
+
+    checkIntegerOperands(pos, left, right, leftPos);
+
+    if (left instanceof BigInteger || right instanceof BigInteger)
+      return normalize(toBig(left).and(toBig(right)));
+
+    return toLong(left) & toLong(right);
+  }
+
+  public static Object bitOr(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return (long) left | (long) right;
+
+    checkIntegerOperands(pos, left, right, leftPos);
+
+    if (left instanceof BigInteger || right instanceof BigInteger)
+      return normalize(toBig(left).or(toBig(right)));
+
+    return toLong(left) | toLong(right);
+  }
+
+  public static Object bitXor(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    if (left instanceof Long && right instanceof Long)
+      return (long) left ^ (long) right;
+
+    checkIntegerOperands(pos, left, right, leftPos);
+
+    if (left instanceof BigInteger || right instanceof BigInteger)
+      return normalize(toBig(left).xor(toBig(right)));
+
+    return toLong(left) ^ toLong(right);
+  }
+
+  public static Object bitNot(Position pos, Object operand) throws Exception {
+    if (!isInteger(operand))
+      Util.printError("Operand must be an integer | value: " + Util.stringify(operand), pos);
+
+    if (operand instanceof BigInteger)
+      return normalize(((BigInteger) operand).not());
+
+    return ~toLong(operand);
+  }
+
+  public static Object notEqual(Object left, Object right) {
+    return !isEqual(left, right);
+  }
+
+  public static Object in(Object left, Object right, Position leftPos) throws Exception {
+    if (!(right instanceof Array))
+      Util.printError("Right side of an 'in' expression must be an array, got '" + Util.stringify(right) + "'", leftPos);
+
+    Array a = (Array) right;
+
+    // integers and doubles of the same value are equal
+    for (Object o : a.array)
+      if (isNumber(left) ? isEqual(left, o) : left.equals(o))
+        return true;
+
+    return false;
+  }
+
+  public static Object negate(Position pos, Object operand) throws Exception {
+    if (operand instanceof Long)
+      return subtract(0, (long) operand);
+
+    if (operand instanceof BigInteger)
+      return normalize(((BigInteger) operand).negate());
+
+    checkNumberOperand(pos, operand);
+    return -(double) operand;
+  }
+
+  // ---
+
+  public static Object index(Position pos, Object array, Object index) throws Exception {
+    if (!(array instanceof Array || array instanceof String))
+      Util.printError("Can only index arrays and strings, got '" + Util.stringify(array) + "'", pos);
+
+    if (!(isNumber(index) || index instanceof Range))
+      Util.printError("Arrays and strings can only be indexed by integers and ranges, got '" + Util.stringify(index) + "'", pos);
+
+    if (array instanceof Array) {
+      Array a = (Array) array;
+
+      if (isNumber(index)) {
+        if (!isInteger(index))
+          Util.printError("Arrays can only be indexed by integers and ranges, got '" + Util.stringify(index) + "'", pos);
+
+        long ind = index instanceof BigInteger ? -1 : toLong(index);
+
+        if (ind < 0 || ind >= a.array.size())
+          Util.printError("Index out of bounds: index " + Util.stringify(index) + " is outside the bounds for an array of length " + a.array.size(), pos);
+
+        return a.array.get((int) ind);
+      }
+
+      if (index instanceof Range) {
+        Range range = (Range) index;
+
+        if (((Double) (range.start)).intValue() != range.start || ((Double) (range.end)).intValue() != range.end || ((Double) (range.step)).intValue() != range.step)
+          Util.printError("Range bounds and step must be integers, got '" + Util.stringify(index) + "'", pos);
+
+        if (range.start < 0 || range.start >= a.array.size() || range.end < 0 || range.end >= a.array.size())
+          Util.printError("Index out of bounds: range " + Util.stringify(range) + " bound is outside the bounds for an array of length " + a.array.size(), pos);
+
+        List<Object> res = new ArrayList<>();
+        while (range.hasNext()) {
+          res.add(a.array.get((int) toLong(range.next())));
+        }
+
+        return new Array(res);
+      }
+    }
+    else if (array instanceof String) {
+      String s = (String) array;
+
+      if (isNumber(index)) {
+        if (!isInteger(index))
+          Util.printError("Arrays can only be indexed by integers and ranges, got '" + Util.stringify(index) + "'", pos);
+
+        long ind = index instanceof BigInteger ? -1 : toLong(index);
+
+        if (ind < 0 || ind >= s.length())
+          Util.printError("Index out of bounds: index " + Util.stringify(index) + " is outside the bounds for an array of length " + s.length(), pos);
+
+        return new String(new char[] { s.charAt((int) ind) });
+      }
+
+      if (index instanceof Range) {
+        Range range = (Range) index;
+
+        if (((Double) (range.start)).intValue() != range.start || ((Double) (range.end)).intValue() != range.end || ((Double) (range.step)).intValue() != range.step)
+          Util.printError("Range bounds and step must be integers, got '" + Util.stringify(index) + "'", pos);
+
+        if (range.start < 0 || range.start >= s.length() || range.end < 0 || range.end >= s.length())
+          Util.printError("Index out of bounds: range " + Util.stringify(range) + " bound is outside the bounds for an array of length " + s.length(), pos);
+
+        List<Object> res = new ArrayList<>();
+        while (range.hasNext()) {
+          res.add(new String(new char[] { s.charAt((int) toLong(range.next())) }));
+        }
+
+        StringBuilder b = new StringBuilder();
+
+        for (Object o : res) {
+          b.append((String) o);
+        }
+
+        return b.toString();
+      }
+    }
+
+    return null;
+  }
+
+  public static int arrayIndex(Position pos, Object index) throws Exception {
+    if (index instanceof Long && (int) (long) index == (long) index)
+      return (int) (long) index;
+
+    // no array reaches an index past an int
+    if (!isInteger(index) || index instanceof BigInteger || (int) toLong(index) != toLong(index))
+      Util.printError("Arrays can only be indexed by integers, got '" + Util.stringify(index) + "'", pos);
+
+    return (int) toLong(index);
+  }
+
+  public static Callable callable(Object callee, int argc, Position pos) throws Exception {
+    if (!(callee instanceof Callable))
+      Util.printError("Can only call functions, got '" + Util.stringify(callee) + "'", pos);
+
+    Callable function = (Callable) callee;
+
+    if (argc != function.arity())
+      Util.printError("Expected " + function.arity() + " arguments, got " + argc, pos);
+
+    return function;
+  }
+
+  public static Range range(Position pos, Object start, Object end, Object step) throws Exception {
+    checkRange(pos, start, end, step);
+    return new Range(start, end, step);
+  }
+
+  public static void checkRange(Position pos, Object start, Object end, Object step) throws Exception {
+    if (!isNumber(start))
+      Util.printError("The start of the range must be a number, got '" + Util.stringify(start) + "'", pos);
+
+    if (!isNumber(end))
+      Util.printError("The end of the range must be a number, got '" + Util.stringify(end) + "'", pos);
+
+    if (!isNumber(step))
+      Util.printError("The step of the range must be a number, got '" + Util.stringify(step) + "'", pos);
+  }
+
+  // a range starting at an integer, by an integer step, yields integers
+  public static boolean isIntegral(Object start, Object step) {
+    return start instanceof Long && step instanceof Long;
+  }
+
+  // ---
+
+  public static void checkNumberOperand(Position pos, Object operand) throws Exception {
+    if (isNumber(operand)) return;
+    Util.printError("Operand must be a number | value: " + Util.stringify(operand), pos);
+  }
+
+  public static void checkNumberOperands(Position pos, Object left, Object right) throws Exception {
+    if (isNumber(left) && isNumber(right)) return;
+    Util.printError("Operands must be numbers | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), pos);
+  }
+
+  public static void checkIntegerOperands(Position pos, Object left, Object right, Position leftPos) throws Exception {
+    checkNumberOperands(pos, left, right);
+
+    if (isInteger(left) && isInteger(right)) return;
+    Util.printError("Can only apply bitwise operators to integers | values: left: " + Util.stringify(left) + ", right: " + Util.stringify(right), leftPos);
+  }
+
+  // --- Numbers
+
+  // integers are longs, or big integers past the range of a long, and every other number a double
+  public static boolean isNumber(Object value) {
+    return value instanceof Long || value instanceof Double || value instanceof BigInteger;
+  }
+
+  // the integers, which unlike doubles are exact
+  public static boolean isExact(Object value) {
+    return value instanceof Long || value instanceof BigInteger;
+  }
+
+  // integers, and the doubles holding one a long can hold too
+  public static boolean isInteger(Object value) {
+    if (isExact(value))
+      return true;
+
+    if (!(value instanceof Double))
+      return false;
+
+    double d = (double) value;
+    return d == Math.rint(d) && Math.abs(d) < 0x1p63;
+  }
+
+  public static double toDouble(Object number) {
+    return ((Number) number).doubleValue();
+  }
+
+  public static long toLong(Object integer) {
+    return ((Number) integer).longValue();
+  }
+
+  public static BigInteger toBig(Object integer) {
+    if (integer instanceof BigInteger)
+      return (BigInteger) integer;
+
+    return BigInteger.valueOf(toLong(integer));
+  }
+
+  // the integer part of a double, exactly; infinities and NaN keep the saturating cast
+  public static Object truncate(double d) {
+    if (Math.abs(d) < 0x1p63 || !Double.isFinite(d))
+      return (long) d;
+
+    return normalize(new BigDecimal(d).toBigInteger());
+  }
+
+  // a big integer that fits a long becomes one, so every integer has a single representation
+  public static Object normalize(BigInteger integer) {
+    if (integer.bitLength() < 64)
+      return integer.longValue();
+
+    return integer;
+  }
+
+  private static int signum(Object integer) {
+    if (integer instanceof BigInteger)
+      return ((BigInteger) integer).signum();
+
+    return Long.signum(toLong(integer));
+  }
+
+  // integer arithmetic that overflows a long continues in big integers
+  public static Object add(long left, long right) {
+    long result = left + right;
+
+    if (((left ^ result) & (right ^ result)) < 0)
+      return BigInteger.valueOf(left).add(BigInteger.valueOf(right));
+
+    return result;
+  }
+
+  public static Object subtract(long left, long right) {
+    long result = left - right;
+
+    if (((left ^ right) & (left ^ result)) < 0)
+      return BigInteger.valueOf(left).subtract(BigInteger.valueOf(right));
+
+    return result;
+  }
+
+  public static Object multiply(long left, long right) {
+    long result = left * right;
+
+    if (Math.multiplyHigh(left, right) != (result >> 63))
+      return BigInteger.valueOf(left).multiply(BigInteger.valueOf(right));
+
+    return result;
+  }
+
+  // orders numbers by value, integers exactly
+  public static int compare(Object left, Object right) {
+    if (left instanceof Long && right instanceof Long)
+      return Long.compare((long) left, (long) right);
+
+    if (isExact(left) && isExact(right))
+      return toBig(left).compareTo(toBig(right));
+
+    return Double.compare(toDouble(left), toDouble(right));
+  }
+}
@@ -0,0 +1,1172 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Rewrites the program before it runs: constant subexpressions and calls to pure natives with literal
+// arguments are folded, code that can never run is dropped, intrinsic calls that don't change
+// during a loop are computed once before it, products of a counted loop's variable become additions,
+// and calls to small functions are replaced by their body.
+// Common shapes of expressions are also marked for the interpreter to run in one step.
+// Anything that could report an error is left for run time, so errors keep their message and their moment.
+public class Optimizer implements Stmt.StmtVisitor<Stmt>, Expr.ExprVisitor<Expr> {
+  // pure, but their running time grows with their arguments
+  private static final Set<String> UNBOUNDED = Set.of("factorial", "fibonacci", "gcd", "lcm", "repeat");
+
+  // natives that change the length of an array
+  private static final Set<String> MUTATORS = Set.of("append", "push", "remove", "insert");
+
+  // what a loop does that could change the value of an expression in it
+  private static class Effects {
+    final Set<String> assigned = new HashSet<>();
+
+    // calls a Quick function or assigns through a reference, either of which may change any variable
+    boolean isOpaque = false;
+    boolean mutatesArrays = false;
+
+    void add(Effects inner) {
+      this.assigned.addAll(inner.assigned);
+      this.isOpaque |= inner.isOpaque;
+      this.mutatesArrays |= inner.mutatesArrays;
+    }
+  }
+
+  // the calls hoisted out of a loop, as variables declared right before it
+  private static class Hoisting {
+    final Effects effects;
+
+    // the scopes around the loop; the names declared in them are defined by the time it runs
+    final int scopes;
+
+    final Map<String, Token> names = new HashMap<>();
+    final List<Stmt> declarations = new ArrayList<>();
+
+    // the variable of a loop over a range of integers the body never assigns, with the range's start and step
+    Token induction = null;
+    Object start;
+    Object step;
+
+    // the products of the loop variable by each integer, kept in variables increased at the start of every iteration
+    final Map<Object, Token> products = new HashMap<>();
+    final List<Stmt> increments = new ArrayList<>();
+
+    Hoisting(Effects effects, int scopes) {
+      this.effects = effects;
+      this.scopes = scopes;
+    }
+  }
+
+  // the body of a function that can be inlined, with the names of its parameters
+  private record Inline(List<String> params, Expr body) {}
+
+  // the most nodes an inlined body can have
+  private static final int INLINE_BUDGET = 16;
+
+  // run with -Dquick.logInlining=true to see each call that was inlined
+  private static final boolean LOG_INLINING = Boolean.getBoolean("quick.logInlining");
+
+  // natives receive an interpreter, so the optimizer keeps one around to run the pure ones
+  private final Interpreter interpreter = new Interpreter();
+
+  // in the REPL a later line may assign to a function an earlier one calls, so nothing is inlined
+  private final boolean isRepl;
+
+  // every name the program declares; a native with one of these names may be shadowed where it's called
+  private final Set<String> declared = new HashSet<>();
+  private boolean knowsDeclarations;
+
+  // names declared more than once, assigned or referenced, whose value can't be known from their declaration
+  private final Set<String> unstable = new HashSet<>();
+
+  private final Map<String, Inline> inlines = new HashMap<>();
+
+  // the names declared so far in each enclosing scope
+  private final List<Set<String>> scopes = new ArrayList<>();
+
+  private Effects effects = null;
+  private Hoisting hoisting = null;
+  private int hoisted = 0;
+
+  public Optimizer(boolean isRepl) {
+    this.isRepl = isRepl;
+  }
+
+  public List<Stmt> optimize(List<Stmt> statements) throws Exception {
+    // the first pass also collects the declared names, which folding a call to a native and hoisting need
+    this.knowsDeclarations = false;
+    statements = this.optimizeScope(statements);
+
+    this.knowsDeclarations = true;
+    this.inlines.clear();
+
+    return this.optimizeScope(statements);
+  }
+
+  private List<Stmt> optimizeScope(List<Stmt> statements) throws Exception {
+    this.scopes.add(new HashSet<>());
+
+    try {
+      return this.optimizeAll(statements);
+    }
+    finally {
+      this.scopes.remove(this.scopes.size() - 1);
+    }
+  }
+
+  private List<Stmt> optimizeFunction(List<Token> params, List<Stmt> body) throws Exception {
+    Hoisting hoisting = this.hoisting;
+    this.hoisting = null;
+
+    this.scopes.add(new HashSet<>());
+
+    for (Token param : params)
+      this.declare(param.lexeme());
+
+    // the body runs whenever the function is called, so nothing is hoisted from it into the code around it
+    try {
+      return this.optimizeScope(body);
+    }
+    finally {
+      this.scopes.remove(this.scopes.size() - 1);
+      this.hoisting = hoisting;
+    }
+  }
+
+  private List<Stmt> optimizeAll(List<Stmt> statements) throws Exception {
+    List<Stmt> result = new ArrayList<>(statements.size());
+    boolean reachable = true;
+
+    for (Stmt stmt : statements) {
+      // left by a parse error
+      if (stmt == null) {
+        result.add(null);
+        continue;
+      }
+
+      // the declarations after a 'return', 'break' or 'continue' stay, as the resolver sees their names in the whole block
+      if (!reachable && !(stmt instanceof Stmt.LetStmt || stmt instanceof Stmt.FnStmt))
+        continue;
+
+      Stmt optimized = stmt.accept(this);
+
+      if (optimized != null)
+        result.add(optimized);
+
+      if (stmt instanceof Stmt.ReturnStmt || stmt instanceof Stmt.BreakStmt || stmt instanceof Stmt.ContinueStmt)
+        reachable = false;
+    }
+
+    return result;
+  }
+
+  private Stmt.BlockStmt block(Stmt.BlockStmt block) throws Exception {
+    return new Stmt.BlockStmt(block.pos, this.optimizeScope(block.statements));
+  }
+
+  private Expr optimize(Expr expr) throws Exception {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  private List<Expr> optimizeExprs(List<Expr> exprs) throws Exception {
+    List<Expr> result = new ArrayList<>(exprs.size());
+
+    for (Expr expr : exprs)
+      result.add(this.optimize(expr));
+
+    return result;
+  }
+
+  private void declare(String name) {
+    if (!this.declared.add(name) && !this.knowsDeclarations)
+      this.unstable.add(name);
+
+    this.scopes.get(this.scopes.size() - 1).add(name);
+    this.assigned(name);
+  }
+
+  private void assigned(String name) {
+    if (this.effects != null)
+      this.effects.assigned.add(name);
+  }
+
+  private static boolean isLiteral(Expr expr) {
+    return expr instanceof Expr.LiteralExpr;
+  }
+
+  private static Object value(Expr expr) {
+    return ((Expr.LiteralExpr) expr).value;
+  }
+
+  // ---
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
+    return this.block(stmt);
+  }
+
+  @Override
+  public Stmt visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
+    return new Stmt.ExprStmt(stmt.pos, this.optimize(stmt.expr));
+  }
+
+  @Override
+  public Stmt visitFnStmt(Stmt.FnStmt stmt) throws Exception {
+    String name = stmt.name.lexeme();
+    this.declare(name);
+
+    List<Stmt> body = this.optimizeFunction(stmt.params, stmt.body);
+
+    // registered after its body is optimized, so a function never inlines into itself
+    if (this.knowsDeclarations && !this.isRepl && !this.unstable.contains(name))
+      this.registerInline(name, stmt.params, body);
+
+    return new Stmt.FnStmt(stmt.pos, stmt.name, stmt.params, body);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.IfStmt stmt) throws Exception {
+    Expr condition = this.optimize(stmt.condition);
+
+    // only the branch taken is kept, as a block so its declarations keep their scope,
+    // and at the position of the 'if', which errors about a 'break' or 'return' leaving it mention
+    if (isLiteral(condition)) {
+      Stmt.BlockStmt branch = Operators.isTruthy(value(condition)) ? stmt.thenBranch : stmt.elseBranch;
+
+      if (branch == null)
+        return null;
+
+      return new Stmt.BlockStmt(stmt.pos, this.optimizeScope(branch.statements));
+    }
+
+    Stmt.BlockStmt elseBranch = stmt.elseBranch != null ? this.block(stmt.elseBranch) : null;
+    return new Stmt.IfStmt(stmt.pos, condition, this.block(stmt.thenBranch), elseBranch);
+  }
+
+  @Override
+  public Stmt visitLetStmt(Stmt.LetStmt stmt) throws Exception {
+    Expr value = this.optimize(stmt.value);
+    this.declare(stmt.name.lexeme());
+
+    return new Stmt.LetStmt(stmt.pos, stmt.name, value);
+  }
+
+  @Override
+  public Stmt visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
+    Expr iterable = this.optimize(stmt.iterable);
+
+    Effects outer = this.enterLoop();
+    Stmt.BlockStmt block = this.loopBlock(stmt.variable, stmt.block);
+    Effects effects = this.exitLoop(outer);
+
+    // the loop assigns its variable between iterations, which is only recorded once it's known whether the body does too
+    boolean isInduction = stmt.variable != null && isCounted(iterable) && !effects.assigned.contains(stmt.variable.lexeme());
+
+    if (stmt.variable != null) {
+      effects.assigned.add(stmt.variable.lexeme());
+      this.assigned(stmt.variable.lexeme());
+    }
+
+    if (!this.canHoist(effects))
+      return new Stmt.LoopStmt(stmt.pos, stmt.variable, iterable, block);
+
+    Hoisting hoisting = this.beginHoisting(effects);
+
+    if (isInduction) {
+      Expr.RangeExpr range = (Expr.RangeExpr) iterable;
+
+      this.hoisting.induction = stmt.variable;
+      this.hoisting.start = value(range.start);
+      this.hoisting.step = range.step == null ? 1L : value(range.step);
+    }
+
+    block = this.loopBlock(stmt.variable, block);
+
+    if (!this.hoisting.increments.isEmpty()) {
+      List<Stmt> statements = new ArrayList<>(this.hoisting.increments);
+      statements.addAll(block.statements);
+
+      block = new Stmt.BlockStmt(block.pos, statements);
+    }
+
+    return this.endHoisting(hoisting, new Stmt.LoopStmt(stmt.pos, stmt.variable, iterable, block));
+  }
+
+  // the loop variable lives in a scope of its own, around the body's
+  private Stmt.BlockStmt loopBlock(Token variable, Stmt.BlockStmt block) throws Exception {
+    this.scopes.add(new HashSet<>());
+
+    if (variable != null) {
+      Effects effects = this.effects;
+
+      this.effects = null;
+      this.declare(variable.lexeme());
+      this.effects = effects;
+    }
+
+    try {
+      return this.block(block);
+    }
+    finally {
+      this.scopes.remove(this.scopes.size() - 1);
+    }
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+    return new Stmt.ReturnStmt(stmt.pos, this.optimize(stmt.value));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
+    Effects outer = this.enterLoop();
+    Expr condition = this.optimize(stmt.condition);
+    Stmt.BlockStmt block = this.block(stmt.block);
+    Effects effects = this.exitLoop(outer);
+
+    if (isLiteral(condition) && !Operators.isTruthy(value(condition)))
+      return null;
+
+    if (!this.canHoist(effects))
+      return new Stmt.WhileStmt(stmt.pos, condition, block);
+
+    Hoisting hoisting = this.beginHoisting(effects);
+    condition = this.optimize(condition);
+    block = this.block(block);
+
+    return this.endHoisting(hoisting, new Stmt.WhileStmt(stmt.pos, condition, block));
+  }
+
+  // --- Loops
+
+  // the effects of the enclosing loop, to restore once this one is optimized
+  private Effects enterLoop() {
+    Effects outer = this.effects;
+    this.effects = new Effects();
+
+    return outer;
+  }
+
+  private Effects exitLoop(Effects outer) {
+    Effects effects = this.effects;
+    this.effects = outer;
+
+    if (outer != null)
+      outer.add(effects);
+
+    return effects;
+  }
+
+  private boolean canHoist(Effects effects) {
+    return this.knowsDeclarations && !effects.isOpaque;
+  }
+
+  // the loop is optimized again, with the invariant calls in it replaced as they're met
+  private Hoisting beginHoisting(Effects effects) {
+    Hoisting outer = this.hoisting;
+    this.hoisting = new Hoisting(effects, this.scopes.size());
+
+    return outer;
+  }
+
+  private Stmt endHoisting(Hoisting outer, Stmt loop) {
+    Hoisting hoisting = this.hoisting;
+    this.hoisting = outer;
+
+    if (hoisting.declarations.isEmpty())
+      return loop;
+
+    for (Stmt declaration : hoisting.declarations)
+      this.assigned(((Stmt.LetStmt) declaration).name.lexeme());
+
+    List<Stmt> statements = new ArrayList<>(hoisting.declarations);
+    statements.add(loop);
+
+    return new Stmt.BlockStmt(loop.pos, statements);
+  }
+
+  // an intrinsic is pure and can't fail, so calling it once before the loop, even one that
+  // doesn't iterate, is the same as calling it in every iteration, as long as its arguments don't change
+  private boolean isInvariant(Expr expr) {
+    if (isLiteral(expr))
+      return true;
+
+    if (expr instanceof Expr.IdentifierExpr) {
+      String name = ((Expr.IdentifierExpr) expr).name.lexeme();
+
+      if (this.hoisting.names.containsKey(name))
+        return true;
+
+      return !this.hoisting.effects.assigned.contains(name) && this.isDefinedBefore(name);
+    }
+
+    if (!(expr instanceof Expr.CallExpr))
+      return false;
+
+    Expr.CallExpr call = (Expr.CallExpr) expr;
+
+    if (!(call.callee instanceof Expr.IdentifierExpr))
+      return false;
+
+    String name = ((Expr.IdentifierExpr) call.callee).name.lexeme();
+    Intrinsic intrinsic = Intrinsic.of(name, call.args.size());
+
+    if (intrinsic == null || this.declared.contains(name))
+      return false;
+
+    if (intrinsic == Intrinsic.Len && this.hoisting.effects.mutatesArrays)
+      return false;
+
+    for (Expr arg : call.args) {
+      if (!this.isInvariant(arg))
+        return false;
+    }
+
+    return true;
+  }
+
+  // a range of integers from a literal start by a literal positive step, which yields exactly start + n * step
+  private static boolean isCounted(Expr iterable) {
+    if (!(iterable instanceof Expr.RangeExpr))
+      return false;
+
+    Expr.RangeExpr range = (Expr.RangeExpr) iterable;
+
+    if (!isLiteral(range.start) || !(value(range.start) instanceof Long))
+      return false;
+
+    return range.step == null || (isLiteral(range.step) && value(range.step) instanceof Long && (long) value(range.step) > 0);
+  }
+
+  // 'i * c' for the loop variable i and an integer c; its value in the nth iteration, (start + n * step) * c,
+  // is kept in a variable that starts at start * c - step * c and grows by step * c as each iteration begins,
+  // so a 'continue' doesn't skip it. integers are exact, so the sum always equals the product
+  private Expr reduce(Expr variable, Expr factor) throws Exception {
+    if (!(variable instanceof Expr.IdentifierExpr) || !isLiteral(factor) || !(value(factor) instanceof Long))
+      return null;
+
+    Token induction = this.hoisting.induction;
+
+    if (!((Expr.IdentifierExpr) variable).name.lexeme().equals(induction.lexeme()))
+      return null;
+
+    Object c = value(factor);
+    Token name = this.hoisting.products.get(c);
+
+    if (name == null) {
+      Position pos = induction.pos();
+      Object increment = Operators.times(pos, this.hoisting.step, c);
+      Object initial = Operators.minus(pos, Operators.times(pos, this.hoisting.start, c), increment);
+
+      name = new Token(TokenType.Identifier, "$" + this.hoisted++, null, pos);
+      this.hoisting.products.put(c, name);
+      this.hoisting.declarations.add(new Stmt.LetStmt(pos, name, new Expr.LiteralExpr(pos, initial)));
+
+      Token operator = new Token(TokenType.PlusEqual, "+=", null, pos);
+      Expr.AssignExpr assign = new Expr.AssignExpr(pos, name, operator, new Expr.IdentifierExpr(pos, name), new Expr.LiteralExpr(pos, increment), false);
+
+      fuseIncrement(assign);
+      this.hoisting.increments.add(new Stmt.ExprStmt(pos, assign));
+    }
+
+    return new Expr.IdentifierExpr(variable.pos, name);
+  }
+
+  private boolean isDefinedBefore(String name) {
+    for (int i = 0; i < this.hoisting.scopes; i++) {
+      if (this.scopes.get(i).contains(name))
+        return true;
+    }
+
+    return false;
+  }
+
+  // the same call made twice in the loop is hoisted once
+  private Expr hoist(Expr.CallExpr call) {
+    String key = key(call);
+    Token name = this.hoisting.names.get(key);
+
+    if (name == null) {
+      // '$' can't start an identifier, so the name can't clash with the program's
+      name = new Token(TokenType.Identifier, "$" + this.hoisted++, null, call.pos);
+
+      this.hoisting.names.put(key, name);
+      this.hoisting.names.put(name.lexeme(), name);
+      this.hoisting.declarations.add(new Stmt.LetStmt(call.pos, name, call));
+    }
+
+    return new Expr.IdentifierExpr(call.pos, name);
+  }
+
+  private static String key(Expr expr) {
+    if (expr instanceof Expr.LiteralExpr) {
+      Object value = value(expr);
+      return value == null ? "nil" : value.getClass().getSimpleName() + ":" + value;
+    }
+
+    if (expr instanceof Expr.IdentifierExpr)
+      return ((Expr.IdentifierExpr) expr).name.lexeme();
+
+    Expr.CallExpr call = (Expr.CallExpr) expr;
+    StringBuilder b = new StringBuilder(key(call.callee)).append('(');
+
+    for (Expr arg : call.args)
+      b.append(key(arg)).append(',');
+
+    return b.append(')').toString();
+  }
+
+  // ---
+
+  @Override
+  public Expr visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
+    return new Expr.ArrayExpr(expr.pos, this.optimizeExprs(expr.items));
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+    if (expr.isRef && this.effects != null)
+      this.effects.isOpaque = true;
+    else
+      this.assigned(expr.name.lexeme());
+
+    if (!expr.isRef && !this.knowsDeclarations)
+      this.unstable.add(expr.name.lexeme());
+
+    Expr.AssignExpr assign = new Expr.AssignExpr(expr.pos, expr.name, expr.operator, expr.lValue, this.optimize(expr.value), expr.isRef);
+
+    if (!assign.isRef)
+      fuseIncrement(assign);
+
+    return assign;
+  }
+
+  @Override
+  public Expr visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
+    this.assigned(expr.name.lexeme());
+    return new Expr.AssignIndexExpr(expr.pos, expr.name, expr.operator, this.optimize(expr.index), expr.expr, this.optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+    Expr left = this.optimize(expr.left);
+    Expr right = this.optimize(expr.right);
+
+    if (isLiteral(left) && isLiteral(right) && canFold(expr.operator.type(), value(left), value(right)))
+      return new Expr.LiteralExpr(expr.pos, fold(expr.operator, value(left), value(right)));
+
+    // nested functions run later, with the hoisting off, so a product met here is the loop variable's in the current iteration
+    if (expr.operator.type() == TokenType.Star && this.hoisting != null && this.hoisting.induction != null) {
+      Expr product = this.reduce(left, right);
+
+      if (product == null)
+        product = this.reduce(right, left);
+
+      if (product != null)
+        return product;
+    }
+
+    Expr.BinaryExpr binary = new Expr.BinaryExpr(expr.pos, left, expr.operator, right);
+
+    if (isComparison(binary.operator.type()) && isOperand(left) && isOperand(right))
+      binary.fused = Expr.Fused.Compare;
+
+    return binary;
+  }
+
+  // whether the operator can't fail on these operands
+  private static boolean canFold(TokenType operator, Object left, Object right) {
+    boolean numbers = Operators.isNumber(left) && Operators.isNumber(right);
+    boolean integers = Operators.isInteger(left) && Operators.isInteger(right);
+
+    switch (operator) {
+      case DoubleEqual, BangEqual, Plus:
+        return true;
+
+      case Greater, GreaterEqual, Less, LessEqual, Minus, Star, Modulo:
+        return numbers;
+
+      case Slash:
+        return numbers && Operators.toDouble(right) != 0.0;
+
+      case RShift:
+        return integers && Operators.compare(right, 0L) >= 0;
+
+      // a count too big to shift by is left to fail at run time
+      case LShift:
+        return integers && Operators.compare(right, 0L) >= 0 && Operators.compare(right, 64L) < 0;
+
+      case LandKw, LorKw, LxorKw:
+        return integers;
+
+      default:
+        return false;
+    }
+  }
+
+  private static Object fold(Token operator, Object left, Object right) throws Exception {
+    Position pos = operator.pos();
+
+    switch (operator.type()) {
+      case DoubleEqual: return Operators.isEqual(left, right);
+      case BangEqual: return Operators.notEqual(left, right);
+      case Greater: return Operators.greater(pos, left, right);
+      case GreaterEqual: return Operators.greaterEqual(pos, left, right);
+      case Less: return Operators.less(pos, left, right);
+      case LessEqual: return Operators.lessEqual(pos, left, right);
+      case Plus: return Operators.plus(pos, left, right);
+      case Minus: return Operators.minus(pos, left, right);
+      case Star: return Operators.times(pos, left, right);
+      case Slash: return Operators.divide(pos, left, right, pos);
+      case Modulo: return Operators.modulo(pos, left, right);
+      case LShift: return Operators.lShift(pos, left, right, pos);
+      case RShift: return Operators.rShift(pos, left, right, pos);
+      case LandKw: return Operators.bitAnd(pos, left, right, pos);
+      case LorKw: return Operators.bitOr(pos, left, right, pos);
+      default: return Operators.bitXor(pos, left, right, pos);
+    }
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.CallExpr expr) throws Exception {
+    Expr callee = this.optimize(expr.callee);
+    List<Expr> args = this.optimizeExprs(expr.args);
+
+    if (this.knowsDeclarations && callee instanceof Expr.IdentifierExpr) {
+      Object value = this.callNative(((Expr.IdentifierExpr) callee).name.lexeme(), args);
+
+      if (value != this)
+        return new Expr.LiteralExpr(expr.pos, value);
+    }
+
+    this.called(callee);
+
+    Expr inlined = this.inline(expr.pos, callee, args);
+
+    if (inlined != null)
+      return inlined;
+
+    Expr.CallExpr call = new Expr.CallExpr(expr.pos, callee, args);
+
+    if (this.hoisting != null && this.isInvariant(call))
+      return this.hoist(call);
+
+    if (this.knowsDeclarations && args.size() == 1 && isCallTo(callee, "println") && this.isNative("println"))
+      call.fused = Expr.Fused.Println;
+
+    return call;
+  }
+
+  private void called(Expr callee) {
+    if (this.effects == null)
+      return;
+
+    String name = callee instanceof Expr.IdentifierExpr ? ((Expr.IdentifierExpr) callee).name.lexeme() : null;
+
+    // natives don't assign variables, and only a few change arrays
+    if (name == null || this.declared.contains(name) || this.interpreter.globals.scope().slot(name) < 0)
+      this.effects.isOpaque = true;
+    else if (MUTATORS.contains(name))
+      this.effects.mutatesArrays = true;
+  }
+
+  // the result of a pure native called with literal arguments, or the optimizer itself when the call stays
+  private Object callNative(String name, List<Expr> args) {
+    Environment natives = this.interpreter.globals;
+    int slot = natives.scope().slot(name);
+
+    if (slot < 0 || this.declared.contains(name) || UNBOUNDED.contains(name))
+      return this;
+
+    Native function = (Native) natives.get(slot);
+
+    if (!function.isPure || function.arity() != args.size())
+      return this;
+
+    List<Object> values = new ArrayList<>(args.size());
+
+    for (Expr arg : args) {
+      if (!isLiteral(arg))
+        return this;
+
+      values.add(value(arg));
+    }
+
+    Object value;
+
+    // a native failing is left to fail at run time
+    try {
+      value = function.call(this.interpreter, values);
+    }
+    catch (Exception e) {
+      return this;
+    }
+
+    if (value == null || Operators.isNumber(value) || value instanceof String || value instanceof Boolean)
+      return value;
+
+    return this;
+  }
+
+  // --- Superinstructions
+
+  // i = i + c, i += c and i++, and the same with subtraction, for a number c
+  private static void fuseIncrement(Expr.AssignExpr assign) {
+    TokenType operator = assign.operator.type();
+    Expr.IdentifierExpr incremented = null;
+    Expr step = null;
+    boolean isMinus = false;
+
+    switch (operator) {
+      case PlusEqual, DoublePlus, MinusEqual, DoubleMinus:
+        incremented = (Expr.IdentifierExpr) assign.lValue;
+        step = assign.value;
+        isMinus = operator == TokenType.MinusEqual || operator == TokenType.DoubleMinus;
+        break;
+
+      case Equal:
+        if (!(assign.value instanceof Expr.BinaryExpr))
+          return;
+
+        Expr.BinaryExpr binary = (Expr.BinaryExpr) assign.value;
+        TokenType binaryOperator = binary.operator.type();
+
+        if (binaryOperator != TokenType.Plus && binaryOperator != TokenType.Minus)
+          return;
+
+        if (!(binary.left instanceof Expr.IdentifierExpr) || !((Expr.IdentifierExpr) binary.left).name.lexeme().equals(assign.name.lexeme()))
+          return;
+
+        incremented = (Expr.IdentifierExpr) binary.left;
+        step = binary.right;
+        isMinus = binaryOperator == TokenType.Minus;
+        break;
+
+      default:
+        return;
+    }
+
+    // a big integer step isn't worth the fast path
+    if (!isLiteral(step) || !(value(step) instanceof Long || value(step) instanceof Double))
+      return;
+
+    // subtracting a number is adding its negation
+    assign.fused = Expr.Fused.Increment;
+    assign.incremented = incremented;
+    assign.step = value(step);
+
+    if (isMinus)
+      assign.step = assign.step instanceof Long ? Operators.subtract(0, (long) assign.step) : (Object) (-(double) assign.step);
+  }
+
+  private static boolean isComparison(TokenType operator) {
+    switch (operator) {
+      case Greater, GreaterEqual, Less, LessEqual:
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  // a variable or a number, which the interpreter reads without visiting
+  private static boolean isOperand(Expr expr) {
+    return expr instanceof Expr.IdentifierExpr || (isLiteral(expr) && Operators.isNumber(value(expr)));
+  }
+
+  private static boolean isCallTo(Expr callee, String name) {
+    return callee instanceof Expr.IdentifierExpr && ((Expr.IdentifierExpr) callee).name.lexeme().equals(name);
+  }
+
+  // --- Inlining
+
+  // a function can be inlined when its body only returns a small expression of its parameters,
+  // literals and natives, which makes it the same wherever it's substituted
+  private void registerInline(String name, List<Token> params, List<Stmt> body) {
+    if (body.size() != 1 || !(body.get(0) instanceof Stmt.ReturnStmt))
+      return;
+
+    Expr value = ((Stmt.ReturnStmt) body.get(0)).value;
+    List<String> names = new ArrayList<>();
+
+    for (Token param : params)
+      names.add(param.lexeme());
+
+    if (value != null && this.size(value, names) <= INLINE_BUDGET)
+      this.inlines.put(name, new Inline(names, value));
+  }
+
+  // the number of nodes in an expression that can be inlined, over the budget when it can't be
+  private int size(Expr expr, List<String> params) {
+    final int never = INLINE_BUDGET + 1;
+
+    if (expr instanceof Expr.LiteralExpr)
+      return 1;
+
+    if (expr instanceof Expr.IdentifierExpr) {
+      String name = ((Expr.IdentifierExpr) expr).name.lexeme();
+      return params.contains(name) || this.isNative(name) ? 1 : never;
+    }
+
+    if (expr instanceof Expr.GroupingExpr)
+      return this.size(((Expr.GroupingExpr) expr).expr, params);
+
+    if (expr instanceof Expr.BinaryExpr) {
+      Expr.BinaryExpr binary = (Expr.BinaryExpr) expr;
+      return 1 + this.size(binary.left, params) + this.size(binary.right, params);
+    }
+
+    if (expr instanceof Expr.UnaryExpr) {
+      Expr.UnaryExpr unary = (Expr.UnaryExpr) expr;
+      TokenType operator = unary.operator.type();
+
+      if (operator != TokenType.Minus && operator != TokenType.Bang && operator != TokenType.LnotKw)
+        return never;
+
+      return 1 + this.size(unary.operand, params);
+    }
+
+    if (expr instanceof Expr.ArrayIndexExpr) {
+      Expr.ArrayIndexExpr index = (Expr.ArrayIndexExpr) expr;
+      return 1 + this.size(index.array, params) + this.size(index.index, params);
+    }
+
+    if (expr instanceof Expr.TernaryExpr) {
+      Expr.TernaryExpr ternary = (Expr.TernaryExpr) expr;
+      return 1 + this.size(ternary.condition, params) + this.size(ternary.thenBranch, params) + this.size(ternary.elseBranch, params);
+    }
+
+    if (expr instanceof Expr.LogicalExpr) {
+      Expr.LogicalExpr logical = (Expr.LogicalExpr) expr;
+      return 1 + this.size(logical.left, params) + this.size(logical.right, params);
+    }
+
+    // natives don't call back into Quick code, so the body can't recurse
+    if (expr instanceof Expr.CallExpr) {
+      Expr.CallExpr call = (Expr.CallExpr) expr;
+
+      if (!(call.callee instanceof Expr.IdentifierExpr) || !this.isNative(((Expr.IdentifierExpr) call.callee).name.lexeme()))
+        return never;
+
+      int size = 1;
+
+      for (Expr arg : call.args)
+        size += this.size(arg, params);
+
+      return size;
+    }
+
+    return never;
+  }
+
+  private boolean isNative(String name) {
+    return this.interpreter.globals.scope().slot(name) >= 0 && !this.declared.contains(name);
+  }
+
+  // the body of the function called, with the arguments in place of the parameters, or null when the call stays
+  private Expr inline(Position pos, Expr callee, List<Expr> args) throws Exception {
+    if (!(callee instanceof Expr.IdentifierExpr))
+      return null;
+
+    String name = ((Expr.IdentifierExpr) callee).name.lexeme();
+    Inline inline = this.inlines.get(name);
+
+    // the name must be declared before the call, around it, so the call can't happen before the function exists
+    if (inline == null || inline.params.size() != args.size() || !this.isDeclared(name))
+      return null;
+
+    Map<String, Expr> values = new HashMap<>();
+    Set<String> evaluated = new HashSet<>();
+
+    for (int i = 0; i < args.size(); i++) {
+      values.put(inline.params.get(i), args.get(i));
+
+      // literals can be read any number of times, in any order
+      if (!isLiteral(args.get(i)))
+        evaluated.add(inline.params.get(i));
+    }
+
+    List<String> order = new ArrayList<>();
+
+    if (!evaluationOrder(inline.body, evaluated, order))
+      return null;
+
+    // the arguments are evaluated once each, in order and before anything else the body does, as in the call
+    List<String> reads = new ArrayList<>(order);
+    reads.removeIf(read -> read == null);
+
+    List<String> expected = new ArrayList<>(inline.params);
+    expected.retainAll(evaluated);
+
+    int lastRead = order.size() - 1;
+
+    while (lastRead >= 0 && order.get(lastRead) == null)
+      lastRead--;
+
+    int firstOperation = order.indexOf(null);
+
+    if (!reads.equals(expected) || (firstOperation >= 0 && firstOperation < lastRead))
+      return null;
+
+    if (LOG_INLINING)
+      System.err.println("Inlined '" + name + "' at " + (pos.line + 1) + ":" + (pos.col + 1));
+
+    return this.optimize(new Expr.GroupingExpr(pos, substitute(inline.body, values)));
+  }
+
+  private boolean isDeclared(String name) {
+    for (Set<String> scope : this.scopes) {
+      if (scope.contains(name))
+        return true;
+    }
+
+    return false;
+  }
+
+  // adds to order the parameters in evaluated as the body reads them, and null for each operation,
+  // which could fail or have an effect; false when a parameter is read only on some paths
+  private static boolean evaluationOrder(Expr expr, Set<String> evaluated, List<String> order) {
+    if (expr instanceof Expr.LiteralExpr)
+      return true;
+
+    if (expr instanceof Expr.IdentifierExpr) {
+      String name = ((Expr.IdentifierExpr) expr).name.lexeme();
+
+      if (evaluated.contains(name))
+        order.add(name);
+
+      return true;
+    }
+
+    if (expr instanceof Expr.GroupingExpr)
+      return evaluationOrder(((Expr.GroupingExpr) expr).expr, evaluated, order);
+
+    if (expr instanceof Expr.TernaryExpr) {
+      Expr.TernaryExpr ternary = (Expr.TernaryExpr) expr;
+      List<String> branches = new ArrayList<>();
+
+      if (!evaluationOrder(ternary.condition, evaluated, order))
+        return false;
+
+      evaluationOrder(ternary.thenBranch, evaluated, branches);
+      evaluationOrder(ternary.elseBranch, evaluated, branches);
+
+      if (branches.stream().anyMatch(read -> read != null))
+        return false;
+
+      order.add(null);
+      return true;
+    }
+
+    // the right operand may not run, so it can't be where an argument is read
+    if (expr instanceof Expr.LogicalExpr) {
+      Expr.LogicalExpr logical = (Expr.LogicalExpr) expr;
+      List<String> right = new ArrayList<>();
+
+      if (!evaluationOrder(logical.left, evaluated, order))
+        return false;
+
+      evaluationOrder(logical.right, evaluated, right);
+
+      if (right.stream().anyMatch(read -> read != null))
+        return false;
+
+      order.add(null);
+      return true;
+    }
+
+    List<Expr> operands = new ArrayList<>();
+
+    if (expr instanceof Expr.BinaryExpr) {
+      operands.add(((Expr.BinaryExpr) expr).left);
+      operands.add(((Expr.BinaryExpr) expr).right);
+    }
+    else if (expr instanceof Expr.UnaryExpr)
+      operands.add(((Expr.UnaryExpr) expr).operand);
+    else if (expr instanceof Expr.ArrayIndexExpr) {
+      operands.add(((Expr.ArrayIndexExpr) expr).array);
+      operands.add(((Expr.ArrayIndexExpr) expr).index);
+    }
+    else
+      operands.addAll(((Expr.CallExpr) expr).args);
+
+    for (Expr operand : operands) {
+      if (!evaluationOrder(operand, evaluated, order))
+        return false;
+    }
+
+    order.add(null);
+    return true;
+  }
+
+  // a copy of the body, as each call site resolves and specializes its own nodes
+  private static Expr substitute(Expr expr, Map<String, Expr> values) {
+    if (expr instanceof Expr.LiteralExpr)
+      return expr;
+
+    if (expr instanceof Expr.IdentifierExpr) {
+      Expr.IdentifierExpr identifier = (Expr.IdentifierExpr) expr;
+      Expr value = values.get(identifier.name.lexeme());
+
+      if (value == null)
+        return new Expr.IdentifierExpr(identifier.pos, identifier.name);
+
+      // errors are reported where the parameter was, as they are in the function
+      return isLiteral(value) ? new Expr.LiteralExpr(identifier.pos, value(value)) : value;
+    }
+
+    if (expr instanceof Expr.GroupingExpr)
+      return new Expr.GroupingExpr(expr.pos, substitute(((Expr.GroupingExpr) expr).expr, values));
+
+    if (expr instanceof Expr.BinaryExpr) {
+      Expr.BinaryExpr binary = (Expr.BinaryExpr) expr;
+      Expr left = substitute(binary.left, values);
+
+      // some operators report errors at their left operand
+      if (left.pos != binary.left.pos)
+        left = new Expr.GroupingExpr(binary.left.pos, left);
+
+      return new Expr.BinaryExpr(binary.pos, left, binary.operator, substitute(binary.right, values));
+    }
+
+    if (expr instanceof Expr.UnaryExpr) {
+      Expr.UnaryExpr unary = (Expr.UnaryExpr) expr;
+      return new Expr.UnaryExpr(unary.pos, unary.operator, substitute(unary.operand, values));
+    }
+
+    if (expr instanceof Expr.ArrayIndexExpr) {
+      Expr.ArrayIndexExpr index = (Expr.ArrayIndexExpr) expr;
+      return new Expr.ArrayIndexExpr(index.pos, substitute(index.array, values), substitute(index.index, values));
+    }
+
+    if (expr instanceof Expr.TernaryExpr) {
+      Expr.TernaryExpr ternary = (Expr.TernaryExpr) expr;
+      return new Expr.TernaryExpr(ternary.pos, substitute(ternary.condition, values), substitute(ternary.thenBranch, values), substitute(ternary.elseBranch, values));
+    }
+
+    if (expr instanceof Expr.LogicalExpr) {
+      Expr.LogicalExpr logical = (Expr.LogicalExpr) expr;
+      return new Expr.LogicalExpr(logical.pos, substitute(logical.left, values), logical.operator, substitute(logical.right, values));
+    }
+
+    Expr.CallExpr call = (Expr.CallExpr) expr;
+    List<Expr> args = new ArrayList<>();
+
+    for (Expr arg : call.args)
+      args.add(substitute(arg, values));
+
+    return new Expr.CallExpr(call.pos, substitute(call.callee, values), args);
+  }
+
+  @Override
+  public Expr visitFnExpr(Expr.FnExpr expr) throws Exception {
+    return new Expr.FnExpr(expr.pos, expr.params, this.optimizeFunction(expr.params, expr.body));
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
+    Expr inner = this.optimize(expr.expr);
+
+    if (isLiteral(inner))
+      return new Expr.LiteralExpr(expr.pos, value(inner));
+
+    return new Expr.GroupingExpr(expr.pos, inner);
+  }
+
+  @Override
+  public Expr visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
+    Expr.ArrayIndexExpr index = new Expr.ArrayIndexExpr(expr.pos, this.optimize(expr.array), this.optimize(expr.index));
+
+    if (index.array instanceof Expr.IdentifierExpr && index.index instanceof Expr.IdentifierExpr)
+      index.fused = Expr.Fused.VariableIndex;
+
+    return index;
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+    Expr left = this.optimize(expr.left);
+    Expr right = this.optimize(expr.right);
+
+    if (!isLiteral(left))
+      return new Expr.LogicalExpr(expr.pos, left, expr.operator, right);
+
+    // the left operand decides the result, and the right one is never evaluated
+    if (Operators.isTruthy(value(left)) == (expr.operator.type() == TokenType.VerticalBar))
+      return new Expr.LiteralExpr(expr.pos, Operators.isTruthy(value(left)));
+
+    if (isLiteral(right))
+      return new Expr.LiteralExpr(expr.pos, Operators.isTruthy(value(right)));
+
+    return new Expr.LogicalExpr(expr.pos, left, expr.operator, right);
+  }
+
+  // ranges are mutable, so only their bounds are folded
+  @Override
+  public Expr visitRangeExpr(Expr.RangeExpr expr) throws Exception {
+    return new Expr.RangeExpr(expr.pos, this.optimize(expr.start), this.optimize(expr.end), this.optimize(expr.step));
+  }
+
+  @Override
+  public Expr visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
+    Expr condition = this.optimize(expr.condition);
+    Expr thenBranch = this.optimize(expr.thenBranch);
+    Expr elseBranch = this.optimize(expr.elseBranch);
+
+    if (!isLiteral(condition))
+      return new Expr.TernaryExpr(expr.pos, condition, thenBranch, elseBranch);
+
+    Expr branch = Operators.isTruthy(value(condition)) ? thenBranch : elseBranch;
+
+    // the branch stands where the ternary was, so errors mentioning it keep its position
+    if (isLiteral(branch))
+      return new Expr.LiteralExpr(expr.pos, value(branch));
+
+    return new Expr.GroupingExpr(expr.pos, branch);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+    Expr operand = this.optimize(expr.operand);
+
+    // a reference can assign the variable
+    if (expr.operator.type() == TokenType.Ampersand && operand instanceof Expr.IdentifierExpr && !this.knowsDeclarations)
+      this.unstable.add(((Expr.IdentifierExpr) operand).name.lexeme());
+
+    if (isLiteral(operand)) {
+      Object value = value(operand);
+
+      if (expr.operator.type() == TokenType.Bang)
+        return new Expr.LiteralExpr(expr.pos, !Operators.isTruthy(value));
+
+      if (expr.operator.type() == TokenType.Minus && Operators.isNumber(value))
+        return new Expr.LiteralExpr(expr.pos, Operators.negate(expr.pos, value));
+
+      if (expr.operator.type() == TokenType.LnotKw && Operators.isInteger(value))
+        return new Expr.LiteralExpr(expr.pos, Operators.bitNot(expr.pos, value));
+    }
+
+    return new Expr.UnaryExpr(expr.pos, expr.operator, operand);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
+    return expr;
+  }
+}
@@ -247,34 +247,40 @@ public class Parser {
    * 4 - Comparison
    * 5 - In
    * 6 - Range
-   * 7 - Bit Shift
-   * 8 - Add, Sub
-   * 9 - Mul, Div, Mod
-   * 10 - Postfix
-   * 11 - Prefix
-   * 12 - Index
-   * 13 - Call
-   * 14 - Primary
+   * 7 - Bitwise Or
+   * 8 - Bitwise Xor
+   * 9 - Bitwise And
+   * 10 - Bit Shift
+   * 11 - Add, Sub
+   * 12 - Mul, Div, Mod
+   * 13 - Postfix
+   * 14 - Prefix
+   * 15 - Index
+   * 16 - Call
+   * 17 - Primary
    * 
    * - Highest
    */
   private Expr parseExpr(int precedence) throws Exception {
     switch (precedence) {
       case 0: return this.assignment(precedence);
-      case 1: return this.binary(precedence, TokenType.VerticalBar);
-      case 2: return this.binary(precedence, TokenType.Ampersand);
+      case 1: return this.logical(precedence, TokenType.VerticalBar);
+      case 2: return this.logical(precedence, TokenType.Ampersand);
       case 3: return this.binary(precedence, TokenType.DoubleEqual, TokenType.BangEqual);
       case 4: return this.binary(precedence, TokenType.Greater, TokenType.GreaterEqual, TokenType.Less, TokenType.LessEqual);
       case 5: return this.binary(precedence, TokenType.InKw);
       case 6: return this.range(precedence);
-      case 7: return this.binary(precedence, TokenType.LShift, TokenType.RShift);
-      case 8: return this.binary(precedence, TokenType.Plus, TokenType.Minus);
-      case 9: return this.binary(precedence, TokenType.Star, TokenType.Slash, TokenType.Modulo);
-      case 10: return this.postfix(precedence, TokenType.DoublePlus, TokenType.DoubleMinus);
-      case 11: return this.prefix(precedence, TokenType.Bang, TokenType.Minus, TokenType.Ampersand, TokenType.Star);
-      case 12: return this.index(precedence);
-      case 13: return this.call(precedence);
-      case 14: return this.primary();
+      case 7: return this.binary(precedence, TokenType.LorKw);
+      case 8: return this.binary(precedence, TokenType.LxorKw);
+      case 9: return this.binary(precedence, TokenType.LandKw);
+      case 10: return this.binary(precedence, TokenType.LShift, TokenType.RShift);
+      case 11: return this.binary(precedence, TokenType.Plus, TokenType.Minus);
+      case 12: return this.binary(precedence, TokenType.Star, TokenType.Slash, TokenType.Modulo);
+      case 13: return this.postfix(precedence, TokenType.DoublePlus, TokenType.DoubleMinus);
+      case 14: return this.prefix(precedence, TokenType.Bang, TokenType.Minus, TokenType.LnotKw, TokenType.Ampersand, TokenType.Star);
+      case 15: return this.index(precedence);
+      case 16: return this.call(precedence);
+      case 17: return this.primary();
     }
 
     Util.printError("Invalid precedence: '" + precedence + "'", null);
@@ -330,6 +336,19 @@ public class Parser {
     return expr;
   }
 
+  private Expr logical(int precedence, TokenType operator) throws Exception {
+    Expr expr = this.parseExpr(precedence + 1);
+
+    while (this.match(operator)) {
+      Token token = this.peek(-1);
+      Expr right = this.parseExpr(precedence + 1);
+
+      expr = new Expr.LogicalExpr(expr.pos, expr, token, right);
+    }
+
+    return expr;
+  }
+
   private Expr prefix(int precedence, TokenType... operators) throws Exception {
     if (this.match(operators)) {
       Token operator = this.peek(-1);
@@ -350,7 +369,7 @@ public class Parser {
 
     if (this.match(operators)) {
       Token operator = this.peek(-1);
-      Expr right = new Expr.LiteralExpr(this.peek(-1).pos(), 1.0); // value '1' hardcoded
+      Expr right = new Expr.LiteralExpr(this.peek(-1).pos(), 1L); // value '1' hardcoded
 
       if (expr instanceof Expr.IdentifierExpr) {
         Token name = ((Expr.IdentifierExpr) expr).name;
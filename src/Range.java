@@ -1,16 +1,86 @@
+import java.math.BigInteger;
+
 public class Range implements Iterable {
+  // integers up to this magnitude are exact in a double, even after adding one step
+  private static final double LIMIT = 0x1p52;
+
   public double start;
   public double end;
   public double step;
 
+  // whether the values are integers, yielded as longs
+  public final boolean isIntegral;
+
   private double counter;
 
-  public Range(double start, double end, double step) {
-    this.start = start;
-    this.end = end;
-    this.step = step;
+  // a range of integers by a positive step is stepped exactly, as longs
+  private final long first;
+  private final long by;
+  private final long count;
+  private long index = 0;
+
+  public Range(Object start, Object end, Object step) {
+    this.start = Operators.toDouble(start);
+    this.end = Operators.toDouble(end);
+    this.step = Operators.toDouble(step);
+    this.isIntegral = Operators.isIntegral(start, step);
+
+    this.counter = this.start - this.step;
+
+    this.count = integers(start, end, step);
+    this.first = this.count != -1 ? (long) start : 0;
+    this.by = this.count != -1 ? (long) step : 0;
+  }
+
+  // number of values a range of long integers by a positive step yields, as an unsigned long;
+  // -1 when it isn't one, and has to be stepped in doubles
+  public static long integers(Object start, Object end, Object step) {
+    if (!(start instanceof Long && step instanceof Long) || (long) step <= 0)
+      return -1;
+
+    long first = (long) start;
+    long limit = limit(end);
 
-    this.counter = start - step;
+    if (limit <= first)
+      return 0;
+
+    // the distance fits an unsigned long
+    return Long.divideUnsigned(limit - first - 1, (long) step) + 1;
+  }
+
+  // a long is below the end exactly when it's below this
+  private static long limit(Object end) {
+    if (end instanceof Long)
+      return (long) end;
+
+    if (end instanceof BigInteger)
+      return ((BigInteger) end).signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+
+    double bound = (double) end;
+
+    // the cast saturates past the longs
+    return Double.isNaN(bound) ? Long.MIN_VALUE : (long) Math.ceil(bound);
+  }
+
+  // number of values a range of integers yields, the same the accumulating counter reaches;
+  // -1 when the range has to be stepped like next() does
+  public static long count(double start, double end, double step) {
+    if (start != Math.rint(start) || step != Math.rint(step) || step <= 0 || !(step < LIMIT) || !(Math.abs(start) < LIMIT) || !(Math.abs(end) < LIMIT))
+      return -1;
+
+    if (!(start < end))
+      return 0;
+
+    long count = (long) Math.ceil((end - start) / step);
+
+    // the division may round either way
+    while (count > 0 && !(start + (count - 1) * step < end))
+      count--;
+
+    while (start + count * step < end)
+      count++;
+
+    return count;
   }
 
   @Override
@@ -20,14 +90,28 @@ public class Range implements Iterable {
 
   @Override
   public boolean hasNext() {
+    if (this.count != -1)
+      return this.index != this.count;
+
     return this.counter + this.step < this.end;
   }
 
   @Override
   public Object next() {
+    if (this.count != -1)
+      return this.first + this.index++ * this.by;
+
     double res = this.counter + this.step;
     this.counter += this.step;
 
-    return res;
+    return value(res, this.isIntegral);
+  }
+
+  // a value of a range, as the type the range yields
+  public static Object value(double value, boolean isIntegral) {
+    if (isIntegral)
+      return (long) value;
+
+    return value;
   }
 }
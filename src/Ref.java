@@ -1,14 +1,40 @@
 public class Ref {
   public final Token name;
   public final Environment env;
+  public final Cell cell;
 
   public Ref(Token name, Environment env) {
     this.name = name;
     this.env = env;
+    this.cell = null;
+  }
+
+  public Ref(Token name, Cell cell) {
+    this.name = name;
+    this.env = null;
+    this.cell = cell;
   }
 
   public Object getReferenced() throws Exception {
-    return this.env.get(this.name);
+    if (this.cell == null)
+      return this.env.get(this.name);
+
+    if (this.cell.value == Cell.UNDEFINED)
+      Util.printError("Variable '" + name.lexeme() + "' doesn't exist in this or a parent scope", name.pos());
+
+    return this.cell.value;
+  }
+
+  public void setReferenced(Object value) throws Exception {
+    if (this.cell == null) {
+      this.env.assign(this.name, value);
+      return;
+    }
+
+    if (this.cell.value == Cell.UNDEFINED)
+      Util.printError("Variable '" + name.lexeme() + "' doesn't exist in this or a parent scope", name.pos());
+
+    this.cell.value = value;
   }
 
   @Override
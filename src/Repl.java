@@ -1,8 +1,11 @@
 import java.util.List;
 
 public class Repl {
-  public static void repl() {
-    Interpreter interpreter = new Interpreter();
+  public static void repl(String engineName) {
+    Engine engine = Main.newEngine(engineName);
+
+    // kept along with the engine, as it remembers the names declared by earlier lines
+    Optimizer optimizer = new Optimizer(true);
 
     System.out.println("Quick REPL - v" + Main.VERSION + "\n");
     System.out.println("Type 'exit' to exit");
@@ -32,7 +35,8 @@ public class Repl {
           }
 
           case "reset" -> {
-            interpreter = new Interpreter();
+            engine = Main.newEngine(engineName);
+            optimizer = new Optimizer(true);
             System.out.println("Environment reset.");
             continue;
           }
@@ -41,9 +45,9 @@ public class Repl {
         if (input.startsWith("\\")) input = input.substring(1);
         
         List<Token> tokens = new Lexer(input).lex();
-        List<Stmt> stmts = new Parser(tokens).parse();
+        List<Stmt> stmts = optimizer.optimize(new Parser(tokens).parse());
         
-        interpreter.interpret(stmts, true);
+        engine.interpret(stmts, true);
       } catch (Exception e) {
         continue;
       }
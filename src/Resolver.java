@@ -1,204 +1,496 @@
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
-public class Resolver implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Object> {
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+// Binds every variable access to the (depth, slot) of the frame that declares it.
+// Function bodies are resolved when their enclosing scope ends, so they see the names declared after them.
+public class Resolver implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Void> {
+  // the variables of one frame, indexed by slot
+  public static class Scope {
+    public final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> index = new HashMap<>();
 
-  public Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+    // a closure or a reference created while this frame is live may keep it after it's done
+    public boolean captured = false;
+
+    // for the variables a function captures: one of them may not be declared yet when the function runs,
+    // so its closure keeps the frames around its declaration to find the variable the name still refers to
+    public boolean fallsBack = false;
+
+    public int slot(String name) {
+      Integer slot = this.index.get(name);
+      return slot == null ? -1 : slot;
+    }
+
+    public int declare(String name) {
+      int slot = this.slot(name);
+      return slot >= 0 ? slot : this.add(name);
+    }
+
+    // always takes a new slot; a repeated parameter name shadows the previous one
+    public int add(String name) {
+      this.index.put(name, this.names.size());
+      this.names.add(name);
+
+      return this.names.size() - 1;
+    }
+
+    public int size() {
+      return this.names.size();
+    }
   }
 
-  public void resolve(List<Stmt> statements) {
-    for (Stmt stmt : statements) {
-      try {
-        resolve(stmt);
-      } catch (Exception e) {
-        continue;
-      }
+  // a free variable of a function: the closure finds its cell at (depth, slot) from the frame creating it,
+  // and the variable itself is the one at the slot 'variable' of 'origin'
+  public record Capture(int depth, int slot, Scope origin, int variable) {}
+
+  private interface Deferred {
+    void resolve() throws Exception;
+  }
+
+  private static class ResolveScope {
+    final Scope scope;
+    final List<Deferred> deferred = new ArrayList<>();
+
+    // for the scope of the variables a function captures, the scopes around its declaration,
+    // and how many variables each of them had declared at that point
+    final List<ResolveScope> enclosing;
+    final List<Capture> captures;
+    final int[] declared;
+
+    ResolveScope(Scope scope) {
+      this(scope, null, null, null);
     }
+
+    ResolveScope(Scope scope, List<ResolveScope> enclosing, List<Capture> captures, int[] declared) {
+      this.scope = scope;
+      this.enclosing = enclosing;
+      this.captures = captures;
+      this.declared = declared;
+    }
+  }
+
+  private final Environment natives;
+  private final Scope topLevel = new Scope();
+  private final List<ResolveScope> scopes = new ArrayList<>();
+
+  private int functions = 0;
+  private int loops = 0;
+
+  public Resolver(Environment natives) {
+    this.natives = natives;
+  }
+
+  public Scope topLevel() {
+    return this.topLevel;
   }
 
-  public void resolve(Stmt stmt) throws Exception {
-    stmt.accept(this);
+  public void resolve(List<Stmt> statements) throws Exception {
+    this.scopes.clear();
+    this.functions = 0;
+    this.loops = 0;
+    this.scopes.add(new ResolveScope(this.natives.scope()));
+    this.scopes.add(new ResolveScope(this.topLevel));
+
+    for (Stmt stmt : statements)
+      this.resolve(stmt);
+
+    this.endScope();
+  }
+
+  private void resolve(Stmt stmt) throws Exception {
+    // left by a parse error, which only fails once it's reached
+    if (stmt != null)
+      stmt.accept(this);
   }
 
-  public void resolve(Expr expr) throws Exception {
+  private void resolve(Expr expr) throws Exception {
     expr.accept(this);
   }
 
-  public void resolveLocal(Expr expr, Token name) {
+  private void resolve(List<Stmt> statements, Scope scope) throws Exception {
+    this.beginScope(scope);
+
+    for (Stmt stmt : statements)
+      this.resolve(stmt);
+
+    this.endScope();
+  }
+
+  // ---
+
+  private void beginScope(Scope scope) {
+    this.scopes.add(new ResolveScope(scope));
+  }
+
+  private void endScope() throws Exception {
+    ResolveScope scope = this.scopes.get(this.scopes.size() - 1);
+
+    // the functions are resolved with this scope still on top, as it was at their declaration
+    for (Deferred deferred : scope.deferred)
+      deferred.resolve();
+
+    this.scopes.remove(this.scopes.size() - 1);
+  }
+
+  // the top-level scope sits right above the natives in every function's stack
+  private boolean isGlobal(int depth) {
+    return depth >= 0 && depth == this.scopes.size() - 2;
+  }
+
+  private int declare(Token name) {
+    return this.scopes.get(this.scopes.size() - 1).scope.declare(name.lexeme());
+  }
+
+  // returns the depth of the innermost scope declaring the name, and stores the slot in slot[0]
+  private int lookup(Token name, int[] slot) {
+    return this.lookup(this.scopes, name.lexeme(), slot);
+  }
+
+  private int lookup(List<ResolveScope> scopes, String name, int[] slot) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme())) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
+      ResolveScope scope = scopes.get(i);
+      int s = scope.scope.slot(name);
+
+      if (s < 0 && scope.enclosing != null)
+        s = this.captureVariable(scope, name);
+
+      if (s >= 0) {
+        slot[0] = s;
+        return scopes.size() - 1 - i;
       }
     }
+
+    return -1;
   }
 
-  // ---
+  // adds a variable of an enclosing function to the ones a function captures, and returns its slot there;
+  // globals aren't captured, every closure reaches them through the top-level frame
+  private int captureVariable(ResolveScope captures, String name) {
+    List<ResolveScope> enclosing = captures.enclosing;
+    int[] slot = new int[1];
+    int depth = this.lookup(enclosing, name, slot);
 
-  private void beginScope() {
-    scopes.push(new HashMap<>());
-  }
+    if (depth < 0 || depth >= enclosing.size() - 2)
+      return -1;
+
+    int index = enclosing.size() - 1 - depth;
+    ResolveScope origin = enclosing.get(index);
+    Capture capture = origin.captures == null
+                        ? new Capture(depth, slot[0], origin.scope, slot[0])
+                        : new Capture(depth, slot[0], origin.captures.get(slot[0]).origin(), origin.captures.get(slot[0]).variable());
 
-  private void endScope() {
-    scopes.pop();
+    // a variable declared after the function, or captured from a function that falls back itself
+    if (origin.captures == null ? slot[0] >= captures.declared[index] : origin.scope.fallsBack)
+      fallBack(captures);
+
+    captures.captures.add(capture);
+    return captures.scope.declare(name);
   }
 
-  // ---
+  // the lookup by name continues through the frames of every enclosing function, so they all keep theirs
+  private static void fallBack(ResolveScope captures) {
+    captures.scope.fallsBack = true;
 
-  private void declare(Token name) {
-    if (scopes.isEmpty()) return;
+    for (ResolveScope scope : captures.enclosing) {
+      if (scope.captures != null && !scope.scope.fallsBack)
+        fallBack(scope);
+    }
+  }
 
-    Map<String, Boolean> scope = scopes.peek();
-    scope.put(name.lexeme(), false);
+  private void capture() {
+    for (ResolveScope scope : this.scopes)
+      scope.scope.captured = true;
   }
 
-  private void define(Token name) {
-    if (scopes.isEmpty()) return;
-    scopes.peek().put(name.lexeme(), true);
+  private void function(FnDecl function) {
+    this.capture();
+
+    int[] declared = new int[this.scopes.size()];
+
+    for (int i = 0; i < declared.length; i++)
+      declared[i] = this.scopes.get(i).scope.size();
+
+    this.scopes.get(this.scopes.size() - 1).deferred.add(() -> {
+      List<ResolveScope> enclosing = new ArrayList<>(this.scopes);
+
+      // the body runs in a chain of its own frames, the variables it captures and the globals
+      this.scopes.subList(2, this.scopes.size()).clear();
+      this.scopes.add(new ResolveScope(function.captureScope(), enclosing, function.captures(), declared));
+
+      int loops = this.loops;
+
+      this.functions++;
+      this.loops = 0;
+      this.beginScope(function.paramScope());
+
+      for (Token param : function.params())
+        function.paramScope().add(param.lexeme());
+
+      this.resolve(function.body(), function.bodyScope());
+      this.endScope();
+      this.functions--;
+      this.loops = loops;
+
+      this.scopes.clear();
+      this.scopes.addAll(enclosing);
+    });
   }
 
   // ---
 
   @Override
   public Void visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
-    beginScope();
-    resolve(stmt.statements);
-    endScope();
+    stmt.hasFrame = stmt.statements.stream().anyMatch(statement -> statement instanceof Stmt.LetStmt || statement instanceof Stmt.FnStmt);
+
+    if (stmt.hasFrame) {
+      this.resolve(stmt.statements, stmt.scope);
+      return null;
+    }
+
+    List<Deferred> deferred = this.scopes.get(this.scopes.size() - 1).deferred;
+    int functions = deferred.size();
+
+    for (Stmt statement : stmt.statements)
+      this.resolve(statement);
+
+    // the functions in the block are still resolved at its end, not with the rest of the scope around it
+    List<Deferred> inBlock = new ArrayList<>(deferred.subList(functions, deferred.size()));
+    deferred.subList(functions, deferred.size()).clear();
+
+    for (Deferred function : inBlock)
+      function.resolve();
 
     return null;
   }
 
   @Override
   public Void visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitBreakStmt'");
+    return null;
   }
 
   @Override
   public Void visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitContinueStmt'");
+    return null;
   }
 
   @Override
   public Void visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitExprStmt'");
+    this.resolve(stmt.expr);
+    return null;
   }
 
   @Override
   public Void visitFnStmt(Stmt.FnStmt stmt) throws Exception {
-    beginScope();
-    
-    for (Token param : stmt.params) {
-      declare(param);
-      define(param);
-    }
-
-    resolve(stmt.body);
-    endScope();
+    stmt.slot = this.declare(stmt.name);
+    this.function(stmt);
 
     return null;
   }
 
   @Override
   public Void visitIfStmt(Stmt.IfStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitIfStmt'");
+    this.resolve(stmt.condition);
+    this.resolve(stmt.thenBranch);
+
+    if (stmt.elseBranch != null)
+      this.resolve(stmt.elseBranch);
+
+    return null;
   }
 
   @Override
   public Void visitLetStmt(Stmt.LetStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitLetStmt'");
+    this.resolve(stmt.value);
+    stmt.slot = this.declare(stmt.name);
+
+    return null;
   }
 
   @Override
   public Void visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitLoopStmt'");
+    if (stmt.variable == null || stmt.iterable == null) {
+      this.loopBody(stmt.block);
+      return null;
+    }
+
+    this.resolve(stmt.iterable);
+
+    this.beginScope(stmt.scope);
+    this.declare(stmt.variable);
+    this.loopBody(stmt.block);
+    this.endScope();
+
+    return null;
   }
 
   @Override
   public Void visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitReturnStmt'");
+    if (stmt.value != null)
+      this.resolve(stmt.value);
+
+    // inside a loop the frame stays, for the loop to catch a 'break' or 'continue' leaving the callee
+    stmt.isTailCall = this.functions > 0 && this.loops == 0 && stmt.value instanceof Expr.CallExpr && ((Expr.CallExpr) stmt.value).intrinsic == null;
+
+    return null;
   }
 
   @Override
   public Void visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitWhileStmt'");
+    this.resolve(stmt.condition);
+    this.loopBody(stmt.block);
+
+    return null;
+  }
+
+  private void loopBody(Stmt.BlockStmt block) throws Exception {
+    this.loops++;
+    this.resolve(block);
+    this.loops--;
   }
 
   // ---
 
   @Override
-  public Object visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitArrayExpr'");
+  public Void visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
+    for (Expr item : expr.items)
+      this.resolve(item);
+
+    return null;
   }
 
   @Override
-  public Object visitAssignExpr(Expr.AssignExpr expr) throws Exception {
-    resolve(expr.value);
-    resolveLocal(expr, expr.name);
+  public Void visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+    this.resolve(expr.value);
+    this.resolve(expr.lValue);
+
+    int[] slot = new int[1];
+    expr.depth = this.lookup(expr.name, slot);
+    expr.slot = slot[0];
+    expr.isGlobal = this.isGlobal(expr.depth);
+    expr.isNative = this.natives.scope().slot(expr.name.lexeme()) >= 0;
+
     return null;
   }
 
   @Override
-  public Object visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitAssignIndexExpr'");
+  public Void visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
+    this.resolve(expr.value);
+    this.resolve(expr.index);
+
+    int[] slot = new int[1];
+    expr.depth = this.lookup(expr.name, slot);
+    expr.slot = slot[0];
+    expr.isGlobal = this.isGlobal(expr.depth);
+
+    return null;
   }
 
   @Override
-  public Object visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitBinaryExpr'");
+  public Void visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+    this.resolve(expr.left);
+    this.resolve(expr.right);
+
+    return null;
   }
 
   @Override
-  public Object visitCallExpr(Expr.CallExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitCallExpr'");
+  public Void visitCallExpr(Expr.CallExpr expr) throws Exception {
+    this.resolve(expr.callee);
+
+    for (Expr arg : expr.args)
+      this.resolve(arg);
+
+    // natives can't be assigned, so a name found in their scope always calls the native
+    if (expr.callee instanceof Expr.IdentifierExpr) {
+      Expr.IdentifierExpr callee = (Expr.IdentifierExpr) expr.callee;
+
+      if (callee.depth == this.scopes.size() - 1)
+        expr.intrinsic = Intrinsic.of(callee.name.lexeme(), expr.args.size());
+    }
+
+    return null;
   }
 
   @Override
-  public Object visitFnExpr(Expr.FnExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitFnExpr'");
+  public Void visitFnExpr(Expr.FnExpr expr) throws Exception {
+    this.function(expr);
+    return null;
   }
 
   @Override
-  public Object visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitGroupingExpr'");
+  public Void visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
+    this.resolve(expr.expr);
+    return null;
   }
 
   @Override
-  public Object visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitIndexExpr'");
+  public Void visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
+    this.resolve(expr.array);
+    this.resolve(expr.index);
+
+    return null;
   }
 
   @Override
-  public Object visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitLiteralExpr'");
+  public Void visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
+    return null;
   }
 
   @Override
-  public Object visitRangeExpr(Expr.RangeExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitRangeExpr'");
+  public Void visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+    this.resolve(expr.left);
+    this.resolve(expr.right);
+
+    return null;
   }
 
   @Override
-  public Object visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitTernaryExpr'");
+  public Void visitRangeExpr(Expr.RangeExpr expr) throws Exception {
+    this.resolve(expr.start);
+    this.resolve(expr.end);
+
+    if (expr.step != null)
+      this.resolve(expr.step);
+
+    return null;
   }
 
   @Override
-  public Object visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
-    throw new UnsupportedOperationException("Unimplemented method 'visitUnaryExpr'");
+  public Void visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
+    this.resolve(expr.condition);
+    this.resolve(expr.thenBranch);
+    this.resolve(expr.elseBranch);
+
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+    this.resolve(expr.operand);
+
+    if (expr.operator.type() == TokenType.Ampersand)
+      this.capture();
+
+    return null;
   }
 
   @Override
-  public Object visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
-    if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme()) == Boolean.FALSE) {
-      Util.printError("Cannot read local variable in its own initializer", expr.pos);
+  public Void visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
+    int[] slot = new int[1];
+    expr.depth = this.lookup(expr.name, slot);
+    expr.slot = slot[0];
+    expr.isGlobal = this.isGlobal(expr.depth);
+
+    // natives can't be reassigned, so their values are bound here once
+    if (expr.depth >= 0 && expr.depth == this.scopes.size() - 1) {
+      Object value = this.natives.get(expr.slot);
+
+      if (value != Cell.UNDEFINED)
+        expr.bound = value;
     }
 
-    resolveLocal(expr, expr.name);
     return null;
   }
 }
@@ -1,6 +1,8 @@
+import java.util.ArrayList;
 import java.util.List;
 
-public abstract class Stmt {
+// sealed with final node classes and tagged with their kind, like Expr
+public abstract sealed class Stmt {
   public interface StmtVisitor<R> {
     R visitBlockStmt(BlockStmt stmt) throws Exception;
     R visitBreakStmt(BreakStmt stmt) throws Exception;
@@ -15,18 +17,37 @@ public abstract class Stmt {
   }
 
   public final Position pos;
-
-  public Stmt(Position pos) {
+  // one of the tags below
+  public final int kind;
+
+  // node-kind tags, one per node class, for the interpreter's switch dispatch
+  static final int BLOCK = 0;
+  static final int BREAK = 1;
+  static final int CONTINUE = 2;
+  static final int FN = 3;
+  static final int EXPR = 4;
+  static final int IF = 5;
+  static final int LET = 6;
+  static final int LOOP = 7;
+  static final int RETURN = 8;
+  static final int WHILE = 9;
+
+  public Stmt(Position pos, int kind) {
     this.pos = pos;
+    this.kind = kind;
   }
 
   public abstract <R> R accept(StmtVisitor<R> visitor) throws Exception;
 
-  public static class BlockStmt extends Stmt {
+  public static final class BlockStmt extends Stmt {
     final List<Stmt> statements;
+    final Resolver.Scope scope = new Resolver.Scope();
+
+    // false when the block declares nothing, so it runs in the frame around it
+    boolean hasFrame = true;
 
     public BlockStmt(Position pos, List<Stmt> statements) {
-      super(pos);
+      super(pos, BLOCK);
       this.statements = statements;
     }
 
@@ -35,9 +56,9 @@ public abstract class Stmt {
     }
   }
 
-  public static class BreakStmt extends Stmt {
+  public static final class BreakStmt extends Stmt {
     public BreakStmt(Position pos) {
-      super(pos);
+      super(pos, BREAK);
     }
 
     public <R> R accept(StmtVisitor<R> visitor) throws Exception {
@@ -45,9 +66,9 @@ public abstract class Stmt {
     }
   }
 
-  public static class ContinueStmt extends Stmt {
+  public static final class ContinueStmt extends Stmt {
     public ContinueStmt(Position pos) {
-      super(pos);
+      super(pos, CONTINUE);
     }
 
     public <R> R accept(StmtVisitor<R> visitor) throws Exception {
@@ -55,13 +76,20 @@ public abstract class Stmt {
     }
   }
 
-  public static class FnStmt extends Stmt implements FnDecl {
+  public static final class FnStmt extends Stmt implements FnDecl {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    final Jit.Profile profile = new Jit.Profile();
+    final Resolver.Scope paramScope = new Resolver.Scope();
+    final Resolver.Scope bodyScope = new Resolver.Scope();
+    final Resolver.Scope captureScope = new Resolver.Scope();
+    final List<Resolver.Capture> captures = new ArrayList<>();
+
+    int slot;
 
     public FnStmt(Position pos, Token name, List<Token> params, List<Stmt> body) {
-      super(pos);
+      super(pos, FN);
 
       this.name = name;
       this.params = params;
@@ -81,13 +109,38 @@ public abstract class Stmt {
     public List<Stmt> body() {
       return this.body;
     }
+
+    @Override
+    public Jit.Profile profile() {
+      return this.profile;
+    }
+
+    @Override
+    public Resolver.Scope paramScope() {
+      return this.paramScope;
+    }
+
+    @Override
+    public Resolver.Scope bodyScope() {
+      return this.bodyScope;
+    }
+
+    @Override
+    public Resolver.Scope captureScope() {
+      return this.captureScope;
+    }
+
+    @Override
+    public List<Resolver.Capture> captures() {
+      return this.captures;
+    }
   }
 
-  public static class ExprStmt extends Stmt {
+  public static final class ExprStmt extends Stmt {
     final Expr expr;
 
     public ExprStmt(Position pos, Expr expr) {
-      super(pos);
+      super(pos, EXPR);
       this.expr = expr;
     }
 
@@ -96,17 +149,21 @@ public abstract class Stmt {
     }
   }
 
-  public static class IfStmt extends Stmt {
+  public static final class IfStmt extends Stmt {
     final Expr condition;
     final BlockStmt thenBranch;
     final BlockStmt elseBranch;
 
+    // taken when the then branch runs
+    final BranchProfile profile;
+
     public IfStmt(Position pos, Expr condition, BlockStmt thenBranch, BlockStmt elseBranch) {
-      super(pos);
+      super(pos, IF);
 
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
+      this.profile = new BranchProfile("if", pos);
     }
 
     public <R> R accept(StmtVisitor<R> visitor) throws Exception {
@@ -114,12 +171,14 @@ public abstract class Stmt {
     }
   }
 
-  public static class LetStmt extends Stmt {
+  public static final class LetStmt extends Stmt {
     final Token name;
     final Expr value;
 
+    int slot;
+
     public LetStmt(Position pos, Token name, Expr value) {
-      super(pos);
+      super(pos, LET);
 
       this.name = name;
       this.value = value;
@@ -130,13 +189,14 @@ public abstract class Stmt {
     }
   }
 
-  public static class LoopStmt extends Stmt {
+  public static final class LoopStmt extends Stmt {
     final BlockStmt block;
     final Token variable;
     final Expr iterable;
+    final Resolver.Scope scope = new Resolver.Scope();
 
     public LoopStmt(Position pos, Token variable, Expr iterable, BlockStmt block) {
-      super(pos);
+      super(pos, LOOP);
 
       this.block = block;
       this.variable = variable;
@@ -148,11 +208,13 @@ public abstract class Stmt {
     }
   }
 
-  public static class ReturnStmt extends Stmt {
+  public static final class ReturnStmt extends Stmt {
     final Expr value;
 
+    boolean isTailCall;
+
     public ReturnStmt(Position pos, Expr value) {
-      super(pos);
+      super(pos, RETURN);
       this.value = value;
     }
 
@@ -161,12 +223,12 @@ public abstract class Stmt {
     }
   }
 
-  public static class WhileStmt extends Stmt {
+  public static final class WhileStmt extends Stmt {
     final Expr condition;
     final BlockStmt block;
 
     public WhileStmt(Position pos, Expr condition, BlockStmt block) {
-      super(pos);
+      super(pos, WHILE);
 
       this.condition = condition;
       this.block = block;
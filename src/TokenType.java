@@ -71,6 +71,11 @@ public enum TokenType {
   BreakKw,
   ContinueKw,
 
+  LandKw,
+  LorKw,
+  LxorKw,
+  LnotKw,
+
   TrueKw,
   FalseKw,
   NilKw
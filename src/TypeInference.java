@@ -0,0 +1,637 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// Proves the type of every expression it can, following the variables of each function through its control flow.
+// Runs after the Resolver, whose scopes it walks in the same order to tell the variables apart.
+// A variable is only followed inside the function that declares it, and not at all once a nested
+// function assigns it, or a reference, an unresolved assignment or one falling back by name may reach it,
+// as any of those could change it at any call.
+public class TypeInference implements Stmt.StmtVisitor<Void>, Expr.ExprVisitor<Expr.Type> {
+  // a variable, as the frame that holds it and its slot there
+  private record Variable(Resolver.Scope scope, int slot) {}
+
+  // the states at the jumps out of the loop being inferred, joined
+  private static class Loop {
+    Map<Variable, Expr.Type> breaks = null;
+    Map<Variable, Expr.Type> continues = null;
+  }
+
+  // kept across runs, as the REPL may still call the functions of an earlier line
+  private final Set<Variable> unstable = new HashSet<>();
+  private final Set<String> unstableNames = new HashSet<>();
+
+  private final List<Resolver.Scope> scopes = new ArrayList<>();
+  private final List<Loop> loops = new ArrayList<>();
+
+  // the index of the first scope of the function being inferred
+  private int function;
+
+  // the function being inferred, null at the top level
+  private FnDecl declaration;
+
+  // the types of the variables at the current point, or null where it can't be reached
+  private Map<Variable, Expr.Type> state;
+
+  public void infer(List<Stmt> statements, Resolver.Scope natives, Resolver.Scope topLevel) throws Exception {
+    this.scopes.clear();
+    this.loops.clear();
+    this.scopes.add(natives);
+    this.scopes.add(topLevel);
+
+    this.function = 1;
+    this.declaration = null;
+    this.state = new HashMap<>();
+
+    this.infer(statements);
+  }
+
+  private void infer(List<Stmt> statements) throws Exception {
+    for (Stmt stmt : statements) {
+      // a parse error leaves a null statement, and nothing after a jump runs
+      if (stmt != null && this.state != null)
+        stmt.accept(this);
+    }
+  }
+
+  private Expr.Type infer(Expr expr) throws Exception {
+    Expr.Type type = expr.accept(this);
+
+    // a loop is inferred more than once, and its last pass, from the final state, is the one that stays
+    expr.type = type;
+    return type;
+  }
+
+  private void block(Stmt.BlockStmt block) throws Exception {
+    if (!block.hasFrame) {
+      this.infer(block.statements);
+      return;
+    }
+
+    this.scopes.add(block.scope);
+    this.infer(block.statements);
+    this.scopes.remove(this.scopes.size() - 1);
+  }
+
+  private void function(FnDecl function) throws Exception {
+    Map<Variable, Expr.Type> state = this.state;
+    List<Loop> loops = new ArrayList<>(this.loops);
+    List<Resolver.Scope> scopes = new ArrayList<>(this.scopes);
+    int base = this.function;
+    FnDecl declaration = this.declaration;
+
+    // the body sees the scopes the Resolver gave it: the globals, its captures and its own
+    this.scopes.subList(2, this.scopes.size()).clear();
+    this.scopes.add(function.captureScope());
+
+    // the parameters and the variables around the function are unknown inside it
+    this.function = this.scopes.size();
+    this.declaration = function;
+    this.state = new HashMap<>();
+    this.loops.clear();
+
+    this.scopes.add(function.paramScope());
+    this.scopes.add(function.bodyScope());
+    this.infer(function.body());
+
+    this.scopes.clear();
+    this.scopes.addAll(scopes);
+    this.function = base;
+    this.declaration = declaration;
+    this.state = state;
+    this.loops.addAll(loops);
+  }
+
+  // ---
+
+  private Variable variable(int depth, int slot) {
+    if (depth < 0)
+      return null;
+
+    Resolver.Scope scope = this.scopes.get(this.scopes.size() - 1 - depth);
+
+    // a captured variable is the one declared around the function
+    if (this.declaration != null && scope == this.declaration.captureScope()) {
+      Resolver.Capture capture = this.declaration.captures().get(slot);
+      return new Variable(capture.origin(), capture.variable());
+    }
+
+    return new Variable(scope, slot);
+  }
+
+  private boolean isLocal(int depth) {
+    return depth >= 0 && this.scopes.size() - 1 - depth >= this.function;
+  }
+
+  private boolean isUnstable(Variable variable) {
+    return this.unstable.contains(variable) || this.unstableNames.contains(variable.scope.names.get(variable.slot));
+  }
+
+  private void define(Variable variable, Expr.Type type) {
+    if (type == Expr.Type.Unknown || this.isUnstable(variable))
+      this.state.remove(variable);
+    else
+      this.state.put(variable, type);
+  }
+
+  private void assign(int depth, int slot, String name, Expr.Type type) {
+    Variable variable = this.variable(depth, slot);
+
+    if (variable == null) {
+      this.makeUnstable(name);
+      return;
+    }
+
+    if (this.isLocal(depth))
+      this.define(variable, type);
+    else
+      this.makeUnstable(variable);
+
+    // a captured variable that isn't declared yet is assigned by its name
+    if (this.declaration != null && this.declaration.captureScope().fallsBack && !this.isLocal(depth))
+      this.makeUnstable(name);
+  }
+
+  private void makeUnstable(Variable variable) {
+    this.unstable.add(variable);
+    this.state.remove(variable);
+  }
+
+  // assigns any variable with the name that's visible where it runs
+  private void makeUnstable(String name) {
+    this.unstableNames.add(name);
+    this.state.keySet().removeIf(variable -> variable.scope.names.get(variable.slot).equals(name));
+  }
+
+  // ---
+
+  private static Expr.Type join(Expr.Type a, Expr.Type b) {
+    return a == b ? a : Expr.Type.Unknown;
+  }
+
+  private static Map<Variable, Expr.Type> join(Map<Variable, Expr.Type> a, Map<Variable, Expr.Type> b) {
+    if (a == null)
+      return b == null ? null : new HashMap<>(b);
+
+    if (b == null)
+      return new HashMap<>(a);
+
+    Map<Variable, Expr.Type> joined = new HashMap<>();
+
+    for (Map.Entry<Variable, Expr.Type> entry : a.entrySet()) {
+      if (entry.getValue() == b.get(entry.getKey()))
+        joined.put(entry.getKey(), entry.getValue());
+    }
+
+    return joined;
+  }
+
+  private static Map<Variable, Expr.Type> copy(Map<Variable, Expr.Type> state) {
+    return state == null ? null : new HashMap<>(state);
+  }
+
+  // infers the loop until the state at its start stops changing; returns the state when it exits normally
+  private Map<Variable, Expr.Type> loop(LoopBody body) throws Exception {
+    Map<Variable, Expr.Type> entry = this.state;
+    Map<Variable, Expr.Type> start = copy(entry);
+
+    while (true) {
+      Loop loop = new Loop();
+      int unstable = this.unstable.size() + this.unstableNames.size();
+
+      this.loops.add(loop);
+      this.state = copy(start);
+
+      Map<Variable, Expr.Type> exit = body.infer();
+
+      this.loops.remove(this.loops.size() - 1);
+
+      Map<Variable, Expr.Type> next = join(entry, join(this.state, loop.continues));
+
+      // the variables made unstable on the way aren't known in the earlier parts of the body anymore
+      if (Objects.equals(next, start) && this.unstable.size() + this.unstableNames.size() == unstable)
+        return join(exit, loop.breaks);
+
+      start = next;
+    }
+  }
+
+  private interface LoopBody {
+    // infers one pass from the start of the loop, and returns the state where its condition ends it
+    Map<Variable, Expr.Type> infer() throws Exception;
+  }
+
+  // ---
+
+  @Override
+  public Void visitBlockStmt(Stmt.BlockStmt stmt) throws Exception {
+    this.block(stmt);
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.BreakStmt stmt) throws Exception {
+    this.jump(true, false);
+    this.state = null;
+
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.ContinueStmt stmt) throws Exception {
+    this.jump(false, true);
+    this.state = null;
+
+    return null;
+  }
+
+  // joins the current state into the one where the innermost loop is left, or continued
+  private void jump(boolean isBreak, boolean isContinue) {
+    if (this.loops.isEmpty())
+      return;
+
+    Loop loop = this.loops.get(this.loops.size() - 1);
+
+    if (isBreak)
+      loop.breaks = join(loop.breaks, this.state);
+
+    if (isContinue)
+      loop.continues = join(loop.continues, this.state);
+  }
+
+  @Override
+  public Void visitExprStmt(Stmt.ExprStmt stmt) throws Exception {
+    this.infer(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void visitFnStmt(Stmt.FnStmt stmt) throws Exception {
+    this.define(new Variable(this.scopes.get(this.scopes.size() - 1), stmt.slot), Expr.Type.Unknown);
+    this.function(stmt);
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.IfStmt stmt) throws Exception {
+    this.infer(stmt.condition);
+
+    Map<Variable, Expr.Type> otherwise = copy(this.state);
+    this.block(stmt.thenBranch);
+
+    Map<Variable, Expr.Type> then = this.state;
+    this.state = otherwise;
+
+    if (stmt.elseBranch != null)
+      this.block(stmt.elseBranch);
+
+    this.state = join(then, this.state);
+    return null;
+  }
+
+  @Override
+  public Void visitLetStmt(Stmt.LetStmt stmt) throws Exception {
+    Expr.Type type = this.infer(stmt.value);
+    this.define(new Variable(this.scopes.get(this.scopes.size() - 1), stmt.slot), type);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLoopStmt(Stmt.LoopStmt stmt) throws Exception {
+    if (stmt.variable == null || stmt.iterable == null) {
+      this.state = this.loop(() -> {
+        this.block(stmt.block);
+        return null;
+      });
+
+      return null;
+    }
+
+    this.infer(stmt.iterable);
+
+    // ranges yield numbers; anything else may yield values of any type
+    Variable variable = new Variable(stmt.scope, stmt.scope.slot(stmt.variable.lexeme()));
+    Expr.Type type = stmt.iterable instanceof Expr.RangeExpr ? range((Expr.RangeExpr) stmt.iterable) : Expr.Type.Unknown;
+
+    this.scopes.add(stmt.scope);
+
+    this.state = this.loop(() -> {
+      Map<Variable, Expr.Type> exit = copy(this.state);
+
+      this.define(variable, type);
+      this.block(stmt.block);
+
+      return exit;
+    });
+
+    this.scopes.remove(this.scopes.size() - 1);
+    return null;
+  }
+
+  // a range yields integers from an integer start by an integer step, and doubles when either is a double
+  private static Expr.Type range(Expr.RangeExpr range) {
+    Expr.Type step = range.step == null ? Expr.Type.Integer : range.step.type;
+
+    if (range.start.type == Expr.Type.Number || step == Expr.Type.Number)
+      return Expr.Type.Number;
+
+    if (range.start.type == Expr.Type.Integer && step == Expr.Type.Integer)
+      return Expr.Type.Integer;
+
+    return Expr.Type.Unknown;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.ReturnStmt stmt) throws Exception {
+    if (stmt.value != null)
+      this.infer(stmt.value);
+
+    this.state = null;
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.WhileStmt stmt) throws Exception {
+    this.state = this.loop(() -> {
+      this.infer(stmt.condition);
+
+      Map<Variable, Expr.Type> exit = copy(this.state);
+      this.block(stmt.block);
+
+      return exit;
+    });
+
+    return null;
+  }
+
+  // ---
+
+  @Override
+  public Expr.Type visitArrayExpr(Expr.ArrayExpr expr) throws Exception {
+    for (Expr item : expr.items)
+      this.infer(item);
+
+    return Expr.Type.Array;
+  }
+
+  @Override
+  public Expr.Type visitAssignExpr(Expr.AssignExpr expr) throws Exception {
+    Expr.Type type = this.infer(expr.value);
+
+    if (expr.operator.type() != TokenType.Equal)
+      type = arithmetic(expr.operator.type(), this.infer(expr.lValue), type);
+
+    // assigning through a reference changes the referenced variable, which is unstable already
+    if (!expr.isRef)
+      this.assign(expr.depth, expr.slot, expr.name.lexeme(), type);
+
+    return type;
+  }
+
+  @Override
+  public Expr.Type visitAssignIndexExpr(Expr.AssignIndexExpr expr) throws Exception {
+    Expr.Type type = this.infer(expr.value);
+    this.infer(expr.index);
+
+    return type;
+  }
+
+  @Override
+  public Expr.Type visitBinaryExpr(Expr.BinaryExpr expr) throws Exception {
+    Expr.Type left = this.infer(expr.left);
+    Expr.Type right = this.infer(expr.right);
+
+    expr.specialization = isProven(expr.operator.type(), left, right) ? Expr.Specialization.Proven : Expr.Specialization.Uninitialized;
+
+    switch (expr.operator.type()) {
+      case DoubleEqual, BangEqual, Greater, GreaterEqual, Less, LessEqual, InKw:
+        return Expr.Type.Boolean;
+
+      default:
+        return arithmetic(expr.operator.type(), left, right);
+    }
+  }
+
+  // the operators the interpreter computes unchecked, given the types of their operands
+  private static boolean isProven(TokenType operator, Expr.Type left, Expr.Type right) {
+    boolean integers = left == Expr.Type.Integer && right == Expr.Type.Integer;
+
+    switch (operator) {
+      case Plus:
+        return isDouble(left, right) || (left == Expr.Type.String && right == Expr.Type.String);
+
+      case Minus, Star, Slash, Modulo:
+        return isDouble(left, right);
+
+      case Greater, GreaterEqual, Less, LessEqual:
+        return isDouble(left, right) || integers;
+
+      case LandKw, LorKw, LxorKw:
+        return integers;
+
+      default:
+        return false;
+    }
+  }
+
+  // numbers computed as doubles, as they are when any of them is one
+  private static boolean isDouble(Expr.Type left, Expr.Type right) {
+    boolean numbers = (left == Expr.Type.Number || left == Expr.Type.Integer) && (right == Expr.Type.Number || right == Expr.Type.Integer);
+    return numbers && (left == Expr.Type.Number || right == Expr.Type.Number);
+  }
+
+  // the type of an arithmetic operation; every one but '+' either returns a number or fails,
+  // a double when an operand is one, and integers may overflow into one
+  private static Expr.Type arithmetic(TokenType operator, Expr.Type left, Expr.Type right) {
+    switch (operator) {
+      case Plus, PlusEqual, DoublePlus:
+        if (isDouble(left, right))
+          return Expr.Type.Number;
+
+        // anything added to a string is stringified
+        if (left == Expr.Type.String || right == Expr.Type.String)
+          return Expr.Type.String;
+
+        return Expr.Type.Unknown;
+
+      case Minus, Star, Slash, Modulo, MinusEqual, DoubleMinus, StarEqual, SlashEqual, ModuloEqual:
+        return left == Expr.Type.Number || right == Expr.Type.Number ? Expr.Type.Number : Expr.Type.Unknown;
+
+      // a long shifted right stays a long, while one shifted left may grow into a big integer
+      case RShift, RShiftEqual:
+        return left == Expr.Type.Integer ? Expr.Type.Integer : Expr.Type.Unknown;
+
+      case LShift, LShiftEqual:
+        return Expr.Type.Unknown;
+
+      case LandKw, LorKw, LxorKw:
+        return left == Expr.Type.Integer && right == Expr.Type.Integer ? Expr.Type.Integer : Expr.Type.Unknown;
+
+      // a plain assignment
+      default:
+        return right;
+    }
+  }
+
+  @Override
+  public Expr.Type visitCallExpr(Expr.CallExpr expr) throws Exception {
+    this.infer(expr.callee);
+
+    List<Expr.Type> args = new ArrayList<>();
+
+    for (Expr arg : expr.args)
+      args.add(this.infer(arg));
+
+    // a 'break' or 'continue' in the called function leaves or continues the loop around the call
+    if (expr.intrinsic == null) {
+      this.jump(true, true);
+      return Expr.Type.Unknown;
+    }
+
+    // the intrinsics return null for arguments they can't handle
+    switch (expr.intrinsic) {
+      case Floor, Ceil:
+        return args.get(0) == Expr.Type.Number || args.get(0) == Expr.Type.Integer ? args.get(0) : Expr.Type.Unknown;
+
+      // the absolute value of the smallest long is a double
+      case Abs:
+        return args.get(0) == Expr.Type.Number ? Expr.Type.Number : Expr.Type.Unknown;
+
+      case Min, Max:
+        if (args.get(0) == Expr.Type.Integer && args.get(1) == Expr.Type.Integer)
+          return Expr.Type.Integer;
+
+        return isDouble(args.get(0), args.get(1)) ? Expr.Type.Number : Expr.Type.Unknown;
+
+      case Len:
+        return args.get(0) == Expr.Type.String || args.get(0) == Expr.Type.Array ? Expr.Type.Integer : Expr.Type.Unknown;
+
+      // negative numbers have no square root
+      default:
+        return Expr.Type.Unknown;
+    }
+  }
+
+  @Override
+  public Expr.Type visitFnExpr(Expr.FnExpr expr) throws Exception {
+    this.function(expr);
+    return Expr.Type.Unknown;
+  }
+
+  @Override
+  public Expr.Type visitGroupingExpr(Expr.GroupingExpr expr) throws Exception {
+    return this.infer(expr.expr);
+  }
+
+  @Override
+  public Expr.Type visitIndexExpr(Expr.ArrayIndexExpr expr) throws Exception {
+    Expr.Type array = this.infer(expr.array);
+    Expr.Type index = this.infer(expr.index);
+
+    boolean isProven = (index == Expr.Type.Number || index == Expr.Type.Integer) && (array == Expr.Type.Array || array == Expr.Type.String);
+    expr.specialization = isProven ? Expr.Specialization.Proven : Expr.Specialization.Uninitialized;
+
+    // indexing a string gives a string, and an array anything
+    return array == Expr.Type.String ? Expr.Type.String : Expr.Type.Unknown;
+  }
+
+  @Override
+  public Expr.Type visitLiteralExpr(Expr.LiteralExpr expr) throws Exception {
+    if (expr.value instanceof Double)
+      return Expr.Type.Number;
+
+    if (expr.value instanceof Long)
+      return Expr.Type.Integer;
+
+    if (expr.value instanceof String)
+      return Expr.Type.String;
+
+    if (expr.value instanceof Boolean)
+      return Expr.Type.Boolean;
+
+    return Expr.Type.Unknown;
+  }
+
+  @Override
+  public Expr.Type visitLogicalExpr(Expr.LogicalExpr expr) throws Exception {
+    this.infer(expr.left);
+
+    // the right operand may not run
+    Map<Variable, Expr.Type> skipped = copy(this.state);
+    this.infer(expr.right);
+
+    this.state = join(skipped, this.state);
+    return Expr.Type.Boolean;
+  }
+
+  @Override
+  public Expr.Type visitRangeExpr(Expr.RangeExpr expr) throws Exception {
+    this.infer(expr.start);
+    this.infer(expr.end);
+
+    if (expr.step != null)
+      this.infer(expr.step);
+
+    return Expr.Type.Unknown;
+  }
+
+  @Override
+  public Expr.Type visitTernaryExpr(Expr.TernaryExpr expr) throws Exception {
+    this.infer(expr.condition);
+
+    Map<Variable, Expr.Type> otherwise = copy(this.state);
+    Expr.Type then = this.infer(expr.thenBranch);
+
+    Map<Variable, Expr.Type> state = this.state;
+    this.state = otherwise;
+
+    Expr.Type type = join(then, this.infer(expr.elseBranch));
+
+    this.state = join(state, this.state);
+    return type;
+  }
+
+  @Override
+  public Expr.Type visitUnaryExpr(Expr.UnaryExpr expr) throws Exception {
+    Expr.Type operand = this.infer(expr.operand);
+
+    boolean isProven = expr.operator.type() == TokenType.Minus && operand == Expr.Type.Number;
+    expr.specialization = isProven ? Expr.Specialization.Proven : Expr.Specialization.Uninitialized;
+
+    switch (expr.operator.type()) {
+      // negating the smallest long gives a double
+      case Minus:
+        return operand == Expr.Type.Number ? Expr.Type.Number : Expr.Type.Unknown;
+
+      case LnotKw:
+        return operand == Expr.Type.Integer ? Expr.Type.Integer : Expr.Type.Unknown;
+
+      case Bang:
+        return Expr.Type.Boolean;
+
+      // a reference finds its variable by name, and can assign it whenever it's dereferenced
+      case Ampersand:
+        this.makeUnstable(((Expr.IdentifierExpr) expr.operand).name.lexeme());
+        return Expr.Type.Unknown;
+
+      default:
+        return Expr.Type.Unknown;
+    }
+  }
+
+  @Override
+  public Expr.Type visitVariableExpr(Expr.IdentifierExpr expr) throws Exception {
+    if (!this.isLocal(expr.depth))
+      return Expr.Type.Unknown;
+
+    // states saved before the variable became unstable may still have its type
+    Variable variable = this.variable(expr.depth, expr.slot);
+    return this.isUnstable(variable) ? Expr.Type.Unknown : this.state.getOrDefault(variable, Expr.Type.Unknown);
+  }
+}
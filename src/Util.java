@@ -3,14 +3,29 @@ import java.util.Optional;
 import java.util.function.Supplier;
 
 public class Util {
-  public static class Break extends Exception {}
-  public static class Continue extends Exception {}
-  
-  public static class Return extends Exception {
-    public Object value;
-    
-    public Return(Object value) {
-      this.value = value;
+  // how a statement ended when it didn't run to its end; statements that complete normally return null
+  public enum Completion {
+    Break,
+    Continue,
+    Return
+  }
+
+  // only thrown when a 'break' or 'continue' leaves a function body to reach the caller's loop
+  @SuppressWarnings("serial")
+  public static class Break extends Exception {
+    public static final Break INSTANCE = new Break();
+
+    private Break() {
+      super(null, null, false, false);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class Continue extends Exception {
+    public static final Continue INSTANCE = new Continue();
+
+    private Continue() {
+      super(null, null, false, false);
     }
   }
   
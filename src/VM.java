@@ -0,0 +1,691 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class VM implements Engine {
+  private static final int MAX_FRAMES = 100_000;
+
+  // natives receive an interpreter, so the VM keeps one around just for them
+  private final Interpreter interpreter = new Interpreter();
+
+  private final Map<String, Integer> globalIndex = new HashMap<>();
+  private Cell[] globals = new Cell[128];
+  private String[] globalNames = new String[128];
+  private boolean[] globalDefined = new boolean[128];
+  private int globalCount = 0;
+
+  private Object[] stack = new Object[1024];
+  private int sp = 0;
+
+  private Chunk[] frameChunks = new Chunk[64];
+  private Closure[] frameClosures = new Closure[64];
+  private int[] frameIps = new int[64];
+  private int[] frameBases = new int[64];
+  private int frameCount = 0;
+
+  public VM() {
+    this.interpreter.globals.forEach((name, value) -> this.globals[this.globalSlot(name)].value = value);
+  }
+
+  @Override
+  public void interpret(List<Stmt> statements, boolean isRepl) throws Exception {
+    Chunk chunk = new Compiler(this, isRepl).compile(statements);
+
+    this.sp = 0;
+    this.frameCount = 0;
+
+    this.ensureStack(chunk.slotCount + chunk.maxStack);
+    Arrays.fill(this.stack, 0, chunk.slotCount, null);
+
+    this.pushFrame(chunk, null, 0);
+    this.sp = chunk.slotCount;
+
+    this.run(0);
+  }
+
+  public Object call(Closure closure, List<Object> args) throws Exception {
+    this.ensureStack(args.size() + 1);
+
+    this.stack[this.sp++] = closure;
+
+    for (Object arg : args)
+      this.stack[this.sp++] = arg;
+
+    int depth = this.frameCount;
+    this.enter(closure, args.size());
+
+    return this.run(depth);
+  }
+
+  // ---
+
+  public int globalSlot(String name) {
+    Integer index = this.globalIndex.get(name);
+
+    if (index != null)
+      return index;
+
+    if (this.globalCount == this.globals.length) {
+      this.globals = Arrays.copyOf(this.globals, this.globalCount * 2);
+      this.globalNames = Arrays.copyOf(this.globalNames, this.globalCount * 2);
+      this.globalDefined = Arrays.copyOf(this.globalDefined, this.globalCount * 2);
+    }
+
+    this.globals[this.globalCount] = new Cell(Cell.UNDEFINED);
+    this.globalNames[this.globalCount] = name;
+    this.globalIndex.put(name, this.globalCount);
+
+    return this.globalCount++;
+  }
+
+  public boolean isNative(String name) {
+    return this.interpreter.globals.containsVariable(name);
+  }
+
+  // ---
+
+  private void ensureStack(int needed) {
+    if (this.sp + needed > this.stack.length)
+      this.stack = Arrays.copyOf(this.stack, Math.max(this.stack.length * 2, this.sp + needed));
+  }
+
+  private void pushFrame(Chunk chunk, Closure closure, int base) throws Exception {
+    if (this.frameCount == this.frameChunks.length) {
+      if (this.frameCount >= MAX_FRAMES)
+        throw new StackOverflowError();
+
+      int size = this.frameCount * 2;
+
+      this.frameChunks = Arrays.copyOf(this.frameChunks, size);
+      this.frameClosures = Arrays.copyOf(this.frameClosures, size);
+      this.frameIps = Arrays.copyOf(this.frameIps, size);
+      this.frameBases = Arrays.copyOf(this.frameBases, size);
+    }
+
+    this.frameChunks[this.frameCount] = chunk;
+    this.frameClosures[this.frameCount] = closure;
+    this.frameIps[this.frameCount] = 0;
+    this.frameBases[this.frameCount] = base;
+    this.frameCount++;
+  }
+
+  // the callee and its arguments are the last argc + 1 values of the stack
+  private void enter(Closure closure, int argc) throws Exception {
+    Chunk chunk = closure.chunk;
+    int base = this.sp - argc;
+
+    this.ensureStack(chunk.slotCount + chunk.maxStack);
+    this.pushFrame(chunk, closure, base);
+
+    for (int slot : chunk.cellParams)
+      this.stack[base + slot] = new Cell(this.stack[base + slot]);
+
+    Arrays.fill(this.stack, base + argc, base + chunk.slotCount, null);
+    this.sp = base + chunk.slotCount;
+  }
+
+  // the arguments are the last argc values of the stack
+  private Object callNative(Callable function, int argc) throws Exception {
+    Object[] stack = this.stack;
+    int first = this.sp - argc;
+
+    switch (argc) {
+      case 0: return function.call0(this.interpreter);
+      case 1: return function.call1(this.interpreter, stack[first]);
+      case 2: return function.call2(this.interpreter, stack[first], stack[first + 1]);
+      case 3: return function.call3(this.interpreter, stack[first], stack[first + 1], stack[first + 2]);
+
+      default:
+        return function.call(this.interpreter, new ArrayList<>(Arrays.asList(stack).subList(first, this.sp)));
+    }
+  }
+
+  private Object run(int exitDepth) throws Exception {
+    int frame = this.frameCount - 1;
+
+    Chunk chunk = this.frameChunks[frame];
+    Closure closure = this.frameClosures[frame];
+    int[] code = chunk.code;
+    Object[] constants = chunk.constants;
+    int base = this.frameBases[frame];
+    int ip = this.frameIps[frame];
+
+    Object[] stack = this.stack;
+    int sp = this.sp;
+
+    while (true) {
+      int op = code[ip++];
+
+      switch (op) {
+        case OpCode.Constant -> stack[sp++] = constants[code[ip++]];
+        case OpCode.Nil -> stack[sp++] = null;
+        case OpCode.True -> stack[sp++] = true;
+        case OpCode.False -> stack[sp++] = false;
+        case OpCode.Pop -> sp--;
+
+        case OpCode.Swap -> {
+          Object top = stack[sp - 1];
+          stack[sp - 1] = stack[sp - 2];
+          stack[sp - 2] = top;
+        }
+
+        // ---
+
+        case OpCode.GetLocal -> stack[sp++] = stack[base + code[ip++]];
+        case OpCode.SetLocal -> stack[base + code[ip++]] = stack[sp - 1];
+
+        case OpCode.GetCell -> {
+          Object value = ((Cell) stack[base + code[ip++]]).value;
+
+          if (value == Cell.UNDEFINED)
+            this.undefined(chunk, constants[code[ip]], ip - 2);
+
+          stack[sp++] = value;
+          ip++;
+        }
+
+        case OpCode.SetCell -> ((Cell) stack[base + code[ip++]]).value = stack[sp - 1];
+        case OpCode.NewCell -> stack[base + code[ip++]] = new Cell(Cell.UNDEFINED);
+
+        case OpCode.GetCaptured -> {
+          Object value = closure.cells[code[ip++]].value;
+
+          if (value == Cell.UNDEFINED)
+            value = this.fallback(closure, code[ip - 1], constants[code[ip]], ip - 2).value;
+
+          stack[sp++] = value;
+          ip++;
+        }
+
+        case OpCode.SetCaptured -> {
+          Cell cell = closure.cells[code[ip++]];
+
+          if (cell.value == Cell.UNDEFINED)
+            cell = this.fallback(closure, code[ip - 1], constants[code[ip]], ip - 2);
+
+          cell.value = stack[sp - 1];
+          ip++;
+        }
+
+        case OpCode.GetGlobal -> {
+          int index = code[ip++];
+          Object value = this.globals[index].value;
+
+          if (value == Cell.UNDEFINED)
+            Util.printError("Variable '" + this.globalNames[index] + "' doesn't exist in this or a parent scope", chunk.positions[ip - 2]);
+
+          stack[sp++] = value;
+        }
+
+        case OpCode.SetGlobal -> {
+          int index = code[ip++];
+          Cell cell = this.globals[index];
+
+          if (cell.value == Cell.UNDEFINED)
+            Util.printError("Variable '" + this.globalNames[index] + "' doesn't exist in this or a parent scope", chunk.positions[ip - 2]);
+
+          cell.value = stack[sp - 1];
+        }
+
+        case OpCode.DefineGlobal -> {
+          int index = code[ip++];
+
+          if (this.globalDefined[index])
+            Util.printError("Cannot redeclare '" + this.globalNames[index] + "' in the same scope", chunk.positions[ip - 2]);
+
+          this.globalDefined[index] = true;
+          this.globals[index].value = stack[--sp];
+        }
+
+        case OpCode.DeclareGlobal -> {
+          int index = code[ip++];
+
+          this.globalDefined[index] = true;
+          this.globals[index].value = stack[--sp];
+        }
+
+        // ---
+
+        case OpCode.Equal -> {
+          sp--;
+          stack[sp - 1] = Operators.isEqual(stack[sp - 1], stack[sp]);
+        }
+
+        case OpCode.NotEqual -> {
+          sp--;
+          stack[sp - 1] = Operators.notEqual(stack[sp - 1], stack[sp]);
+        }
+
+        case OpCode.Greater -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = (long) left > (long) right;
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = (double) left > (double) right;
+          else
+            stack[sp - 1] = Operators.greater(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.GreaterEqual -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = (long) left >= (long) right;
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = (double) left >= (double) right;
+          else
+            stack[sp - 1] = Operators.greaterEqual(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.Less -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = (long) left < (long) right;
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = (double) left < (double) right;
+          else
+            stack[sp - 1] = Operators.less(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.LessEqual -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = (long) left <= (long) right;
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = (double) left <= (double) right;
+          else
+            stack[sp - 1] = Operators.lessEqual(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.Add -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = Operators.add((long) left, (long) right);
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = (double) left + (double) right;
+          else
+            stack[sp - 1] = Operators.plus(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.Subtract -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = Operators.subtract((long) left, (long) right);
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = (double) left - (double) right;
+          else
+            stack[sp - 1] = Operators.minus(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.Multiply -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = Operators.multiply((long) left, (long) right);
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = (double) left * (double) right;
+          else
+            stack[sp - 1] = Operators.times(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.Modulo -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+
+          if (left instanceof Long && right instanceof Long)
+            stack[sp - 1] = Operators.remainder((long) left, (long) right);
+          else if (left instanceof Double && right instanceof Double)
+            stack[sp - 1] = Operators.remainder((double) left, (double) right);
+          else
+            stack[sp - 1] = Operators.modulo(chunk.positions[ip - 1], left, right);
+        }
+
+        case OpCode.Divide -> {
+          Position leftPos = (Position) constants[code[ip++]];
+          sp--;
+          stack[sp - 1] = Operators.divide(chunk.positions[ip - 2], stack[sp - 1], stack[sp], leftPos);
+        }
+
+        case OpCode.LShift -> {
+          Position leftPos = (Position) constants[code[ip++]];
+          sp--;
+          stack[sp - 1] = Operators.lShift(chunk.positions[ip - 2], stack[sp - 1], stack[sp], leftPos);
+        }
+
+        case OpCode.RShift -> {
+          Position leftPos = (Position) constants[code[ip++]];
+          sp--;
+          stack[sp - 1] = Operators.rShift(chunk.positions[ip - 2], stack[sp - 1], stack[sp], leftPos);
+        }
+
+        case OpCode.BitAnd -> {
+          Position leftPos = (Position) constants[code[ip++]];
+          sp--;
+          stack[sp - 1] = Operators.bitAnd(chunk.positions[ip - 2], stack[sp - 1], stack[sp], leftPos);
+        }
+
+        case OpCode.BitOr -> {
+          Position leftPos = (Position) constants[code[ip++]];
+          sp--;
+          stack[sp - 1] = Operators.bitOr(chunk.positions[ip - 2], stack[sp - 1], stack[sp], leftPos);
+        }
+
+        case OpCode.BitXor -> {
+          Position leftPos = (Position) constants[code[ip++]];
+          sp--;
+          stack[sp - 1] = Operators.bitXor(chunk.positions[ip - 2], stack[sp - 1], stack[sp], leftPos);
+        }
+
+        case OpCode.In -> {
+          Position leftPos = (Position) constants[code[ip++]];
+          sp--;
+          stack[sp - 1] = Operators.in(stack[sp - 1], stack[sp], leftPos);
+        }
+
+        case OpCode.Not -> stack[sp - 1] = !Operators.isTruthy(stack[sp - 1]);
+        case OpCode.Negate -> stack[sp - 1] = Operators.negate(chunk.positions[ip - 1], stack[sp - 1]);
+        case OpCode.BitNot -> stack[sp - 1] = Operators.bitNot(chunk.positions[ip - 1], stack[sp - 1]);
+
+        // ---
+
+        case OpCode.RefCell -> {
+          Cell cell = (Cell) stack[base + code[ip++]];
+          stack[sp++] = cell.ref((Token) constants[code[ip++]]);
+        }
+
+        case OpCode.RefCaptured -> {
+          Cell cell = closure.cells[code[ip++]];
+          stack[sp++] = cell.ref((Token) constants[code[ip++]]);
+        }
+
+        case OpCode.RefGlobal -> {
+          Cell cell = this.globals[code[ip++]];
+          stack[sp++] = cell.ref((Token) constants[code[ip++]]);
+        }
+
+        case OpCode.Deref -> {
+          Object operand = stack[sp - 1];
+
+          if (!(operand instanceof Ref))
+            Util.printError("Can only dereference reference objects, got '" + Util.stringify(operand) + "'", chunk.positions[ip - 1]);
+
+          stack[sp - 1] = ((Ref) operand).getReferenced();
+        }
+
+        case OpCode.DerefSet -> {
+          Object ref = stack[--sp];
+
+          if (!(ref instanceof Ref))
+            Util.printError("Can only dereference assign reference objects, got '" + Util.stringify(ref) + "'", chunk.positions[ip - 1]);
+
+          ((Ref) ref).setReferenced(stack[sp - 1]);
+        }
+
+        // ---
+
+        case OpCode.Array -> {
+          int count = code[ip++];
+          List<Object> items = new ArrayList<>(count);
+
+          for (int i = sp - count; i < sp; i++)
+            items.add(stack[i]);
+
+          sp -= count;
+          stack[sp++] = new Array(items);
+        }
+
+        case OpCode.Index -> {
+          sp--;
+          stack[sp - 1] = Operators.index(chunk.positions[ip - 1], stack[sp - 1], stack[sp]);
+        }
+
+        case OpCode.CheckIndex -> Operators.arrayIndex(chunk.positions[ip - 1], stack[sp - 1]);
+
+        case OpCode.SetIndex -> {
+          Object array = stack[--sp];
+          int index = (int) Operators.toLong(stack[--sp]);
+
+          if (!(array instanceof Array))
+            Util.printError("Can only index arrays", chunk.positions[ip - 1]);
+
+          ((Array) array).array.set(index, stack[sp - 1]);
+        }
+
+        case OpCode.Range -> {
+          sp -= 2;
+          stack[sp - 1] = Operators.range(chunk.positions[ip - 1], stack[sp - 1], stack[sp], stack[sp + 1]);
+        }
+
+        // ---
+
+        case OpCode.Jump -> ip = code[ip];
+
+        case OpCode.JumpIfFalse -> {
+          if (Operators.isTruthy(stack[--sp]))
+            ip++;
+          else
+            ip = code[ip];
+        }
+
+        case OpCode.IterInit -> {
+          Object iterable = stack[sp - 1];
+
+          if (!(iterable instanceof Iterable))
+            Util.printError("Can only iterate over iterable objects (e.g. arrays and ranges), got '" + Util.stringify(iterable) + "'", chunk.positions[ip - 1]);
+        }
+
+        case OpCode.IterNext -> {
+          Iterable it = (Iterable) stack[base + code[ip++]];
+
+          if (it.hasNext()) {
+            stack[sp++] = it.next();
+            ip++;
+          }
+          else
+            ip = code[ip];
+        }
+
+        // ---
+
+        case OpCode.Call -> {
+          int argc = code[ip++];
+          Object callee = stack[sp - argc - 1];
+
+          Callable function = Operators.callable(callee, argc, chunk.positions[ip - 2]);
+
+          if (callee instanceof Closure) {
+            this.frameIps[frame] = ip;
+            this.sp = sp;
+
+            this.enter((Closure) callee, argc);
+
+            frame = this.frameCount - 1;
+            closure = (Closure) callee;
+            chunk = closure.chunk;
+            code = chunk.code;
+            constants = chunk.constants;
+            base = this.frameBases[frame];
+            ip = 0;
+            stack = this.stack;
+            sp = this.sp;
+          }
+          else {
+            this.sp = sp;
+            Object result = this.callNative(function, argc);
+
+            stack = this.stack;
+            sp -= argc;
+            stack[sp - 1] = result;
+          }
+        }
+
+        case OpCode.TailCall -> {
+          int argc = code[ip++];
+          Object callee = stack[sp - argc - 1];
+
+          Callable function = Operators.callable(callee, argc, chunk.positions[ip - 2]);
+
+          if (callee instanceof Closure) {
+            // the callee and its arguments take the place of the current frame
+            System.arraycopy(stack, sp - argc - 1, stack, base - 1, argc + 1);
+
+            this.frameCount--;
+            this.sp = base + argc;
+
+            this.enter((Closure) callee, argc);
+
+            frame = this.frameCount - 1;
+            closure = (Closure) callee;
+            chunk = closure.chunk;
+            code = chunk.code;
+            constants = chunk.constants;
+            base = this.frameBases[frame];
+            ip = 0;
+            stack = this.stack;
+            sp = this.sp;
+          }
+          else {
+            this.sp = sp;
+            Object result = this.callNative(function, argc);
+
+            stack = this.stack;
+            sp -= argc;
+            stack[sp - 1] = result;
+          }
+        }
+
+        case OpCode.Closure -> {
+          Chunk fn = (Chunk) constants[code[ip++]];
+          Cell[] cells = new Cell[fn.captures.length];
+
+          for (int i = 0; i < cells.length; i++) {
+            int capture = fn.captures[i];
+
+            cells[i] = capture >= 0
+              ? (Cell) stack[base + capture]
+              : closure.cells[-capture - 1];
+          }
+
+          stack[sp++] = new Closure(fn, cells, this);
+        }
+
+        case OpCode.Unwind -> {
+          this.frameIps[frame] = ip + 1;
+          this.sp = sp;
+          this.unwind(Util.Completion.values()[code[ip]], exitDepth);
+
+          frame = this.frameCount - 1;
+          chunk = this.frameChunks[frame];
+          closure = this.frameClosures[frame];
+          code = chunk.code;
+          constants = chunk.constants;
+          base = this.frameBases[frame];
+          ip = this.frameIps[frame];
+          stack = this.stack;
+          sp = this.sp;
+        }
+
+        case OpCode.Return -> {
+          Object result = stack[--sp];
+
+          this.frameCount--;
+
+          if (this.frameCount == exitDepth) {
+            this.sp = base - 1;
+            return result;
+          }
+
+          sp = base;
+          stack[sp - 1] = result;
+
+          frame = this.frameCount - 1;
+          chunk = this.frameChunks[frame];
+          closure = this.frameClosures[frame];
+          code = chunk.code;
+          constants = chunk.constants;
+          base = this.frameBases[frame];
+          ip = this.frameIps[frame];
+        }
+
+        // ---
+
+        case OpCode.PrintRepl -> System.out.println("< " + Util.stringify(stack[--sp]));
+        case OpCode.Error -> {
+          int message = code[ip++];
+
+          // a statement left by a parse error, already reported
+          if (message < 0)
+            throw new Exception();
+
+          Util.printError((String) constants[message], chunk.positions[ip - 2]);
+        }
+
+        default -> throw new IllegalStateException("Unknown opcode " + op);
+      }
+    }
+  }
+
+  // a 'break' or 'continue' leaving a function body leaves the frames up to the innermost loop around a call,
+  // which resumes there; past the frames of this run it goes on as an exception, like in the tree-walker
+  private void unwind(Util.Completion completion, int exitDepth) throws Exception {
+    while (true) {
+      int frame = this.frameCount - 1;
+      Chunk chunk = this.frameChunks[frame];
+      int call = this.frameIps[frame] - 1;
+      int[] loops = chunk.loops;
+
+      for (int i = 0; i < loops.length; i += 4) {
+        if (loops[i] <= call && call < loops[i + 1]) {
+          this.frameIps[frame] = completion == Util.Completion.Break ? loops[i + 2] : loops[i + 3];
+          this.sp = this.frameBases[frame] + chunk.slotCount;
+
+          return;
+        }
+      }
+
+      if (frame == 0)
+        Interpreter.outsideError(completion, chunk.statementPosition(call));
+
+      this.frameCount--;
+
+      if (this.frameCount == exitDepth)
+        throw completion == Util.Completion.Break ? Util.Break.INSTANCE : Util.Continue.INSTANCE;
+    }
+  }
+
+  // a captured variable that isn't declared yet, so the name refers to the one it shadows
+  private Cell fallback(Closure closure, int index, Object name, int opIndex) throws Exception {
+    int[] fallbacks = closure.chunk.captureFallbacks;
+    int fallback = fallbacks[index];
+
+    while (fallback >= 0 && closure.cells[fallback].value == Cell.UNDEFINED)
+      fallback = fallbacks[fallback];
+
+    if (fallback >= 0)
+      return closure.cells[fallback];
+
+    if (fallback < -1 && this.globals[-fallback - 2].value != Cell.UNDEFINED)
+      return this.globals[-fallback - 2];
+
+    this.undefined(closure.chunk, name, opIndex);
+    return null;
+  }
+
+  private void undefined(Chunk chunk, Object name, int opIndex) throws Exception {
+    Util.printError("Variable '" + name + "' doesn't exist in this or a parent scope", chunk.positions[opIndex]);
+  }
+}